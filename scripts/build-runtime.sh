@@ -0,0 +1,62 @@
+#!/bin/sh
+# Builds the bot and a minimal runtime image to run it with.
+#
+# The bot (packages bot, dataset, field, player and moves) only needs java.base,
+# and java.management for the GC notifications of MemoryBudget, so jlink
+# can leave out the rest of the JDK, java.desktop included. The
+# oracle and bench tools use the original AWT based code and stay on a
+# full JDK. The image gets its own class data sharing archive, which a
+# jlink'd image does not have by default and which most of the JVM
+# startup time depends on.
+#
+# The Vector API evaluator lives in src-vector, the only code that needs
+# jdk.incubator.vector to compile; it always goes into the jar, and
+# BatchEvaluator loads it only when the module is there at run time.
+#
+# Usage: scripts/build-runtime.sh [--vector]
+#   --vector  also adds jdk.incubator.vector, without it BatchEvaluator
+#             falls back to the scalar evaluator (same moves, slower search,
+#             but the Vector API more than doubles the startup time)
+#
+# Output in build/: bot.jar and runtime/, run with
+#   build/runtime/bin/java -jar build/bot.jar < input
+
+set -e
+
+ROOT=$(cd "$(dirname "$0")/.." && pwd)
+BUILD="$ROOT/build"
+MODULES=java.base,java.management
+if [ "$1" = "--vector" ]; then
+	MODULES=java.base,java.management,jdk.incubator.vector
+fi
+
+rm -rf "$BUILD/classes" "$BUILD/runtime" "$BUILD/bot.jar"
+mkdir -p "$BUILD/classes"
+
+javac -d "$BUILD/classes" \
+	$(find "$ROOT/src/bot" "$ROOT/src/dataset" "$ROOT/src/field" "$ROOT/src/player" "$ROOT/src/moves" -name '*.java')
+# The Vector API evaluator has a source root of its own, src compiles without the incubator module
+javac -nowarn --add-modules jdk.incubator.vector -cp "$BUILD/classes" -d "$BUILD/classes" \
+	$(find "$ROOT/src-vector" -name '*.java')
+jar --create --file "$BUILD/bot.jar" --main-class bot.BotStarter -C "$BUILD/classes" .
+
+# Fails the build when a class starts to depend on a module outside the image
+DEPS=$(jdeps --add-modules jdk.incubator.vector --print-module-deps "$BUILD/bot.jar")
+for module in $(echo "$DEPS" | tr ',' ' '); do
+	case ",$MODULES,jdk.incubator.vector," in
+		*",$module,"*) ;;
+		*) echo "bot.jar needs $module, which is not in the image ($MODULES)" >&2; exit 1 ;;
+	esac
+done
+
+# Incubator modules are not resolved by default, the image adds it to every launch
+if [ "$1" = "--vector" ]; then
+	set -- --add-options " --add-modules=jdk.incubator.vector"
+fi
+jlink --add-modules "$MODULES" "$@" \
+	--strip-debug --no-header-files --no-man-pages --compress=2 \
+	--output "$BUILD/runtime"
+"$BUILD/runtime/bin/java" -Xshare:dump > /dev/null
+
+echo "runtime image: $(du -sh "$BUILD/runtime" | cut -f1) ($MODULES)"
+echo "full JDK:      $(du -sh "$(dirname "$(dirname "$(readlink -f "$(command -v java)")")")" | cut -f1)"
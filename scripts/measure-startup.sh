@@ -0,0 +1,86 @@
+#!/bin/sh
+# Startup time and footprint of one bot process, on the full JDK and on the
+# image of scripts/build-runtime.sh. Every match of a tournament starts a
+# new JVM, so this is paid once per match.
+#
+# Usage: scripts/measure-startup.sh [runs] [java home...]
+#   runs       processes per runtime, 20 by default
+#   java home  runtimes to compare, the java on the PATH and build/runtime by default
+#
+# For every runtime: the time for a process to answer one turn and exit
+# (mean and fastest), the classes it loads, the peak resident memory
+# while it waits for the next turn, and the size of the runtime on disk.
+
+set -e
+
+ROOT=$(cd "$(dirname "$0")/.." && pwd)
+JAR="$ROOT/build/bot.jar"
+RUNS=${1:-20}
+[ $# -gt 0 ] && shift
+if [ $# -eq 0 ]; then
+	set -- "$(dirname "$(dirname "$(readlink -f "$(command -v java)")")")" "$ROOT/build/runtime"
+fi
+if [ ! -f "$JAR" ]; then
+	echo "$JAR is missing, run scripts/build-runtime.sh first" >&2
+	exit 1
+fi
+
+TMP=$(mktemp -d)
+trap 'rm -rf "$TMP"' EXIT
+
+# Settings and the first turn of a match on an empty field
+EMPTY=$(printf '0,0,0,0,0,0,0,0,0,0;%.0s' $(seq 20) | sed 's/;$//')
+cat > "$TMP/turn" <<TURN
+settings timebank 10000
+settings time_per_move 500
+settings player_names player1,player2
+settings your_bot player1
+settings field_width 10
+settings field_height 20
+update game round 1
+update game this_piece_type T
+update game next_piece_type L
+update game this_piece_position 3,-1
+update player1 combo 0
+update player1 field $EMPTY
+update player2 combo 0
+update player2 field $EMPTY
+action moves 10000
+TURN
+
+printf '%-40s %8s %8s %8s %10s %8s\n' "runtime" "mean ms" "min ms" "classes" "peak RSS" "size"
+for home in "$@"; do
+	java="$home/bin/java"
+
+	total=0
+	min=
+	i=0
+	while [ $i -lt "$RUNS" ]; do
+		start=$(date +%s%N)
+		"$java" -jar "$JAR" < "$TMP/turn" > /dev/null
+		ms=$(( ($(date +%s%N) - start) / 1000000 ))
+		total=$((total + ms))
+		if [ -z "$min" ] || [ $ms -lt $min ]; then
+			min=$ms
+		fi
+		i=$((i + 1))
+	done
+
+	classes=$("$java" -Xlog:class+load -jar "$JAR" < "$TMP/turn" | grep -c 'source:')
+
+	# Keeps the process waiting for input after its answer to read its memory
+	rm -f "$TMP/in" "$TMP/out"
+	mkfifo "$TMP/in"
+	"$java" -jar "$JAR" < "$TMP/in" > "$TMP/out" &
+	pid=$!
+	exec 3> "$TMP/in"
+	cat "$TMP/turn" >&3
+	while [ ! -s "$TMP/out" ]; do
+		sleep 0.05
+	done
+	rss=$(awk '/VmHWM/ {printf "%.1f MB", $2 / 1024}' "/proc/$pid/status")
+	exec 3>&-
+	wait $pid
+
+	printf '%-40s %8d %8d %8d %10s %8s\n' "$home" $((total / RUNS)) "$min" "$classes" "$rss" "$(du -sh "$home" | cut -f1)"
+done
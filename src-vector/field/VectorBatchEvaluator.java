@@ -0,0 +1,180 @@
+// Copyright 2015 theaigames.com (developers@theaigames.com)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//	
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package field;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * VectorBatchEvaluator class
+ * 
+ * Evaluates one candidate per vector lane: every row of the batch is a
+ * single vector load and all features are computed with lane-wise bit
+ * operations. The deep-well sums keep a bit-sliced counter of the empty
+ * run below each column instead of walking down every well.
+ * Fields taller than 63 rows or wider than one 32 column word are left
+ * to the scalar evaluator.
+ * Needs the jdk.incubator.vector module at compile and run time; only
+ * loaded through BatchEvaluator.getInstance().
+ */
+
+class VectorBatchEvaluator extends BatchEvaluator {
+
+	private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+	private static final int MAX_HEIGHT = 63;
+
+	private final ScalarBatchEvaluator scalar = new ScalarBatchEvaluator();
+
+	VectorBatchEvaluator() {
+		if (CandidateBatch.LANE_PADDING % SPECIES.length() != 0)
+			throw new IllegalStateException("Unsupported vector size " + SPECIES.length());
+	}
+
+	@Override
+	public void evaluate(CandidateBatch batch) {
+		if (batch.height > MAX_HEIGHT || batch.words > 1) {
+			this.scalar.evaluate(batch);
+			return;
+		}
+		for (int i = 0; i < batch.count; i += SPECIES.length())
+			evaluateLanes(batch, i, true);
+		batch.score(0, batch.count);
+	}
+
+	@Override
+	public void evaluateCheap(CandidateBatch batch) {
+		if (batch.height > MAX_HEIGHT || batch.words > 1) {
+			this.scalar.evaluateCheap(batch);
+			return;
+		}
+		for (int i = 0; i < batch.count; i += SPECIES.length())
+			evaluateLanes(batch, i, false);
+	}
+
+	private static IntVector bitCount(IntVector v) {
+		v = v.sub(v.lanewise(VectorOperators.LSHR, 1).and(0x55555555));
+		v = v.and(0x33333333).add(v.lanewise(VectorOperators.LSHR, 2).and(0x33333333));
+		v = v.add(v.lanewise(VectorOperators.LSHR, 4)).and(0x0f0f0f0f);
+		return v.mul(0x01010101).lanewise(VectorOperators.LSHR, 24);
+	}
+
+	private static IntVector empty(IntVector block, IntVector other, int full) {
+		return block.or(other).lanewise(VectorOperators.NOT).and(full);
+	}
+
+	/**
+	 * @param expensive : also compute the column transitions and well sums
+	 */
+	private void evaluateLanes(CandidateBatch batch, int i, boolean expensive) {
+		int c = batch.capacity;
+		int width = batch.width;
+		int height = batch.height;
+		int full = Features.fullRow(width);
+		int inner = full & ~1 & ~(1 << (width - 1));
+		IntVector zero = IntVector.zero(SPECIES);
+
+		IntVector lines = zero;
+		IntVector rowTransitions = zero;
+		IntVector columnTransitions = zero;
+		IntVector holes = zero;
+		IntVector lastEmpty = IntVector.broadcast(SPECIES, full);
+		IntVector alive = lastEmpty;
+		IntVector covered = zero;
+
+		for (int y = 0, j = i; y < height; y++, j += c) {
+			IntVector block = IntVector.fromArray(SPECIES, batch.blocks, j);
+			IntVector solid = IntVector.fromArray(SPECIES, batch.solids, j);
+			IntVector shape = IntVector.fromArray(SPECIES, batch.shapes, j);
+			IntVector stop = solid.or(shape);
+			IntVector empty = empty(block, stop, full);
+
+			lines = lines.add(1, block.or(shape).compare(VectorOperators.EQ, full));
+
+			// Cells left of the first solid or shape cell, without the first column
+			IntVector inside = stop.and(stop.neg()).sub(1).and(full & ~1);
+			rowTransitions = rowTransitions.add(bitCount(empty.lanewise(VectorOperators.XOR, empty.lanewise(VectorOperators.LSHL, 1)).and(inside)));
+			rowTransitions = rowTransitions.add(block.lanewise(VectorOperators.LSHR, width - 1).and(1), stop.compare(VectorOperators.EQ, 0));
+
+			if (expensive) {
+				alive = alive.and(solid.lanewise(VectorOperators.NOT));
+				IntVector changes = empty.lanewise(VectorOperators.XOR, lastEmpty).and(alive).and(shape.lanewise(VectorOperators.NOT));
+				columnTransitions = columnTransitions.add(bitCount(changes));
+				lastEmpty = lastEmpty.lanewise(VectorOperators.XOR, changes);
+			}
+
+			holes = holes.add(bitCount(empty.and(covered)));
+			covered = covered.or(block);
+		}
+
+		lines.intoArray(batch.features, CandidateBatch.LINES * c + i);
+		rowTransitions.intoArray(batch.features, CandidateBatch.ROW_TRANSITIONS * c + i);
+		holes.intoArray(batch.features, CandidateBatch.HOLES * c + i);
+		if (!expensive)
+			return;
+		columnTransitions.intoArray(batch.features, CandidateBatch.COLUMN_TRANSITIONS * c + i);
+		if (!batch.scorer.uses(CandidateBatch.WELL_SUMS)) {
+			zero.intoArray(batch.features, CandidateBatch.WELL_SUMS * c + i);
+			return;
+		}
+
+		// Bottom up, so the empty run below every row is known when its wells are counted.
+		// The run length is kept as 6 bit planes, enough for fields up to 63 rows.
+		IntVector run0 = zero, run1 = zero, run2 = zero, run3 = zero, run4 = zero, run5 = zero;
+		IntVector wells = zero;
+		IntVector emptyLeft = zero;
+		IntVector emptyRight = zero;
+
+		for (int y = height - 1, j = y * c + i; y >= 0; y--, j -= c) {
+			IntVector block = IntVector.fromArray(SPECIES, batch.blocks, j);
+			IntVector empty = empty(block, IntVector.fromArray(SPECIES, batch.solids, j).or(IntVector.fromArray(SPECIES, batch.shapes, j)), full);
+
+			IntVector well = empty.and(block.lanewise(VectorOperators.LSHL, 1)).and(block.lanewise(VectorOperators.LSHR, 1)).and(inner);
+			wells = wells.add(bitCount(well))
+					.add(bitCount(well.and(run0)))
+					.add(bitCount(well.and(run1)).lanewise(VectorOperators.LSHL, 1))
+					.add(bitCount(well.and(run2)).lanewise(VectorOperators.LSHL, 2))
+					.add(bitCount(well.and(run3)).lanewise(VectorOperators.LSHL, 3))
+					.add(bitCount(well.and(run4)).lanewise(VectorOperators.LSHL, 4))
+					.add(bitCount(well.and(run5)).lanewise(VectorOperators.LSHL, 5));
+
+			IntVector left = empty.and(1);
+			IntVector right = empty.lanewise(VectorOperators.LSHR, width - 1).and(1);
+			wells = wells.add(left.and(block.lanewise(VectorOperators.LSHR, 1)).mul(emptyLeft.add(1)));
+			wells = wells.add(right.and(block.lanewise(VectorOperators.LSHR, width - 2)).mul(emptyRight.add(1)));
+			emptyLeft = emptyLeft.add(left);
+			emptyRight = emptyRight.add(right);
+
+			// run = empty ? run + 1 : 0, one bit plane at a time
+			IntVector carry = empty, next;
+			next = run0.and(carry); run0 = run0.lanewise(VectorOperators.XOR, carry).and(empty); carry = next;
+			next = run1.and(carry); run1 = run1.lanewise(VectorOperators.XOR, carry).and(empty); carry = next;
+			next = run2.and(carry); run2 = run2.lanewise(VectorOperators.XOR, carry).and(empty); carry = next;
+			next = run3.and(carry); run3 = run3.lanewise(VectorOperators.XOR, carry).and(empty); carry = next;
+			next = run4.and(carry); run4 = run4.lanewise(VectorOperators.XOR, carry).and(empty); carry = next;
+			run5 = run5.lanewise(VectorOperators.XOR, carry).and(empty);
+		}
+
+		wells.intoArray(batch.features, CandidateBatch.WELL_SUMS * c + i);
+	}
+
+	@Override
+	public String getName() {
+		return "vector " + SPECIES.length() + "x32";
+	}
+}
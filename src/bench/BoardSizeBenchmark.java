@@ -0,0 +1,155 @@
+// Copyright 2015 theaigames.com (developers@theaigames.com)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package bench;
+
+import bot.BotStarter;
+import bot.BotState;
+import bot.SearchMode;
+import bot.SearchScheduler;
+import field.BatchEvaluator;
+import field.ShapeType;
+import oracle.ReferenceField;
+import oracle.ReferenceSearch;
+
+import java.awt.*;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * BoardSizeBenchmark class
+ *
+ * Measures the time of one full turn (the two piece lookahead search) on
+ * boards of growing size, for BotStarter and for the original object
+ * based search in oracle.ReferenceSearch. Boards are random stacks
+ * filled to the same fraction of their height, so the cost per cell
+ * shows how a turn grows with the board area. Nodes per second (boards
+ * evaluated by the search) separate the speed of the machine from the
+ * amount of work the search does; with -Dbot.nodes the work is the same
+ * on every machine.
+ *
+ * Usage: BoardSizeBenchmark [turns] [reference turns] [sizes...], sizes
+ * as WIDTHxHEIGHT, 0 reference turns skips the reference
+ */
+
+public class BoardSizeBenchmark {
+
+	private static final String[] DEFAULT_SIZES = {"10x20", "16x30", "24x40", "40x40", "64x48"};
+	private static final ShapeType[] PIECES = {ShapeType.I, ShapeType.J, ShapeType.L, ShapeType.O, ShapeType.S, ShapeType.T, ShapeType.Z};
+	private static final long SEED = 35;
+
+	public static void main(String[] args) {
+		int turns = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		int referenceTurns = args.length > 1 ? Integer.parseInt(args[1]) : Math.max(turns / 4, 1);
+		String[] sizes = args.length > 2 ? Arrays.copyOfRange(args, 2, args.length) : DEFAULT_SIZES;
+
+		SearchScheduler scheduler = new SearchScheduler(1);
+		BotStarter bot = new BotStarter(scheduler, SearchMode.LOOKAHEAD);
+		ReferenceSearch reference = new ReferenceSearch();
+
+		System.out.printf("evaluator %s, %d turns per size\n", BatchEvaluator.getInstance().getName(), turns);
+		System.out.printf("%-7s %6s %12s %12s %14s %14s %8s %10s\n",
+				"size", "cells", "packed us", "ref us", "packed ns/cell", "ref ns/cell", "speedup", "knodes/s");
+
+		double baseCost = 0;
+		for (String size : sizes) {
+			String[] parts = size.split("x");
+			int width = Integer.parseInt(parts[0]);
+			int height = Integer.parseInt(parts[1]);
+			int cells = width * height;
+
+			// Warm up on the same boards, then time them
+			run(bot, null, width, height, turns);
+			long nodes = bot.getNodeCount();
+			double packed = run(bot, null, width, height, turns);
+			double nodeRate = (bot.getNodeCount() - nodes) / (packed * turns / 1e9);
+			double ref = Double.NaN;
+			if (referenceTurns > 0) {
+				run(null, reference, width, height, referenceTurns);
+				ref = run(null, reference, width, height, referenceTurns);
+			}
+
+			if (baseCost == 0)
+				baseCost = packed / cells;
+			System.out.printf("%-7s %6d %12.1f %12.1f %14.1f %14.1f %7.1fx %10.0f   cost/cell x%.2f\n",
+					size, cells, packed / 1e3, ref / 1e3, packed / cells, ref / cells, ref / packed,
+					nodeRate / 1e3, packed / cells / baseCost);
+		}
+		scheduler.shutdown();
+	}
+
+	/**
+	 * @return : mean nanoseconds per turn
+	 */
+	private static double run(BotStarter bot, ReferenceSearch reference, int width, int height, int turns) {
+		SplittableRandom random = new SplittableRandom(SEED);
+		long total = 0;
+		for (int t = 0; t < turns; t++) {
+			String field = board(random, width, height);
+			ShapeType piece = PIECES[random.nextInt(PIECES.length)];
+			ShapeType next = PIECES[random.nextInt(PIECES.length)];
+			int combo = random.nextInt(3);
+			Point spawn = (piece == ShapeType.O) ? new Point(4, -1) : new Point(3, -1);
+
+			long start = System.nanoTime();
+			if (reference != null) {
+				reference.getMoves(new ReferenceField(width, height, field), piece, spawn, next, combo);
+			} else {
+				BotState state = new BotState();
+				state.updateSettings("player_names", "player1,player2");
+				state.updateSettings("your_bot", "player1");
+				state.updateSettings("field_width", Integer.toString(width));
+				state.updateSettings("field_height", Integer.toString(height));
+				state.updateState("player1", "combo", Integer.toString(combo));
+				state.updateState("player1", "field", field);
+				state.updateState("game", "this_piece_type", piece.name());
+				state.updateState("game", "next_piece_type", next.name());
+				state.updateState("game", "this_piece_position", spawn.x + "," + spawn.y);
+				bot.getMoves(state, 60000);
+			}
+			total += System.nanoTime() - start;
+		}
+		return (double) total / turns;
+	}
+
+	/**
+	 * Random stack up to about 40% of the height with holes, no full rows, and solid rows
+	 */
+	private static String board(SplittableRandom random, int width, int height) {
+		int solid = random.nextInt(3);
+		int stack = random.nextInt(Math.max(1, height * 2 / 5));
+		StringBuilder builder = new StringBuilder();
+		for (int y = 0; y < height; y++) {
+			if (y > 0)
+				builder.append(';');
+			int gap = random.nextInt(width);
+			for (int x = 0; x < width; x++) {
+				if (x > 0)
+					builder.append(',');
+				int cell;
+				if (y >= height - solid)
+					cell = 3;
+				else if (y >= height - solid - stack)
+					cell = x == gap || random.nextInt(12) == 0 ? 0 : 2;
+				else
+					cell = 0;
+				builder.append(cell);
+			}
+		}
+		return builder.toString();
+	}
+}
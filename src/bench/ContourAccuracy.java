@@ -0,0 +1,186 @@
+// Copyright 2015 theaigames.com (developers@theaigames.com)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//	
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+import dataset.DatasetReader;
+import field.BatchEvaluator;
+import field.CandidateBatch;
+import field.ContourField;
+import field.Orientation;
+import field.PackedField;
+import field.Placements;
+import field.ScoreFunction;
+import field.ShapeType;
+
+/**
+ * ContourAccuracy class
+ * 
+ * Compares the move choices of the ContourField evaluation with the full
+ * evaluation on the positions of a dataset (see DatasetWriter). Every
+ * placement of the recorded piece is scored both ways; the report shows
+ * how often both pick the same board, where the contour choice ranks
+ * among the boards of the full evaluation and how many points it loses
+ * there, the error of every contour feature, and what scoring all
+ * placements of a piece costs with either evaluation. The falling piece and any full rows are removed
+ * first, as the fields of the deep plies have neither.
+ * 
+ * Usage: ContourAccuracy dataset [positions]
+ */
+
+public class ContourAccuracy {
+
+	private static final int TOP = 3;
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("usage: ContourAccuracy dataset [positions]");
+			System.exit(2);
+		}
+		long limit = args.length > 1 ? Long.parseLong(args[1]) : Long.MAX_VALUE;
+		ScoreFunction scorer = ScoreFunction.DEFAULT;
+
+		try (DatasetReader reader = new DatasetReader(Paths.get(args[0]))) {
+			int width = reader.getWidth();
+			int height = reader.getHeight();
+			PackedField field = new PackedField(width, height);
+			Placements placements = new Placements(width);
+			CandidateBatch batch = new CandidateBatch(width, height, 4 * width, scorer);
+			ContourField contour = new ContourField(width, height);
+			ContourField child = new ContourField(width, height);
+			int[] candidate = new int[4 * width];
+			double[] full = new double[4 * width];
+			double[] reduced = new double[4 * width];
+			double[] boardBest = new double[4 * width];
+
+			long positions = 0, placed = 0, tucks = 0, agree = 0, top = 0, rankSum = 0;
+			long linesRight = 0, compared = 0;
+			long[] featureError = new long[CandidateBatch.FEATURES];
+			double regret = 0, fullNanos = 0, contourNanos = 0;
+			while (positions < limit && reader.next()) {
+				reader.copyTo(field);
+				field.clearShapes();
+				field.removeLines();
+				ShapeType piece = reader.getPiece();
+				int combo = reader.getCombo() * 2;
+				int count = placements.generate(field, piece, Orientation.spawnX(piece, width), -1);
+				if (count == 0)
+					continue;
+				positions++;
+				placed += count;
+
+				long start = System.nanoTime();
+				placements.generate(field, piece, Orientation.spawnX(piece, width), -1);
+				batch.reset(field, combo);
+				for (int i = 0; i < count; i++) {
+					if (placements.isUnique(i))
+						candidate[i] = batch.add(placements.getOrientation(i), placements.getX(i), placements.getY(i));
+					else
+						candidate[i] = candidate[placements.getUnique(i)];
+				}
+				BatchEvaluator.getInstance().evaluate(batch);
+				for (int i = 0; i < count; i++) {
+					Orientation o = placements.getOrientation(i);
+					full[i] = batch.getScore(candidate[i], height - placements.getY(i) - o.getSize() / 2);
+				}
+				fullNanos += System.nanoTime() - start;
+
+				// What the chance ply of the search pays for the piece on either field
+				start = System.nanoTime();
+				contour.copyFrom(field);
+				contour.best(piece, combo, scorer, child);
+				contourNanos += System.nanoTime() - start;
+
+				for (int i = 0; i < count; i++) {
+					Orientation o = placements.getOrientation(i);
+					int x = placements.getX(i);
+					int y = contour.drop(o, x);
+					child.copyFrom(contour);
+					int lines = child.place(o, x, y);
+					reduced[i] = child.evaluate(o, y, lines, combo, scorer);
+				}
+
+				// Feature errors on the placements the contour can reach
+				for (int i = 0; i < count; i++) {
+					Orientation o = placements.getOrientation(i);
+					int x = placements.getX(i);
+					int y = contour.drop(o, x);
+					if (y != placements.getY(i)) {
+						tucks++;
+						continue;
+					}
+					child.copyFrom(contour);
+					int lines = child.place(o, x, y);
+					int c = candidate[i];
+					compared++;
+					if (lines == batch.getFeature(CandidateBatch.LINES, c))
+						linesRight++;
+					featureError[CandidateBatch.LINES] += Math.abs(lines - batch.getFeature(CandidateBatch.LINES, c));
+					featureError[CandidateBatch.ROW_TRANSITIONS] += Math.abs(child.getRowTransitions() + lines - batch.getFeature(CandidateBatch.ROW_TRANSITIONS, c));
+					featureError[CandidateBatch.COLUMN_TRANSITIONS] += Math.abs(child.getColumnTransitions() - batch.getFeature(CandidateBatch.COLUMN_TRANSITIONS, c));
+					featureError[CandidateBatch.HOLES] += Math.abs(child.getHoles() - batch.getFeature(CandidateBatch.HOLES, c));
+					featureError[CandidateBatch.WELL_SUMS] += Math.abs(child.getWellSums() - batch.getFeature(CandidateBatch.WELL_SUMS, c));
+				}
+
+				// Choices in placement order, ties resolved like the lookahead
+				int fullBest = best(full, count);
+				int contourBest = best(reduced, count);
+				if (candidate[fullBest] == candidate[contourBest])
+					agree++;
+				for (int c = 0; c < batch.size(); c++)
+					boardBest[c] = Double.NEGATIVE_INFINITY;
+				for (int i = 0; i < count; i++)
+					boardBest[candidate[i]] = Math.max(boardBest[candidate[i]], full[i]);
+				int rank = 0;
+				for (int c = 0; c < batch.size(); c++)
+					if (boardBest[c] > boardBest[candidate[contourBest]])
+						rank++;
+				rankSum += rank;
+				if (rank < TOP)
+					top++;
+				regret += full[fullBest] - boardBest[candidate[contourBest]];
+			}
+
+			long n = Math.max(positions, 1);
+			long m = Math.max(compared, 1);
+			System.out.printf("%d positions of %dx%d, %d placements, %d under overhangs the contour cannot reach\n",
+					positions, width, height, placed, tucks);
+			System.out.printf("same board %.1f%%, in the full top %d %.1f%%, mean rank %.2f, mean loss %.2f points\n",
+					100.0 * agree / n, TOP, 100.0 * top / n, (double) rankSum / n, regret / n);
+			System.out.printf("lines right %.1f%%, mean error: lines %.3f, row transitions %.2f, column transitions %.2f, holes %.2f, well sums %.2f\n",
+					100.0 * linesRight / m, (double) featureError[CandidateBatch.LINES] / m,
+					(double) featureError[CandidateBatch.ROW_TRANSITIONS] / m, (double) featureError[CandidateBatch.COLUMN_TRANSITIONS] / m,
+					(double) featureError[CandidateBatch.HOLES] / m, (double) featureError[CandidateBatch.WELL_SUMS] / m);
+			System.out.printf("us to score a piece on a field: full %.2f, contour %.2f\n",
+					fullNanos / n / 1e3, contourNanos / n / 1e3);
+		}
+	}
+
+	/**
+	 * @return : the last placement with the highest score
+	 */
+	private static int best(double[] scores, int count) {
+		int best = 0;
+		for (int i = 1; i < count; i++)
+			if (scores[i] >= scores[best])
+				best = i;
+		return best;
+	}
+}
@@ -0,0 +1,388 @@
+// Copyright 2015 theaigames.com (developers@theaigames.com)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//	
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.SplittableRandom;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import field.Orientation;
+import field.PackedField;
+import field.ShapeType;
+
+/**
+ * Match class
+ * 
+ * One game between two bot processes, played like the engine plays it
+ * over the same line protocol: both players get the same seeded piece
+ * sequence, and every round each bot answers "action moves" with its
+ * moves for the current piece.
+ * 
+ * Rules, as far as they matter for strength: cleared lines score
+ * ROW_POINTS plus the combo, every GARBAGE_POINTS row points push a
+ * garbage row (a block row with one gap) into the opponent's field, and
+ * every SOLID_ROUNDS rounds a solid row is pushed into both fields. A
+ * player whose piece cannot spawn, lands above the field or whose stack
+ * is pushed out at the top loses. Both at once, or MAX_ROUNDS without a
+ * loser, goes to the row points.
+ * 
+ * Like the engine, a bot that has not answered when its time bank (plus
+ * GRACE_MILLIS for the pipes) runs out loses, so a hanging bot ends its
+ * game instead of blocking it.
+ */
+
+public class Match {
+
+	static final int WIDTH = 10;
+	static final int HEIGHT = 20;
+	static final int[] ROW_POINTS = {0, 0, 3, 6, 10};
+	static final int GARBAGE_POINTS = 4;
+	static final int SOLID_ROUNDS = 15;
+	static final int MAX_ROUNDS = 1000;
+	static final int TIMEBANK = 10000;
+	static final int TIME_PER_MOVE = 500;
+	// Waited for an answer beyond the time bank, for the process and pipe latency
+	static final int GRACE_MILLIS = 200;
+	private static final ShapeType[] PIECES = {ShapeType.I, ShapeType.J, ShapeType.L, ShapeType.O, ShapeType.S, ShapeType.T, ShapeType.Z};
+	// Marks the end of a bot's output, compared by identity
+	private static final String END = new String("end of output");
+
+	/*
+	* A bot process and its side of the game
+	* */
+	static class Side {
+		final String name;
+		final Process process;
+		final PrintStream in;
+		// Lines of the bot's output, END once it closed
+		final BlockingQueue<String> out = new LinkedBlockingQueue<>();
+		final PackedField field = new PackedField(WIDTH, HEIGHT);
+		final SplittableRandom gaps;
+		final long[] latencies = new long[MAX_ROUNDS];
+		int moves;
+		int timeouts;
+		int points;
+		int combo;
+		int garbage; // row points not yet sent as garbage
+		int solids;
+		long timebank = TIMEBANK;
+		boolean lost;
+
+		Side(String name, String[] command, long seed) throws IOException {
+			this.name = name;
+			ProcessBuilder builder = new ProcessBuilder(command);
+			builder.redirectError(ProcessBuilder.Redirect.DISCARD);
+			this.process = builder.start();
+			this.in = new PrintStream(this.process.getOutputStream(), false);
+			this.gaps = new SplittableRandom(seed);
+			final BufferedReader reader = new BufferedReader(new InputStreamReader(this.process.getInputStream()));
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (String line = reader.readLine(); line != null; line = reader.readLine())
+							Side.this.out.add(line);
+					} catch (IOException e) {
+						// closed, the same as the end of the output
+					}
+					Side.this.out.add(END);
+				}
+			}, "match-" + name);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		/**
+		 * @param millis : longest wait
+		 * @return : the next line of the bot's output, END when it closed, or null when it did not answer in time
+		 */
+		String readLine(long millis) throws InterruptedException {
+			String line = this.out.poll(millis, TimeUnit.MILLISECONDS);
+			// The end stays queued for every later read
+			if (line == END)
+				this.out.add(END);
+			return line;
+		}
+
+		void close() {
+			this.in.close();
+			try {
+				if (!this.process.waitFor(5, TimeUnit.SECONDS))
+					this.process.destroyForcibly();
+			} catch (InterruptedException e) {
+				this.process.destroyForcibly();
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private final Side[] sides;
+	private final SplittableRandom pieces;
+	private int rounds;
+
+	/**
+	 * Starts both bots
+	 * @param first  : command of player1
+	 * @param second : command of player2
+	 * @param seed   : seed of the pieces and garbage gaps, the same seed is the same game
+	 */
+	public Match(String[] first, String[] second, long seed) throws IOException {
+		this.pieces = new SplittableRandom(seed);
+		this.sides = new Side[2];
+		this.sides[0] = new Side("player1", first, seed * 31 + 1);
+		try {
+			this.sides[1] = new Side("player2", second, seed * 31 + 2);
+		} catch (IOException e) {
+			this.sides[0].close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Plays the game to its end and stops both bots
+	 * @return : 1 when player1 won, 0 when player2 won, 0.5 for a draw
+	 */
+	public double play() {
+		try {
+			for (Side side : this.sides) {
+				side.in.printf("settings timebank %d\n", TIMEBANK);
+				side.in.printf("settings time_per_move %d\n", TIME_PER_MOVE);
+				side.in.printf("settings player_names player1,player2\n");
+				side.in.printf("settings your_bot %s\n", side.name);
+				side.in.printf("settings field_width %d\n", WIDTH);
+				side.in.printf("settings field_height %d\n", HEIGHT);
+			}
+
+			ShapeType piece = next();
+			ShapeType nextPiece = next();
+			for (this.rounds = 1; this.rounds <= MAX_ROUNDS; this.rounds++) {
+				// Both bots see the fields of the start of the round
+				String[] fields = new String[2];
+				for (int s = 0; s < 2; s++)
+					fields[s] = render(this.sides[s].field, Orientation.get(piece, 0), spawnX(piece), -1);
+				for (Side side : this.sides)
+					turn(side, piece, nextPiece, fields);
+				for (int s = 0; s < 2; s++) {
+					Side side = this.sides[s];
+					Side other = this.sides[1 - s];
+					for (; side.garbage >= GARBAGE_POINTS; side.garbage -= GARBAGE_POINTS)
+						push(other, garbageRow(other));
+				}
+				if (this.rounds % SOLID_ROUNDS == 0)
+					for (Side side : this.sides) {
+						push(side, -1);
+						side.solids++;
+					}
+				if (this.sides[0].lost || this.sides[1].lost)
+					break;
+				piece = nextPiece;
+				nextPiece = next();
+			}
+		} finally {
+			for (Side side : this.sides)
+				side.close();
+		}
+
+		Side first = this.sides[0], second = this.sides[1];
+		if (first.lost != second.lost)
+			return first.lost ? 0 : 1;
+		if (first.points != second.points)
+			return first.points > second.points ? 1 : 0;
+		return 0.5;
+	}
+
+	private ShapeType next() {
+		return PIECES[this.pieces.nextInt(PIECES.length)];
+	}
+
+	/**
+	 * Sends the state of the round to one bot and plays the moves it answers
+	 */
+	private void turn(Side side, ShapeType piece, ShapeType nextPiece, String[] fields) {
+		int spawnX = spawnX(piece);
+		int spawnY = -1;
+		Orientation o = Orientation.get(piece, 0);
+		if (!side.field.fits(o, spawnX, spawnY)) {
+			side.lost = true;
+			return;
+		}
+
+		side.in.printf("update game round %d\n", this.rounds);
+		side.in.printf("update game this_piece_type %s\n", piece);
+		side.in.printf("update game next_piece_type %s\n", nextPiece);
+		side.in.printf("update game this_piece_position %d,%d\n", spawnX, spawnY);
+		for (int s = 0; s < 2; s++) {
+			Side player = this.sides[s];
+			side.in.printf("update %s row_points %d\n", player.name, player.points);
+			side.in.printf("update %s combo %d\n", player.name, player.combo);
+			side.in.printf("update %s field %s\n", player.name, fields[s]);
+		}
+		side.in.printf("action moves %d\n", side.timebank);
+		side.in.flush();
+
+		long start = System.nanoTime();
+		String answer;
+		try {
+			answer = side.readLine(side.timebank + GRACE_MILLIS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			answer = END;
+		}
+		long elapsed = System.nanoTime() - start;
+		side.latencies[side.moves++] = elapsed;
+		side.timebank -= elapsed / 1000000;
+		if (side.timebank < 0)
+			side.timeouts++;
+		side.timebank = Math.min(TIMEBANK, Math.max(0, side.timebank) + TIME_PER_MOVE);
+		if (answer == null || answer == END) {
+			// Out of time, or the bot died: it does not move any more
+			side.lost = true;
+			return;
+		}
+
+		int rotation = 0, x = spawnX, y = spawnY;
+		boolean dropped = false;
+		for (String move : answer.trim().split(",")) {
+			switch (move) {
+				case "turnright":
+					if (side.field.fits(Orientation.get(piece, rotation + 1), x, y))
+						rotation++;
+					break;
+				case "turnleft":
+					if (side.field.fits(Orientation.get(piece, rotation + 3), x, y))
+						rotation += 3;
+					break;
+				case "left":
+					if (side.field.fits(Orientation.get(piece, rotation), x - 1, y))
+						x--;
+					break;
+				case "right":
+					if (side.field.fits(Orientation.get(piece, rotation), x + 1, y))
+						x++;
+					break;
+				case "down":
+					if (side.field.fits(Orientation.get(piece, rotation), x, y + 1))
+						y++;
+					break;
+				case "drop":
+					dropped = true;
+					break;
+				default:
+					break;
+			}
+			if (dropped)
+				break;
+		}
+		o = Orientation.get(piece, rotation);
+		y = side.field.drop(o, x, y);
+		if (y + o.getMinDy() < 0) {
+			side.lost = true;
+			return;
+		}
+		side.field.place(o, x, y);
+
+		int lines = side.field.removeLines();
+		if (lines > 0) {
+			int points = ROW_POINTS[Math.min(lines, 4)] + side.combo;
+			side.points += points;
+			side.garbage += points;
+			side.combo++;
+		} else {
+			side.combo = 0;
+		}
+	}
+
+	private static int spawnX(ShapeType piece) {
+		return piece == ShapeType.O ? 4 : 3;
+	}
+
+	/**
+	 * @return : a block row with one gap, of the gap sequence of the side it goes to
+	 */
+	private static int garbageRow(Side side) {
+		return ((1 << WIDTH) - 1) & ~(1 << side.gaps.nextInt(WIDTH));
+	}
+
+	/**
+	 * Pushes a row in from below, on top of the solid rows
+	 * @param row : block cells of the row, -1 for a solid row
+	 */
+	private static void push(Side side, int row) {
+		PackedField field = side.field;
+		if (field.getBlockRow(0) != 0 || field.getSolidRow(0) != 0)
+			side.lost = true;
+		field.rotateUp(1);
+		int solid = (1 << WIDTH) - 1;
+		if (row == -1) {
+			field.setRow(HEIGHT - 1, 0, 0, solid, 0);
+		} else {
+			field.setRow(HEIGHT - 1 - side.solids, 0, row, 0, 0);
+			if (side.solids > 0)
+				field.setRow(HEIGHT - 1, 0, 0, solid, 0);
+		}
+	}
+
+	/**
+	 * @return : the field in the engine's format, with the falling piece drawn in if given
+	 */
+	static String render(PackedField field, Orientation piece, int x, int y) {
+		PackedField shape = null;
+		if (piece != null) {
+			shape = new PackedField(WIDTH, HEIGHT);
+			shape.place(piece, x, y);
+		}
+		StringBuilder builder = new StringBuilder();
+		for (int row = 0; row < HEIGHT; row++) {
+			if (row > 0)
+				builder.append(';');
+			for (int column = 0; column < WIDTH; column++) {
+				if (column > 0)
+					builder.append(',');
+				int bit = 1 << column;
+				if ((field.getBlockRow(row) & bit) != 0)
+					builder.append('2');
+				else if ((field.getSolidRow(row) & bit) != 0)
+					builder.append('3');
+				else if (shape != null && (shape.getBlockRow(row) & bit) != 0)
+					builder.append('1');
+				else
+					builder.append('0');
+			}
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * @return : rounds played
+	 */
+	public int getRounds() {
+		return Math.min(this.rounds, MAX_ROUNDS);
+	}
+
+	/**
+	 * @param player : 0 for player1
+	 */
+	Side getSide(int player) {
+		return this.sides[player];
+	}
+}
@@ -0,0 +1,230 @@
+// Copyright 2015 theaigames.com (developers@theaigames.com)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//	
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package bench;
+
+import bot.CpuQuota;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tournament class
+ * 
+ * Plays two bot builds against each other with Match, on all cores, and
+ * stops as soon as a sequential probability ratio test settles whether
+ * build A is at least ELO1 stronger than B or not stronger than ELO0.
+ * Every seed is played twice with the sides swapped, so both builds get
+ * the same pieces and garbage in both seats, and a pair is always
+ * played out.
+ * 
+ * The test uses the normal approximation of the log likelihood ratio of
+ * the game scores (win 1, draw 0.5, loss 0), with error rates ALPHA and
+ * BETA. Latencies are the wall time from the "action" line to the answer,
+ * including the pipe, and run under the load of the parallel games.
+ * 
+ * Usage: Tournament "command A" "command B" [max games] [threads] [elo0] [elo1] [seed]
+ * with the commands split on spaces, for example
+ * Tournament "java -cp new bot.BotStarter" "java -cp old bot.BotStarter"
+ */
+
+public class Tournament {
+
+	static final double ALPHA = 0.05;
+	static final double BETA = 0.05;
+
+	private final String[] commandA;
+	private final String[] commandB;
+	private final double elo0;
+	private final double elo1;
+	private int wins;
+	private int draws;
+	private int losses;
+	private long rounds;
+	private int failures;
+	private final long[][] latencies = new long[2][];
+	private final int[] moves = new int[2];
+	private final int[] timeouts = new int[2];
+	private volatile boolean settled;
+
+	Tournament(String[] commandA, String[] commandB, double elo0, double elo1) {
+		this.commandA = commandA;
+		this.commandB = commandB;
+		this.elo0 = elo0;
+		this.elo1 = elo1;
+		this.latencies[0] = new long[1024];
+		this.latencies[1] = new long[1024];
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		String[] commandA = args[0].trim().split(" +");
+		String[] commandB = args[1].trim().split(" +");
+		int maxGames = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : CpuQuota.get().getWorkers();
+		double elo0 = args.length > 4 ? Double.parseDouble(args[4]) : 0;
+		double elo1 = args.length > 5 ? Double.parseDouble(args[5]) : 10;
+		long seed = args.length > 6 ? Long.parseLong(args[6]) : 1;
+
+		Tournament tournament = new Tournament(commandA, commandB, elo0, elo1);
+		System.out.printf("A: %s\nB: %s\nup to %d games on %d threads, SPRT elo0 %.1f elo1 %.1f alpha %.2f beta %.2f\n",
+				args[0], args[1], maxGames, threads, elo0, elo1, ALPHA, BETA);
+
+		long start = System.nanoTime();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		for (int pair = 0; pair < maxGames / 2; pair++) {
+			final long pairSeed = seed + pair;
+			pool.execute(new Runnable() {
+				@Override
+				public void run() {
+					if (!tournament.settled)
+						tournament.playPair(pairSeed);
+				}
+			});
+		}
+		pool.shutdown();
+		pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		tournament.report((System.nanoTime() - start) / 1e9);
+	}
+
+	/**
+	 * Plays one seed with A as player1 and then as player2
+	 */
+	void playPair(long seed) {
+		for (int swap = 0; swap < 2; swap++) {
+			Match match;
+			try {
+				match = swap == 0 ? new Match(this.commandA, this.commandB, seed) : new Match(this.commandB, this.commandA, seed);
+			} catch (IOException e) {
+				synchronized (this) {
+					this.failures++;
+				}
+				System.err.printf("Unable to start a match: %s\n", e.getMessage());
+				this.settled = true;
+				return;
+			}
+			double first = match.play();
+			add(swap == 0 ? first : 1 - first, match, swap);
+		}
+		progress();
+	}
+
+	private synchronized void add(double scoreA, Match match, int swap) {
+		if (scoreA == 1)
+			this.wins++;
+		else if (scoreA == 0)
+			this.losses++;
+		else
+			this.draws++;
+		this.rounds += match.getRounds();
+		for (int player = 0; player < 2; player++) {
+			Match.Side side = match.getSide(player);
+			int build = player ^ swap;
+			if (this.moves[build] + side.moves > this.latencies[build].length)
+				this.latencies[build] = Arrays.copyOf(this.latencies[build], 2 * (this.moves[build] + side.moves));
+			System.arraycopy(side.latencies, 0, this.latencies[build], this.moves[build], side.moves);
+			this.moves[build] += side.moves;
+			this.timeouts[build] += side.timeouts;
+		}
+		double llr = llr();
+		if (llr <= lowerBound() || llr >= upperBound())
+			this.settled = true;
+	}
+
+	private synchronized void progress() {
+		int games = this.wins + this.draws + this.losses;
+		double[] elo = elo();
+		System.out.printf("%5d games  +%d =%d -%d  Elo %+.1f [%+.1f, %+.1f]  LLR %.2f (%.2f, %.2f)\n",
+				games, this.wins, this.draws, this.losses, elo[0], elo[1], elo[2], llr(), lowerBound(), upperBound());
+	}
+
+	private synchronized void report(double seconds) {
+		int games = this.wins + this.draws + this.losses;
+		double llr = llr();
+		String result = llr >= upperBound() ? "H1 accepted, A is stronger by at least elo1"
+				: llr <= lowerBound() ? "H0 accepted, A is not stronger than elo0"
+				: "not settled";
+		double[] elo = elo();
+		System.out.printf("\n%d games (+%d =%d -%d) in %.0fs, %.0f rounds per game%s\n", games, this.wins, this.draws,
+				this.losses, seconds, games == 0 ? 0.0 : (double) this.rounds / games,
+				this.failures > 0 ? ", " + this.failures + " matches failed to start" : "");
+		System.out.printf("Elo A - B: %+.1f, 95%% interval [%+.1f, %+.1f]\n", elo[0], elo[1], elo[2]);
+		System.out.printf("SPRT: LLR %.2f, bounds (%.2f, %.2f), %s\n", llr, lowerBound(), upperBound(), result);
+		for (int build = 0; build < 2; build++) {
+			long[] sorted = Arrays.copyOf(this.latencies[build], this.moves[build]);
+			Arrays.sort(sorted);
+			double mean = 0;
+			for (long latency : sorted)
+				mean += latency;
+			mean = sorted.length == 0 ? 0 : mean / sorted.length;
+			long p99 = sorted.length == 0 ? 0 : sorted[(int) Math.min(sorted.length - 1, Math.ceil(0.99 * sorted.length) - 1)];
+			long max = sorted.length == 0 ? 0 : sorted[sorted.length - 1];
+			System.out.printf("%s: %d moves, latency mean %.2f ms, p99 %.2f ms, max %.2f ms, %d over the time bank\n",
+					build == 0 ? "A" : "B", sorted.length, mean / 1e6, p99 / 1e6, max / 1e6, this.timeouts[build]);
+		}
+	}
+
+	/**
+	 * @return : log likelihood ratio of elo1 against elo0 for the games so far
+	 */
+	double llr() {
+		int draws = this.draws;
+		// Games with one outcome only have no variance, one draw more keeps the test moving
+		if (this.wins + draws == 0 || draws + this.losses == 0 || this.wins + this.losses == 0)
+			draws++;
+		int games = this.wins + draws + this.losses;
+		double score = (this.wins + 0.5 * draws) / games;
+		double variance = (this.wins * Math.pow(1 - score, 2) + draws * Math.pow(0.5 - score, 2)
+				+ this.losses * Math.pow(score, 2)) / games;
+		double score0 = expectedScore(this.elo0);
+		double score1 = expectedScore(this.elo1);
+		return (score1 - score0) * (2 * score - score0 - score1) * games / (2 * variance);
+	}
+
+	static double lowerBound() {
+		return Math.log(BETA / (1 - ALPHA));
+	}
+
+	static double upperBound() {
+		return Math.log((1 - BETA) / ALPHA);
+	}
+
+	static double expectedScore(double elo) {
+		return 1 / (1 + Math.pow(10, -elo / 400));
+	}
+
+	static double eloOf(double score) {
+		score = Math.min(Math.max(score, 1e-6), 1 - 1e-6);
+		return -400 * Math.log10(1 / score - 1);
+	}
+
+	/**
+	 * @return : Elo difference of A and B, and its 95% interval
+	 */
+	double[] elo() {
+		int games = this.wins + this.draws + this.losses;
+		if (games == 0)
+			return new double[] {0, 0, 0};
+		double score = (this.wins + 0.5 * this.draws) / games;
+		double variance = (this.wins * Math.pow(1 - score, 2) + this.draws * Math.pow(0.5 - score, 2)
+				+ this.losses * Math.pow(score, 2)) / games;
+		double margin = 1.96 * Math.sqrt(variance / games);
+		return new double[] {eloOf(score), eloOf(score - margin), eloOf(score + margin)};
+	}
+}
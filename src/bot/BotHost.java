@@ -0,0 +1,115 @@
+// Copyright 2015 theaigames.com (developers@theaigames.com)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//	
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package bot;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * BotHost class
+ * 
+ * Runs many independent matches in one JVM. Every connection on the
+ * local port is a separate session with its own BotParser, BotState and
+ * BotStarter, speaking the same line protocol as standard in/out.
+ * All sessions share one SearchScheduler, and the static piece tables,
+ * so the JIT warm-up and memory of the JVM are paid only once.
+ * 
+ * Usage: BotHost [port] [search threads] [search mode]
+ */
+
+public class BotHost {
+
+	static final int DEFAULT_PORT = 7450;
+
+	private final ServerSocket server;
+	private final SearchScheduler scheduler;
+	private final SearchMode mode;
+
+	public BotHost(int port, int threads, SearchMode mode) throws IOException {
+		this.server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		this.scheduler = new SearchScheduler(threads);
+		this.mode = mode;
+	}
+
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		SearchMode mode = args.length > 2 ? SearchMode.parse(args[2]) : SearchMode.LOOKAHEAD;
+		int threads = BotStarter.searchThreads(mode,
+				args.length > 1 ? Integer.parseInt(args[1]) : CpuQuota.get().getWorkers());
+		// Reads the memory limit and registers the GC listener before the first session
+		MemoryBudget.get();
+
+		BotHost host = new BotHost(port, threads, mode);
+		System.err.printf("Hosting bots on port %d with %d search threads\n", host.server.getLocalPort(), threads);
+		host.run();
+	}
+
+	/**
+	 * Accepts connections until the server socket is closed,
+	 * every connection is played out on its own thread
+	 */
+	public void run() {
+		int sessions = 0;
+		while (!this.server.isClosed()) {
+			final Socket socket;
+			try {
+				socket = this.server.accept();
+			} catch (IOException e) {
+				if (!this.server.isClosed())
+					System.err.printf("Unable to accept session: %s\n", e.getMessage());
+				continue;
+			}
+
+			Thread session = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					runSession(socket);
+				}
+			}, "session-" + sessions++);
+			session.setDaemon(true);
+			session.start();
+		}
+	}
+
+	private void runSession(Socket socket) {
+		BotStarter bot = new BotStarter(this.scheduler, this.mode);
+		try {
+			socket.setTcpNoDelay(true);
+			PrintStream out = new PrintStream(socket.getOutputStream(), true);
+			BotParser parser = new BotParser(bot, socket.getInputStream(), out);
+			parser.run();
+		} catch (IOException e) {
+			System.err.printf("Session failed: %s\n", e.getMessage());
+		} finally {
+			bot.close();
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// already gone
+			}
+		}
+	}
+
+	public void close() throws IOException {
+		this.server.close();
+		this.scheduler.shutdown();
+	}
+}
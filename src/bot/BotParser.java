@@ -17,16 +17,22 @@
 
 package bot;
 
+import java.io.InputStream;
+import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Scanner;
 
+import field.ShapeType;
 import moves.MoveType;
 
 /**
  * BotParser class
  * 
  * Main class that will keep reading output from the engine.
- * Will either update the bot state or get actions.
+ * Will either publish the settings and updates as typed events
+ * (see GameEvents) or get actions.
+ * Reads from System.in and writes to System.out unless other
+ * streams are given, so several parsers can share one JVM.
  * 
  * @author Jim van Eeden <jim@starapple.nl>
  */
@@ -35,15 +41,24 @@ public class BotParser {
 	
 	final Scanner scan;
 	
+	final PrintStream out;
+	
 	final BotStarter bot;
 	
 	BotState currentState;
 	
 	public BotParser(BotStarter bot)
 	{
-		this.scan = new Scanner(System.in);
+		this(bot, System.in, System.out);
+	}
+	
+	public BotParser(BotStarter bot, InputStream in, PrintStream out)
+	{
+		this.scan = new Scanner(in);
+		this.out = out;
 		this.bot = bot;
 		this.currentState = new BotState();
+		this.bot.listen(this.currentState);
 	}
 	
 	public void run()
@@ -55,10 +70,10 @@ public class BotParser {
 			String[] parts = line.split(" ");
 			switch(parts[0]) {
 				case "settings":
-					this.currentState.updateSettings(parts[1], parts[2]);
+					settings(this.currentState.getEvents(), parts[1], parts[2]);
 					break;
 				case "update":
-					this.currentState.updateState(parts[1], parts[2], parts[3]);
+					update(this.currentState.getEvents(), parts[1], parts[2], parts[3]);
 					break;
 				case "action":
 					StringBuffer output = new StringBuffer();
@@ -75,7 +90,8 @@ public class BotParser {
 					else
 						output.append("no_moves");
 					
-					System.out.println(output);
+					this.out.println(output);
+					this.out.flush();
 					break;
 				default:
 					System.err.printf("Unable to parse line '%s'\n", line);
@@ -83,4 +99,72 @@ public class BotParser {
 		}
 	}
 
+	/**
+	 * Publishes a settings line
+	 * @param events : receives the event
+	 * @param key    : setting name
+	 * @param value  : setting value
+	 */
+	static void settings(GameListener events, String key, String value) {
+		switch(key) {
+			case "timebank":
+				events.onTimebank(Integer.parseInt(value));
+				break;
+			case "time_per_move":
+				events.onTimePerMove(Integer.parseInt(value));
+				break;
+			case "player_names":
+				events.onPlayerNames(value.split(","));
+				break;
+			case "your_bot":
+				events.onYourBot(value);
+				break;
+			case "field_width":
+				events.onFieldWidth(Integer.parseInt(value));
+				break;
+			case "field_height":
+				events.onFieldHeight(Integer.parseInt(value));
+				break;
+			default:
+				System.err.printf("Cannot parse settings with key \"%s\"\n", key);
+				break;
+		}
+	}
+
+	/**
+	 * Publishes an update line
+	 * @param events : receives the event
+	 * @param player : player name, or "game"
+	 * @param key    : update name
+	 * @param value  : update value
+	 */
+	static void update(GameListener events, String player, String key, String value) {
+		switch(key) {
+			case "round":
+				events.onRound(Integer.parseInt(value));
+				break;
+			case "this_piece_type":
+				events.onThisPieceType(ShapeType.valueOf(value));
+				break;
+			case "next_piece_type":
+				events.onNextPieceType(ShapeType.valueOf(value));
+				break;
+			case "row_points":
+				events.onRowPoints(player, Integer.parseInt(value));
+				break;
+			case "combo":
+				events.onCombo(player, Integer.parseInt(value));
+				break;
+			case "field":
+				events.onField(player, value);
+				break;
+			case "this_piece_position":
+				String[] split = value.split(",");
+				events.onThisPiecePosition(Integer.parseInt(split[0]), Integer.parseInt(split[1]));
+				break;
+			default:
+				System.err.printf("Cannot parse updates with key \"%s\"\n", key);
+				break;
+		}
+	}
 }
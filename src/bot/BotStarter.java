@@ -17,13 +17,28 @@
 
 package bot;
 
+import dataset.DatasetWriter;
+import field.BatchEvaluator;
+import field.CandidateBatch;
 import field.Field;
+import field.PackedField;
+import field.Placements;
+import field.ScoreCompiler;
+import field.ScoreFunction;
 import field.Shape;
+import field.StagedEvaluator;
 import field.ShapeType;
+import field.Weights;
 import moves.MoveType;
 
-import java.awt.*;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * BotStarter class
@@ -36,38 +51,463 @@ import java.util.ArrayList;
 
 public class BotStarter {
 
-	public BotStarter() {}
+	// Time kept in reserve between the watchdog firing and the engine's deadline (ms)
+	static final long SAFETY_MARGIN = 50;
+	// Second ply state of a board in the lookahead
+	private static final byte NOT_SEARCHED = 0;
+	private static final byte SEARCHED = 1;
+	private static final byte SKIPPED = 2;
+
+	private final SearchScheduler scheduler;
+	private final SearchMode mode;
+	private final StagedEvaluator staged;
+	private volatile ScoreFunction scorer;
+	private MonteCarloSearch monteCarlo;
+	private ExpectimaxSearch expectimax;
+	private final boolean survival;
+	private SurvivalSearch survivalSearch;
+	private PortfolioSearch portfolio;
+
+	// Boards a search may evaluate instead of a time limit, 0 for the time limit
+	private final long nodeBudget;
+	private final LongAdder nodes = new LongAdder();
+	private final LongAdder searchNanos = new LongAdder();
+
+	// Replies found by the last complete lookahead, offered to the next turn
+	private final boolean reuse;
+	private volatile PrincipalVariation variation;
+	private final LongAdder reuseHits = new LongAdder();
+	private final LongAdder reuseSeeds = new LongAdder();
+	private final LongAdder reuseMisses = new LongAdder();
+
+	// Placements the last complete lookahead ranked (system property bot.multiPv)
+	private final int multiPv;
+	private volatile SearchResult ranking;
+
+	// Deadline of the last search, cancelled when the session ends
+	private volatile SearchDeadline current;
+
+	// Dataset every chosen move is appended to (system property bot.dataset), null for none
+	private String dataset;
+
+	public BotStarter() {
+		this(new SearchScheduler(1), SearchMode.LOOKAHEAD);
+	}
+
+	/**
+	 * @param scheduler : runs the searches, can be shared between bots in one JVM
+	 * @param mode      : search used to pick the moves
+	 */
+	public BotStarter(SearchScheduler scheduler, SearchMode mode) {
+		this.scheduler = scheduler;
+		this.mode = mode;
+		this.staged = new StagedEvaluator();
+		this.nodeBudget = Long.getLong("bot.nodes", 0);
+		// A reused result skips nodes, which would move where the node budget runs out
+		this.reuse = this.nodeBudget == 0 && Boolean.parseBoolean(System.getProperty("bot.reuse", "true"));
+		this.survival = Boolean.parseBoolean(System.getProperty("bot.survival", "true"));
+		String weights = System.getProperty("bot.weights");
+		this.scorer = weights == null ? ScoreFunction.DEFAULT : ScoreCompiler.compile(Weights.parse(weights));
+		this.dataset = System.getProperty("bot.dataset");
+		this.multiPv = Math.max(1, Integer.getInteger("bot.multiPv", 4));
+	}
+
+	/**
+	 * Switches the evaluation, for example to a profile tuned against the
+	 * current opponent, from the next move on
+	 * @param scorer : score function of the new weights, see ScoreCompiler
+	 */
+	public void setScoreFunction(ScoreFunction scorer) {
+		if (scorer == this.scorer)
+			return;
+		this.scorer = scorer;
+		// Its replies were scored with the old weights
+		this.variation = null;
+	}
+
+	/**
+	 * Follows the game a parser reads into the state: the field of this bot
+	 * is decoded as soon as its line arrives, before the action line starts
+	 * the clock, instead of at the start of the search
+	 */
+	public void listen(final BotState state) {
+		state.getEvents().subscribe(new GameListener() {
+			@Override
+			public void onField(String player, String field) {
+				if (state.isMe(player))
+					state.getMyPackedField();
+			}
+		});
+	}
 
 	public static void main(String[] args) {
-		BotParser parser = new BotParser(new BotStarter());
+		// One search at a time, the other threads run the parts it forks
+		SearchMode mode = SearchMode.parse(args);
+		int threads = searchThreads(mode, CpuQuota.get().getWorkers());
+		// Reads the memory limit and registers the GC listener before the first search
+		MemoryBudget.get();
+		SearchScheduler scheduler = new SearchScheduler(threads);
+		BotStarter bot = new BotStarter(scheduler, mode);
+		BotParser parser = new BotParser(bot);
 		parser.run();
+		bot.close();
+		scheduler.shutdown();
+	}
+
+	/**
+	 * Scheduler threads for a search mode: the portfolio gets a thread for each of its
+	 * strategies even with fewer cores, with fewer the scheduler skips all but the first
+	 * @param threads : threads the cores allow
+	 */
+	static int searchThreads(SearchMode mode, int threads) {
+		return mode == SearchMode.PORTFOLIO ? Math.max(threads, 3) : threads;
 	}
 
 	/**
-	 * Returns a random amount of random moves
+	 * Ends the session: a search that is still unwinding stops at its next
+	 * deadline check. The searches run on the scheduler, which belongs to
+	 * whoever created it and keeps running.
+	 */
+	public void close() {
+		SearchDeadline current = this.current;
+		if (current != null)
+			current.cancel();
+	}
+
+	/**
+	 * Runs the search in the background and returns its best-so-far moves once
+	 * it finishes or the watchdog fires, whichever comes first. With a node
+	 * budget (system property bot.nodes) there is no watchdog: the search
+	 * always evaluates the same boards and returns the same moves, however
+	 * long that takes (except for Monte Carlo playouts, which stay on time
+	 * and threads).
 	 * @param state : current state of the bot
 	 * @param timeout : time to respond
 	 * @return : a list of moves to execute
 	 */
-	public ArrayList<MoveType> getMoves(BotState state, long timeout) {
+	public ArrayList<MoveType> getMoves(final BotState state, long timeout) {
 
-		ArrayList<MoveType> bestMoves = new ArrayList<>();
+		final SearchDeadline deadline = this.nodeBudget > 0
+				? SearchDeadline.nodes(this.nodeBudget) : new SearchDeadline(timeout - SAFETY_MARGIN);
+		long start = System.nanoTime();
+		final AnytimeResult result = new AnytimeResult();
+		this.current = deadline;
+
+		// Copied here, the next round decodes into the same field while a search that outlives its move still reads it
+		final Field field = state.getMyField().clone();
+		final PackedField grid = new PackedField(state.getMyPackedField());
+
+		// On this thread, so a search still queued behind other sessions when time runs out sends a real move
+		publishGreedy(state, field, grid, deadline, result);
+
+		Future<?> search = this.scheduler.submit(new Runnable() {
+			@Override
+			public void run() {
+				search(state, field, grid, deadline, result);
+			}
+		}, deadline);
+
+		try {
+			search.get(deadline.remainingMillis(), TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			System.err.printf("Search timed out, sending best move so far\n");
+		} catch (ExecutionException e) {
+			System.err.printf("Search failed: %s\n", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		deadline.cancel();
+		search.cancel(false);
+		this.searchNanos.add(System.nanoTime() - start);
+		this.nodes.add(deadline.getNodes());
+
+		if (Boolean.getBoolean("bot.stats")) {
+			System.err.printf("Search: %d nodes, %.0f nodes/s\n", deadline.getNodes(),
+					deadline.getNodes() / ((System.nanoTime() - start) / 1e9));
+			System.err.printf("Evaluation: %s\n", this.staged);
+			System.err.printf("Reuse: %d hits, %d seeds, %d misses\n",
+					this.reuseHits.sum(), this.reuseSeeds.sum(), this.reuseMisses.sum());
+			if (this.ranking != null)
+				System.err.printf("Ranking: %s\n", this.ranking);
+			System.err.printf("Memory: %s\n", MemoryBudget.get());
+		}
+
+		BestScore best = result.get();
+		if (this.dataset != null)
+			record(state, best);
+		return toMoves(best);
+	}
+
+	/**
+	 * Appends the position and the chosen move to the dataset. Flushed at
+	 * every move, the engine may end the process at any time.
+	 */
+	private void record(BotState state, BestScore best) {
+		PackedField field = state.getMyPackedField();
+		try {
+			DatasetWriter writer = DatasetWriter.shared(this.dataset, field.getWidth(), field.getHeight());
+			writer.append(field, state.getCurrentShape(), state.getShapeX(), state.getShapeY(), state.getNextShape(),
+					state.getMyCombo(), best.bestRotation, best.bestLeft);
+			writer.flush();
+		} catch (IOException e) {
+			System.err.printf("Unable to write dataset, no longer recording: %s\n", e.getMessage());
+			this.dataset = null;
+		}
+	}
 
-		// Get all the necessary data from the current game state
-		Field grid = state.getMyField();
+	/**
+	 * Publishes a greedy one-piece placement, so there is always a real move to send
+	 * @param state    : current state of the bot
+	 * @param field    : private copy of my field
+	 * @param grid     : private packed copy of my field
+	 * @param deadline : time limit of this search
+	 * @param result   : holder for the best-so-far result
+	 */
+	private void publishGreedy(BotState state, Field field, PackedField grid, SearchDeadline deadline, AnytimeResult result) {
+		ShapeType workingPiece = state.getCurrentShape();
+		int myCombo = state.getMyCombo();
+
+		// The last search already found it if the engine sent the field it expected
+		int spawnX = state.getShapeX();
+		int spawnY = state.getShapeY();
+		BestScore greedy = null;
+		PrincipalVariation variation = this.reuse ? this.variation : null;
+		if (variation != null) {
+			greedy = variation.getReply(grid, workingPiece, spawnX, spawnY, myCombo);
+			if (greedy != null) {
+				this.reuseHits.increment();
+			} else {
+				// Garbage rows or a different drawn piece change the scores, but not the good reply
+				BestScore seed = variation.getSeed(grid, workingPiece, spawnX, spawnY);
+				if (seed != null) {
+					this.reuseSeeds.increment();
+					result.publish(seed);
+				} else {
+					this.reuseMisses.increment();
+				}
+			}
+		}
+		if (greedy == null) {
+			Shape greedyPiece = new Shape(workingPiece, field, spawnX, spawnY);
+			greedy = getBestScoreLookahead(grid, greedyPiece, myCombo, null, null, null, deadline);
+		}
+		result.publish(greedy);
+	}
+
+	/**
+	 * Replaces the greedy placement getMoves published with the full lookahead
+	 * result, unless the deadline cut the lookahead short
+	 * @param state    : current state of the bot
+	 * @param field    : private copy of my field
+	 * @param grid     : private packed copy of my field
+	 * @param deadline : time limit of this search
+	 * @param result   : holder for the best-so-far result
+	 */
+	void search(BotState state, Field field, PackedField grid, SearchDeadline deadline, AnytimeResult result) {
+
+		if (deadline.isExpired())
+			return;
+
+		if (this.mode == SearchMode.MONTE_CARLO) {
+			searchMonteCarlo(state, grid, deadline, result);
+			return;
+		}
+
+		if (this.mode == SearchMode.PORTFOLIO) {
+			searchPortfolio(state, field, grid, deadline, result);
+			return;
+		}
+
+		BestScore best = searchLookahead(state, field, grid, deadline);
+		if (best != null)
+			result.publish(best);
+
+		if (deadline.isExpired())
+			return;
+		BestScore further = null;
+		if (this.survival && SurvivalSearch.isNeeded(grid))
+			further = searchSurvival(state, grid, SurvivalSearch.slice(deadline, state.getTimePerMove()));
+		else if (this.mode == SearchMode.EXPECTIMAX)
+			further = searchExpectimax(state, grid, deadline);
+		if (further != null && !deadline.isExpired())
+			result.publish(further);
+	}
+
+	/**
+	 * The two piece lookahead, which also keeps its replies for the next turn
+	 * @return : the best move, or null when the deadline cut the lookahead short
+	 */
+	private BestScore searchLookahead(BotState state, Field field, PackedField grid, SearchDeadline deadline) {
 		ShapeType workingPiece = state.getCurrentShape();
 		ShapeType workingNextPiece = state.getNextShape();
 		int myCombo = state.getMyCombo();
+		int spawnX = state.getShapeX();
+		int spawnY = state.getShapeY();
 
 		// Create the pieces that are going to be used to find the best set of moves
-		Shape piece = new Shape(workingPiece, grid, state.getShapeLocation());
-		Shape nextPiece = new Shape(workingNextPiece, grid, (workingNextPiece == ShapeType.O) ? new Point(4, -1) : new Point(3, -1));
+		Shape piece = new Shape(workingPiece, field, spawnX, spawnY);
+		Shape nextPiece = new Shape(workingNextPiece, field, (workingNextPiece == ShapeType.O) ? 4 : 3, -1);
 
 		// Compute the best set of moves with 1 lookahead symbol
-		BestScore best = getBestScoreLookahead(grid, piece, myCombo, nextPiece);
+		PrincipalVariation next = this.reuse ? new PrincipalVariation() : null;
+		SearchResult ranking = new SearchResult(this.multiPv);
+		PrincipalVariation previous = this.reuse ? this.variation : null;
+		BestScore best = getBestScoreLookahead(grid, piece, myCombo, nextPiece, previous, next, ranking,
+				Double.NEGATIVE_INFINITY, deadline);
+
+		// A lookahead cut short by the deadline only saw part of the placements
+		if (deadline.isExpired())
+			return null;
+		if (next != null) {
+			next.setPrincipal(grid, workingPiece, spawnX, spawnY, best,
+					workingNextPiece, nextPiece.getX(), nextPiece.getY(), myCombo);
+			this.variation = next;
+		}
+		this.ranking = ranking;
+		return best;
+	}
+
+	/**
+	 * Runs the lookahead and expectimax searches at once, with the survival
+	 * search when the stack is high, and publishes whichever answer the
+	 * portfolio's arbiter prefers
+	 */
+	private void searchPortfolio(final BotState state, final Field field, final PackedField grid,
+			SearchDeadline deadline, AnytimeResult result) {
+		if (this.portfolio == null)
+			this.portfolio = new PortfolioSearch(this.scheduler, 3);
+
+		final boolean high = SurvivalSearch.isNeeded(grid);
+		PortfolioSearch.Strategy lookahead = new PortfolioSearch.Strategy() {
+			@Override
+			public PortfolioSearch.Proposal run(SearchDeadline deadline) {
+				BestScore best = searchLookahead(state, field, grid, deadline);
+				return best == null ? null : new PortfolioSearch.Proposal(best, 2,
+						BotStarter.this.ranking.getLead(), false);
+			}
+		};
+		PortfolioSearch.Strategy expectimax = new PortfolioSearch.Strategy() {
+			@Override
+			public PortfolioSearch.Proposal run(SearchDeadline deadline) {
+				// Cut short, it still ranks the first moves it expanded
+				BestScore best = searchExpectimax(state, new PackedField(grid), deadline);
+				ExpectimaxSearch search = BotStarter.this.expectimax;
+				return best == null ? null : new PortfolioSearch.Proposal(best, 3,
+						search.getCompleted() * search.getLead(BotStarter.this.multiPv), false);
+			}
+		};
+		PortfolioSearch.Strategy survival = new PortfolioSearch.Strategy() {
+			@Override
+			public PortfolioSearch.Proposal run(SearchDeadline deadline) {
+				BestScore best = searchSurvival(state, new PackedField(grid), SurvivalSearch.slice(deadline, state.getTimePerMove()));
+				int depth = BotStarter.this.survivalSearch.getDepth();
+				return best == null ? null : new PortfolioSearch.Proposal(best, depth,
+						(double) depth / SurvivalSearch.MAX_DEPTH, BotStarter.this.survival);
+			}
+		};
+		// Away from the top the narrow search only keeps the spawn free, which is not what to play for
+		this.portfolio.search(high ? Arrays.asList(lookahead, expectimax, survival) : Arrays.asList(lookahead, expectimax),
+				deadline, result);
+
+		if (Boolean.getBoolean("bot.stats"))
+			System.err.printf("Portfolio wins: %s\n", Arrays.toString(this.portfolio.getWins()));
+	}
+
+	/**
+	 * Spends the deadline on keeping the spawn cells free
+	 * @return : the best safe move, or null when no placement is safe
+	 */
+	private BestScore searchSurvival(BotState state, PackedField grid, SearchDeadline deadline) {
+		if (this.survivalSearch == null)
+			this.survivalSearch = new SurvivalSearch();
+
+		BestScore best = this.survivalSearch.search(grid, state.getCurrentShape(), state.getShapeX(),
+				state.getShapeY(), state.getNextShape(), state.getMyCombo(), state.getPieceFrequencies(),
+				this.scorer, deadline);
+
+		if (Boolean.getBoolean("bot.stats"))
+			System.err.printf("Survival: depth %d, %d nodes, %s\n", this.survivalSearch.getDepth(),
+					this.survivalSearch.getNodes(), best == null ? "no safe placement" : "safe placement found");
+		return best;
+	}
+
+	/**
+	 * Rank 0 is the move the lookahead chose, unless every placement scored
+	 * below its -1000 floor, where it keeps the unturned drop
+	 * @return : the best placements of the last complete lookahead, best first, or null before the first.
+	 *           Replaced by the next search, not changed afterwards.
+	 */
+	public SearchResult getRanking() {
+		return this.ranking;
+	}
+
+	/**
+	 * @return : boards evaluated by all searches so far
+	 */
+	public long getNodeCount() {
+		return this.nodes.sum();
+	}
+
+	/**
+	 * @return : nodes per second over all searches so far, wall clock time of getMoves
+	 */
+	public double getNodesPerSecond() {
+		long nanos = this.searchNanos.sum();
+		return nanos == 0 ? 0 : this.nodes.sum() / (nanos / 1e9);
+	}
+
+	/**
+	 * Looks one unknown piece further than the lookahead
+	 * @return : the best move, or null when none was searched completely
+	 */
+	private BestScore searchExpectimax(BotState state, PackedField grid, SearchDeadline deadline) {
+		if (this.expectimax == null)
+			this.expectimax = new ExpectimaxSearch();
+
+		BestScore best = this.expectimax.search(grid, state.getCurrentShape(), state.getShapeX(),
+				state.getShapeY(), state.getNextShape(), state.getMyCombo(), state.getPieceFrequencies(),
+				this.scorer, deadline);
+
+		if (Boolean.getBoolean("bot.stats"))
+			System.err.printf("Expectimax: %d chance nodes, %d reused\n",
+					this.expectimax.getChanceNodes(), this.expectimax.getChanceHits());
+		return best;
+	}
 
-		int bestRotation = best.bestRotation;
-		int bestLeft = best.bestLeft;
+	/**
+	 * Spends the time of one move, but never more than the deadline allows, on playouts
+	 */
+	private void searchMonteCarlo(BotState state, PackedField grid, SearchDeadline deadline, AnytimeResult result) {
+		if (this.monteCarlo == null)
+			this.monteCarlo = new MonteCarloSearch(this.scheduler);
+
+		long budget = Math.min(deadline.remainingMillis(), state.getTimePerMove());
+		BestScore best = this.monteCarlo.search(grid, state.getCurrentShape(), state.getShapeX(),
+				state.getShapeY(), state.getNextShape(), state.getMyCombo(), this.scorer, deadline, budget);
+		if (Boolean.getBoolean("bot.stats"))
+			System.err.printf("Monte Carlo: %s\n", this.monteCarlo.getTelemetry());
+
+		if (best != null && !deadline.isExpired())
+			result.publish(best);
+	}
+
+	/**
+	 * Converts a search result into the moves that bring the piece there
+	 * @param best : result of the search
+	 * @return : a list of moves to execute
+	 */
+	private ArrayList<MoveType> toMoves(BestScore best) {
+		return toMoves(best.bestRotation, best.bestLeft);
+	}
+
+	/**
+	 * @param bestRotation : right turns
+	 * @param bestLeft     : left moves, negative for right moves
+	 * @return : the moves of the placement, ending with the drop
+	 */
+	static ArrayList<MoveType> toMoves(int bestRotation, int bestLeft) {
+
+		ArrayList<MoveType> bestMoves = new ArrayList<>();
 
 		// Fill the moves array with the computed moves
 		for (; bestRotation > 0; bestRotation--)
@@ -89,10 +529,25 @@ public class BotStarter {
 	 * @param piece     : current piece
 	 * @param combo     : current combo value
 	 * @param nextPiece : next piece (can be null)
+	 * @param variation : keeps the best placement of the next piece after every move (can be null)
+	 * @param ranking   : filled with the best placements and their replies, only with a next piece (can be null)
+	 * @param deadline  : time limit, the best score found so far is returned once it expires
 	 * @return : the best score, best left moves and best rotation
 	 */
 
-	BestScore getBestScoreLookahead(Field grid, Shape piece, int combo, Shape nextPiece) {
+	BestScore getBestScoreLookahead(PackedField grid, Shape piece, int combo, Shape nextPiece,
+			PrincipalVariation variation, SearchResult ranking, SearchDeadline deadline) {
+		return getBestScoreLookahead(grid, piece, combo, nextPiece, null, variation, ranking, Double.NEGATIVE_INFINITY, deadline);
+	}
+
+	/**
+	 * @param previous : replies of the last search, its move for this piece is searched first (can be null)
+	 * @param floor    : without a next piece, a result below it is of no use: null is returned
+	 *                   when no placement can reach it
+	 */
+	private BestScore getBestScoreLookahead(PackedField grid, Shape piece, int combo, Shape nextPiece,
+			PrincipalVariation previous, PrincipalVariation variation, SearchResult ranking, double floor,
+			SearchDeadline deadline) {
 
 		BestScore bestScore = new BestScore();
 		/*todo: initializing score to negative fixes moves blocking the "entrance" blocks as best moves. This is a
@@ -102,80 +557,267 @@ public class BotStarter {
 		*/
 		bestScore.score = -1000;
 
-		 // For every rotation
-		for(int rotation = 0; rotation < 4; rotation++) {
-			int left = 0;
-			// Don't rotate the first time around
-			if(rotation !=0) {
-				piece.turnRight();
-			}
-
-			// Move the rotated shape all the way to the left (until it can be moved)
-			Shape _piece = piece.clone();
-			while(grid.canMoveLeft(_piece)){
-				_piece.oneLeft();
-				left++;
-			}
+		// Every rotation and column, with the placements landing on the same cells linked together
+		Placements placements = new Placements(grid.getWidth());
+		int count = placements.generate(grid, piece.getType(), piece.getX(), piece.getY());
+
+		// Compute the score for every distinct composition at once
+		CandidateBatch batch = new CandidateBatch(grid.getWidth(), grid.getHeight(), placements.uniqueSize(), this.scorer);
+		int[] candidate = new int[count];
+		//todo: remove *2
+		batch.reset(grid, combo * 2);
+		for(int i = 0; i < count; i++) {
+			if(placements.isUnique(i))
+				candidate[i] = batch.add(placements.getOrientation(i), placements.getX(i), placements.getY(i));
+			else
+				candidate[i] = candidate[placements.getUnique(i)];
+		}
 
-			// Until the grid is valid (until the piece is moved all the way to the right)
-			while(grid.isValid(_piece)){
-				Shape _setPiece = _piece.clone();
+		if (nextPiece == null)
+			return getBestScoreStaged(grid, placements, batch, candidate, bestScore, floor, deadline);
+
+		BatchEvaluator.getInstance().evaluate(batch);
+		deadline.addNodes(batch.size());
+
+		int size = batch.size();
+		PackedField _grid = new PackedField(grid);
+		double[] secondScores = new double[size];
+		int[] secondLeft = new int[size];
+		int[] secondRotation = new int[size];
+		if (ranking != null)
+			ranking.clear();
+
+		// Best first ply score of every board, over the placements landing on it
+		double[] firstScores = new double[size];
+		Arrays.fill(firstScores, Double.NEGATIVE_INFINITY);
+		for(int i = 0; i < count; i++) {
+			int c = candidate[i];
+			double first = placements.isUnique(i) ? batch.getScore(c) : batch.getScore(c, heightTerm(grid, placements, i));
+			firstScores[c] = Math.max(firstScores[c], first);
+		}
 
-				// Move the piece all the way down
-				while(grid.canMoveDown(_setPiece)){
-					_setPiece.oneDown();
-				}
+		/* Boards whose second ply cannot reach the ranking are not searched further: the
+		* reply the last search expected, then the best first plies, are searched first, and
+		* set the bar the upper bounds of the other second plies are held to. The bar is the
+		* lowest score that still gets ranked (the best score without a ranking), so a skipped
+		* board is neither chosen nor ranked. Only a non-positive bar skips, which also keeps
+		* exact 0.0 scores out of the skipped boards, the only ones that change a later choice
+		* */
+		int wanted = Math.min(ranking != null ? ranking.getCapacity() : 1, size);
+		double[] bar = new double[wanted];
+		Arrays.fill(bar, Double.NEGATIVE_INFINITY);
+		byte[] searched = new byte[size]; // NOT_SEARCHED, SEARCHED or SKIPPED
+		BestScore principal = previous == null ? null : previous.getReply(grid, piece.getType(), piece.getX(), piece.getY(), combo);
+		if (principal == null && previous != null)
+			principal = previous.getSeed(grid, piece.getType(), piece.getX(), piece.getY());
+		int[] first = new int[wanted + 1];
+		int firstCount = 0;
+		for(int i = 0; i < count && principal != null && firstCount == 0; i++)
+			if(placements.getRotation(i) == principal.bestRotation && placements.getLeft(i) == principal.bestLeft)
+				first[firstCount++] = candidate[i];
+		boolean[] chosen = new boolean[size];
+		if (firstCount > 0)
+			chosen[first[0]] = true;
+		for(int k = 0; k < wanted; k++) {
+			int top = -1;
+			for(int c = 0; c < size; c++)
+				if(!chosen[c] && (top < 0 || firstScores[c] > firstScores[top]))
+					top = c;
+			if (top < 0)
+				break;
+			chosen[top] = true;
+			first[firstCount++] = top;
+		}
 
-				if(grid.isValidTop(_setPiece)) {
+		for(int k = 0; k < firstCount + size; k++) {
+			if(deadline.isExpired())
+				return bestScore;
+
+			int c = k < firstCount ? first[k] : k - firstCount;
+			if (searched[c] != NOT_SEARCHED)
+				continue;
+			double threshold = bar[wanted - 1];
+			double reach = k < firstCount || threshold > 0 ? Double.NEGATIVE_INFINITY : threshold - firstScores[c];
+			BestScore secondBest = getReply(batch, c, _grid, nextPiece, combo, previous, variation, reach, deadline);
+			if (secondBest == null) {
+				searched[c] = SKIPPED;
+				continue;
+			}
+			searched[c] = SEARCHED;
+			secondScores[c] = secondBest.score;
+			secondLeft[c] = secondBest.bestLeft;
+			secondRotation[c] = secondBest.bestRotation;
+			raiseBar(bar, firstScores[c] + secondBest.score);
+		}
 
-					double score;
-					int totalPoints;
+		// A board scoring exactly 0.0 makes the next placement the best whatever its score
+		boolean zero = false;
+		for(int i = 0; i < count && !zero; i++) {
+			int c = candidate[i];
+			if (searched[c] == SEARCHED)
+				zero = (placements.isUnique(i) ? batch.getScore(c) : batch.getScore(c, heightTerm(grid, placements, i))) + secondScores[c] == 0.0;
+		}
+		for(int c = 0; c < size && zero; c++) {
+			if(deadline.isExpired())
+				return bestScore;
+			if (searched[c] != SKIPPED)
+				continue;
+			BestScore secondBest = getReply(batch, c, _grid, nextPiece, combo, previous, variation, Double.NEGATIVE_INFINITY, deadline);
+			searched[c] = SEARCHED;
+			secondScores[c] = secondBest.score;
+			secondLeft[c] = secondBest.bestLeft;
+			secondRotation[c] = secondBest.bestRotation;
+		}
 
-					Field _grid = grid.clone();
-					_grid.addPiece(_setPiece);
+		// Duplicates reuse the board features and second ply of their first placement but
+		// still compete in order, so ties resolve exactly as if every placement had been evaluated
+		for(int i = 0; i < count; i++) {
+			int c = candidate[i];
+			if (searched[c] != SEARCHED)
+				continue;
+			double score;
+			if(placements.isUnique(i)) {
+				score = batch.getScore(c) + secondScores[c];
+			} else {
+				// The same cells from another rotation only change the landing height term
+				score = batch.getScore(c, heightTerm(grid, placements, i)) + secondScores[c];
+			}
+			if (ranking != null)
+				ranking.offer(c, score, placements.getLeft(i), placements.getRotation(i),
+						secondScores[c], secondLeft[c], secondRotation[c]);
 
-					// Compute the score for this composition
-					//todo: remove *2
-					score = _grid.evaluate(_setPiece, combo * 2);
+			// Save the new best score
+			if (score >= bestScore.score || bestScore.score == 0.0) {
 
-					totalPoints = _grid.lines() + combo;
+				bestScore.score = score;
+				bestScore.bestLeft = placements.getLeft(i);
+				bestScore.bestRotation = placements.getRotation(i);
+			}
+		}
+		return bestScore;
+	}
 
-					// If a next piece is provided compute the best score and moves for both pieces
-					if (nextPiece != null) {
-/*						if(_grid.tooHigh(6))
-							combo=2;*/
-						int removed = _grid.removeLines();
-						Shape next = nextPiece.clone();
-						BestScore secondBest = getBestScoreLookahead(_grid, next, combo + removed, null);
-						score += secondBest.score;
-						totalPoints += secondBest.points;
-/*
-						System.out.println("score:" +score +" left:"+left +" rotation:"+rotation);
-*/
-					}
+	/**
+	 * Best placement of the next piece on the board of one first move, kept for the next turn
+	 * @param reach : the result is of no use below it, see getBestScoreLookahead
+	 * @return : the best placement, or null when none can reach it
+	 */
+	private BestScore getReply(CandidateBatch batch, int c, PackedField _grid, Shape nextPiece, int combo,
+			PrincipalVariation previous, PrincipalVariation variation, double reach, SearchDeadline deadline) {
+/*		if(_grid.tooHigh(6))
+			combo=2;*/
+		batch.copyTo(c, _grid);
+		int removed = _grid.removeLines();
+		BestScore secondBest = previous == null ? null
+				: previous.getReply(_grid, nextPiece.getType(), nextPiece.getX(), nextPiece.getY(), combo + removed);
+		if (secondBest == null)
+			secondBest = getBestScoreLookahead(_grid, nextPiece, combo + removed, null, null, null, null, reach, deadline);
+		if (secondBest != null && variation != null)
+			variation.putReply(_grid, nextPiece.getType(), nextPiece.getX(),
+					nextPiece.getY(), combo + removed, secondBest);
+		return secondBest;
+	}
 
+	/**
+	 * Inserts the score of a searched board into the descending scores that set the bar
+	 */
+	private static void raiseBar(double[] bar, double score) {
+		int k = bar.length - 1;
+		if (score <= bar[k])
+			return;
+		for (; k > 0 && score > bar[k - 1]; k--)
+			bar[k] = bar[k - 1];
+		bar[k] = score;
+	}
 
-					// Save the new best score
-					if ((/*totalPoints >= bestScore.points &&*/ score >= bestScore.score) || bestScore.score == 0.0) {
+	/**
+	 * Last ply of the search, where only the best placement matters: every candidate
+	 * is first scored on the cheap features, and only the ones that can still beat
+	 * the best score so far get the full evaluation
+	 * @param grid       : current field
+	 * @param placements : generated placements of the piece
+	 * @param batch      : the distinct boards of the placements
+	 * @param candidate  : index in the batch of every placement
+	 * @param bestScore  : initial best score
+	 * @param floor      : a result below it is of no use
+	 * @param deadline   : time limit, the best score found so far is returned once it expires
+	 * @return : the best score, best left moves and best rotation, or null when no bound
+	 *           and not the initial best score reach the floor
+	 */
+	private BestScore getBestScoreStaged(PackedField grid, Placements placements, CandidateBatch batch,
+			int[] candidate, BestScore bestScore, double floor, SearchDeadline deadline) {
+
+		if (batch.size() == 0)
+			return bestScore;
+		this.staged.evaluateCheap(batch);
+		deadline.addNodes(batch.size());
+
+		// A real score early on lets most of the candidates go without their expensive features
+		int top = 0;
+		for(int c = 1; c < batch.size(); c++)
+			if(batch.getBound(c) > batch.getBound(top))
+				top = c;
+		double bestBound = batch.getBound(top);
+		for(int i = 0; i < placements.size(); i++)
+			bestBound = Math.max(bestBound, batch.getBound(candidate[i], heightTerm(grid, placements, i)));
+		if (Math.max(bestBound, bestScore.score) < floor)
+			return null;
+		boolean[] complete = new boolean[batch.size()];
+		double cutoff = this.staged.getCutoff(bestBound, this.staged.complete(batch, top));
+		complete[top] = true;
+
+		for(int i = 0; i < placements.size(); i++) {
+			if(deadline.isExpired())
+				return bestScore;
+
+			int c = candidate[i];
+			int heightTerm = heightTerm(grid, placements, i);
+
+			// Never reaches the best score, so it would not have been saved anyway
+			double bound = batch.getBound(c, heightTerm);
+			if (bound < cutoff || (bound < bestScore.score && bestScore.score != 0.0))
+				continue;
+
+			if (!complete[c]) {
+				this.staged.complete(batch, c);
+				complete[c] = true;
+			}
+			double score = batch.getScore(c, heightTerm);
 
-						bestScore.score = score;
-						bestScore.bestLeft = left;
-						bestScore.bestRotation = rotation;
-					}
-				}
+			// Save the new best score
+			if (score >= bestScore.score || bestScore.score == 0.0) {
 
-				// Move the piece to the right before restarting the evaluation
-				left--;
-				_piece.oneRight();
+				bestScore.score = score;
+				bestScore.bestLeft = placements.getLeft(i);
+				bestScore.bestRotation = placements.getRotation(i);
 			}
 		}
 		return bestScore;
 	}
 
+	private static int heightTerm(PackedField grid, Placements placements, int i) {
+		return grid.getHeight() - placements.getY(i) - placements.getOrientation(i).getSize() / 2;
+	}
+
+	/*
+	* Holder for the best result published so far, read by the watchdog
+	* */
+	static class AnytimeResult {
+		private volatile BestScore best = new BestScore();
+
+		void publish(BestScore score) {
+			this.best = score;
+		}
+
+		BestScore get() {
+			return this.best;
+		}
+	}
+
 	/*
-	* Private class used as a return value
+	* Class used as a return value
 	* */
-	private class BestScore {
+	static class BestScore {
 		double score;
 		int bestLeft;
 		int bestRotation;
@@ -17,24 +17,26 @@
 
 package bot;
 
-import java.awt.Point;
 import java.util.HashMap;
 import java.util.Map;
 
 import player.Player;
 
 import field.Field;
+import field.PackedField;
 import field.ShapeType;
 
 /**
  * BotState class
  * 
- * In this class all the information about the game is stored.
+ * In this class all the information about the game is stored. It is
+ * the first listener of its own GameEvents, which the parser publishes
+ * the lines of the engine to.
  * 
  * @author Jim van Eeden <jim@starapple.nl>
  */
 
-public class BotState {
+public class BotState implements GameListener {
 	
 	private int round;
 	private int timebank;
@@ -42,7 +44,10 @@ public class BotState {
 	private Player myBot;
 	private ShapeType currentShape;
 	private ShapeType nextShape;
-	private Point shapeLocation;
+	private int shapeX;
+	private int shapeY;
+	private final int[] pieceCounts = new int[ShapeType.values().length];
+	private final GameEvents events;
 	
 	private int MAX_TIMEBANK;
 	private int TIME_PER_MOVE;
@@ -52,65 +57,114 @@ public class BotState {
 	public BotState() {
 		this.round = 0;
 		this.players = new HashMap<>();
+		this.events = new GameEvents();
+		this.events.subscribe(this);
 	}
 	
+	/**
+	 * @return : the events this state is built from, components that derive
+	 *           state of their own subscribe to them after this one
+	 */
+	public GameEvents getEvents() {
+		return this.events;
+	}
+	
+	/**
+	 * Publishes a settings line as sent by the engine
+	 */
 	public void updateSettings(String key, String value) {
-		switch(key) {
-			case "timebank":
-				this.MAX_TIMEBANK = Integer.parseInt(value);
-				timebank = MAX_TIMEBANK;
-				break;
-			case "time_per_move":
-				this.TIME_PER_MOVE = Integer.parseInt(value);
-				break;
-			case "player_names":
-				String[] playerNames = value.split(",");
-				for(int i=0; i<playerNames.length; i++)
-					players.put(playerNames[i], new Player(playerNames[i]));
-				break;
-			case "your_bot":
-				this.myBot = players.get(value); 
-				break;
-			case "field_width":
-				this.FIELD_WIDTH = Integer.parseInt(value);
-				break;
-			case "field_height":
-				this.FIELD_HEIGHT = Integer.parseInt(value);
-				break;
-			default:
-				System.err.printf("Cannot parse settings with key \"%s\"\n", key);
-				break;
-		}
+		BotParser.settings(this.events, key, value);
 	}
 	
+	/**
+	 * Publishes an update line as sent by the engine
+	 */
 	public void updateState(String player, String key, String value) {
-		switch(key) {
-			case "round":
-				this.round = Integer.parseInt(value);
-				break;
-			case "this_piece_type":
-				this.currentShape = ShapeType.valueOf(value);
-				break;
-			case "next_piece_type":
-				this.nextShape = ShapeType.valueOf(value);
-				break;
-			case "row_points":
-				this.players.get(player).setPoints(Integer.parseInt(value));
-				break;
-			case "combo":
-				this.players.get(player).setCombo(Integer.parseInt(value));
-				break;
-			case "field":
-				this.players.get(player).setField(new Field(this.FIELD_WIDTH, this.FIELD_HEIGHT, value));
-				break;
-			case "this_piece_position":
-				String[] split = value.split(",");
-				this.shapeLocation = new Point(Integer.parseInt(split[0]), Integer.parseInt(split[1]));
-				break;
-			default:
-				System.err.printf("Cannot parse updates with key \"%s\"\n", key);
-				break;
-		}
+		BotParser.update(this.events, player, key, value);
+	}
+	
+	@Override
+	public void onTimebank(int timebank) {
+		this.MAX_TIMEBANK = timebank;
+		this.timebank = timebank;
+	}
+	
+	@Override
+	public void onTimePerMove(int timePerMove) {
+		this.TIME_PER_MOVE = timePerMove;
+	}
+	
+	@Override
+	public void onPlayerNames(String[] names) {
+		for(int i=0; i<names.length; i++)
+			players.put(names[i], new Player(names[i]));
+	}
+	
+	@Override
+	public void onYourBot(String name) {
+		this.myBot = players.get(name);
+	}
+	
+	@Override
+	public void onFieldWidth(int width) {
+		this.FIELD_WIDTH = width;
+	}
+	
+	@Override
+	public void onFieldHeight(int height) {
+		this.FIELD_HEIGHT = height;
+	}
+	
+	@Override
+	public void onRound(int round) {
+		this.round = round;
+	}
+	
+	@Override
+	public void onThisPieceType(ShapeType type) {
+		this.currentShape = type;
+	}
+	
+	@Override
+	public void onNextPieceType(ShapeType type) {
+		this.nextShape = type;
+		// Every piece is announced once as the next piece
+		this.pieceCounts[type.ordinal()]++;
+	}
+	
+	@Override
+	public void onThisPiecePosition(int x, int y) {
+		this.shapeX = x;
+		this.shapeY = y;
+	}
+	
+	@Override
+	public void onField(String player, String field) {
+		this.players.get(player).updateField(this.FIELD_WIDTH, this.FIELD_HEIGHT, field);
+	}
+	
+	@Override
+	public void onCombo(String player, int combo) {
+		this.players.get(player).setCombo(combo);
+	}
+	
+	@Override
+	public void onRowPoints(String player, int points) {
+		this.players.get(player).setPoints(points);
+	}
+	
+	/**
+	 * @return : the player with this name, null when there is none
+	 */
+	public Player getPlayer(String name) {
+		return this.players.get(name);
+	}
+	
+	/**
+	 * @return : true when the name is the one of this bot
+	 */
+	public boolean isMe(String name) {
+		return this.myBot != null && this.myBot.getName().equals(name);
 	}
 	
 	public Player getOpponent() {
@@ -128,6 +182,13 @@ public class BotState {
 		return this.myBot.getField();
 	}
 	
+	/**
+	 * @return : bitmask copy of getMyField, shared between rounds. Do not modify.
+	 */
+	public PackedField getMyPackedField() {
+		return this.myBot.getPackedField();
+	}
+	
 	public Field getOpponentField() {
 		return getOpponent().getField();
 	}
@@ -140,11 +201,39 @@ public class BotState {
 		return this.nextShape;
 	}
 	
-	public Point getShapeLocation() {
-		return this.shapeLocation;
+	public int getShapeX() {
+		return this.shapeX;
+	}
+
+	public int getShapeY() {
+		return this.shapeY;
+	}
+
+	/**
+	 * @return : share of every piece type among the pieces seen so far, by ordinal,
+	 *           counting one extra of each of the 7 types so none is ever ruled out
+	 */
+	public double[] getPieceFrequencies() {
+		double[] frequencies = new double[this.pieceCounts.length];
+		int total = 0;
+		for (ShapeType type : ShapeType.values())
+			if (type != ShapeType.NONE)
+				total += this.pieceCounts[type.ordinal()] + 1;
+		for (ShapeType type : ShapeType.values())
+			if (type != ShapeType.NONE)
+				frequencies[type.ordinal()] = (this.pieceCounts[type.ordinal()] + 1) / (double) total;
+		return frequencies;
 	}
 	
 	public int getRound() {
 		return this.round;
 	}
+	
+	public int getTimePerMove() {
+		return this.TIME_PER_MOVE;
+	}
+	
+	public int getMaxTimebank() {
+		return this.MAX_TIMEBANK;
+	}
 }
@@ -0,0 +1,221 @@
+// Copyright 2015 theaigames.com (developers@theaigames.com)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//	
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package bot;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * CpuQuota class
+ * 
+ * The CPU time the process may use, read from the cgroup of a container.
+ * availableProcessors() counts the cores the process may run on, and at
+ * most rounds a CFS quota up to whole cores, so a container limited to
+ * 1.5 cores on a 16 core host still sees 2 or more. Searches that size
+ * their worker pool from it run more threads than the quota can serve,
+ * and every thread is throttled at the end of each quota period.
+ * 
+ * Both cgroup v2 (cpu.max) and v1 (cpu.cfs_quota_us, cpu.cfs_period_us)
+ * are read, first in the cgroup of the process and then at the root of
+ * the mount, which is what a container with its own cgroup namespace
+ * sees. Without a quota the processors are the limit.
+ */
+
+public class CpuQuota {
+
+	// Ticks per second of /proc/stat, USER_HZ is 100 on every common kernel build
+	private static final long TICKS_PER_SECOND = 100;
+	private static final Path PROC_STAT = Paths.get("/proc/stat");
+	private static volatile CpuQuota instance;
+
+	private final int processors;
+	private final double cpus;
+	private final String source;
+	private final Path stat; // cpu.stat of the cgroup, null when there is none
+	private final boolean v2;
+
+	private CpuQuota(int processors, double cpus, String source, Path stat, boolean v2) {
+		this.processors = processors;
+		this.cpus = cpus;
+		this.source = source;
+		this.stat = stat;
+		this.v2 = v2;
+	}
+
+	/**
+	 * @return : the quota of this process, read once
+	 */
+	public static CpuQuota get() {
+		if (instance == null)
+			instance = read();
+		return instance;
+	}
+
+	private static CpuQuota read() {
+		int processors = Runtime.getRuntime().availableProcessors();
+		Path dir = cgroupDir("cpu.max", "cpu", "cpu.cfs_quota_us");
+		if (dir == null)
+			return new CpuQuota(processors, processors, "no cgroup", null, false);
+
+		double cpus = processors;
+		List<String> max = lines(dir.resolve("cpu.max"));
+		boolean v2 = !max.isEmpty();
+		if (v2) {
+			String[] parts = max.get(0).trim().split("\\s+");
+			if (!parts[0].equals("max") && parts.length > 1)
+				cpus = Double.parseDouble(parts[0]) / Double.parseDouble(parts[1]);
+		} else {
+			long quota = Long.parseLong(lines(dir.resolve("cpu.cfs_quota_us")).get(0).trim());
+			List<String> period = lines(dir.resolve("cpu.cfs_period_us"));
+			if (quota > 0 && !period.isEmpty())
+				cpus = (double) quota / Long.parseLong(period.get(0).trim());
+		}
+		return new CpuQuota(processors, Math.min(cpus, processors), v2 ? "cgroup v2" : "cgroup v1", dir.resolve("cpu.stat"), v2);
+	}
+
+	/**
+	 * Finds the cgroup of the process that has a file: in the unified (v2)
+	 * hierarchy first, then in the v1 hierarchy of the controller. Each is
+	 * looked up at the path of the process and then at the root of the
+	 * mount, which is what a container with its own cgroup namespace sees.
+	 * @param v2File       : file name in the v2 hierarchy
+	 * @param v1Controller : controller of the v1 hierarchy, such as cpu or memory
+	 * @param v1File       : file name in the v1 hierarchy
+	 * @return : the directory with the file, null when there is none
+	 */
+	static Path cgroupDir(String v2File, String v1Controller, String v1File) {
+		String v2Path = null;
+		String v1Path = null;
+		for (String line : lines(Paths.get("/proc/self/cgroup"))) {
+			// hierarchy-id:controllers:path
+			String[] parts = line.split(":", 3);
+			if (parts.length < 3)
+				continue;
+			if (parts[0].equals("0") && parts[1].isEmpty())
+				v2Path = parts[2];
+			for (String controller : parts[1].split(","))
+				if (controller.equals(v1Controller))
+					v1Path = parts[2];
+		}
+
+		Path root = Paths.get("/sys/fs/cgroup");
+		for (Path dir : dirs(root, v2Path))
+			if (Files.isReadable(dir.resolve(v2File)))
+				return dir;
+		// Controllers can share a mount, as in cpu,cpuacct
+		try (DirectoryStream<Path> mounts = Files.newDirectoryStream(root)) {
+			for (Path mount : mounts) {
+				if (!Arrays.asList(mount.getFileName().toString().split(",")).contains(v1Controller))
+					continue;
+				for (Path dir : dirs(mount, v1Path))
+					if (Files.isReadable(dir.resolve(v1File)))
+						return dir;
+			}
+		} catch (IOException | RuntimeException e) {
+			// No cgroup file system
+		}
+		return null;
+	}
+
+	/**
+	 * @return : the cgroup directory of the process under the mount, then the mount itself
+	 */
+	private static Path[] dirs(Path mount, String path) {
+		if (path == null || path.equals("/"))
+			return new Path[] {mount};
+		return new Path[] {mount.resolve(path.substring(1)), mount};
+	}
+
+	/**
+	 * @return : the lines of a small system file, none when it cannot be read
+	 */
+	static List<String> lines(Path file) {
+		try {
+			return Files.readAllLines(file, StandardCharsets.US_ASCII);
+		} catch (IOException | RuntimeException e) {
+			return Collections.emptyList();
+		}
+	}
+
+	/**
+	 * @return : cores the quota allows, fractional, at most the processors
+	 */
+	public double getCpus() {
+		return this.cpus;
+	}
+
+	public int getProcessors() {
+		return this.processors;
+	}
+
+	/**
+	 * @return : threads that can run at the same time without being throttled, at least 1
+	 */
+	public int getWorkers() {
+		return Math.max(1, (int) Math.floor(this.cpus + 1e-6));
+	}
+
+	/**
+	 * @return : where the quota was read from
+	 */
+	public String getSource() {
+		return this.source;
+	}
+
+	/**
+	 * @return : total time the cgroup was throttled in nanoseconds, -1 when unknown
+	 */
+	public long throttledNanos() {
+		if (this.stat == null)
+			return -1;
+		for (String line : lines(this.stat)) {
+			if (this.v2 && line.startsWith("throttled_usec "))
+				return Long.parseLong(line.substring(15).trim()) * 1000;
+			if (!this.v2 && line.startsWith("throttled_time "))
+				return Long.parseLong(line.substring(15).trim());
+		}
+		return -1;
+	}
+
+	/**
+	 * @return : total time the host took the cores of this machine for other
+	 *           guests, in nanoseconds and summed over the cores, -1 when unknown
+	 */
+	public static long stealNanos() {
+		List<String> stat = lines(PROC_STAT);
+		if (stat.isEmpty() || !stat.get(0).startsWith("cpu "))
+			return -1;
+		// cpu user nice system idle iowait irq softirq steal ...
+		String[] fields = stat.get(0).trim().split("\\s+");
+		if (fields.length < 9)
+			return -1;
+		return Long.parseLong(fields[8]) * (1000000000L / TICKS_PER_SECOND);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%.2f cpus of %d processors (%s)", this.cpus, this.processors, this.source);
+	}
+}
@@ -0,0 +1,423 @@
+// Copyright 2015 theaigames.com (developers@theaigames.com)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//	
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package bot;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import field.BatchEvaluator;
+import field.CandidateBatch;
+import field.ContourField;
+import field.Orientation;
+import field.PackedField;
+import field.Placements;
+import field.ScoreFunction;
+import field.ShapeType;
+import field.StagedEvaluator;
+
+/**
+ * ExpectimaxSearch class
+ * 
+ * Adds a third ply to the lookahead: after the current and the next piece
+ * comes a chance node over the 7 piece types, weighted by how often each
+ * type has been seen this game. A move is worth its own score, plus the
+ * best score of the next piece, plus the expected best score of the
+ * unknown piece after it.
+ * 
+ * Only the most promising moves get the chance ply: the best first moves
+ * by their two piece score, and for each of them the best few next piece
+ * moves. The unknown piece is scored on a ContourField, the column
+ * heights and holes of the field, which costs a fraction of a full board
+ * per placement (system property bot.contour, true by default; false
+ * scores it with the stage one bound of the staged evaluation). The two
+ * known pieces are always placed and scored on the full field. The
+ * expected value of every field is kept for the rest of the search,
+ * since different move orders often lead to the same field. It is found
+ * by a hash of the field and only used when a second, independent hash
+ * matches too.
+ */
+
+public class ExpectimaxSearch {
+
+	// First moves, by their two piece score, that get a chance ply
+	static final int FIRST_MOVES = 8;
+	// Next piece moves of every first move that get a chance ply
+	static final int SECOND_MOVES = 4;
+	// Score of a ply where the piece cannot be placed, the same as the initial best score of the lookahead
+	static final double TOP_OUT_SCORE = -1000;
+	private static final ShapeType[] PIECES = {ShapeType.I, ShapeType.J, ShapeType.L, ShapeType.O, ShapeType.S, ShapeType.T, ShapeType.Z};
+	// Node, boxed key, Expected value, and table slot of a HashMap entry
+	static final int ENTRY_BYTES = 96;
+	private static final MemoryBudget.Quota QUOTA = MemoryBudget.get().register("expectimax", 1, ENTRY_BYTES);
+
+	private final StagedEvaluator leaves = new StagedEvaluator(BatchEvaluator.getInstance(), Double.POSITIVE_INFINITY);
+	private final HashMap<Long, Expected> expected = new HashMap<>();
+	private final boolean contour;
+	private ContourField surface;
+	private ContourField landed;
+	private long chanceNodes;
+	private long chanceHits;
+	private double completed;
+	// Best score of every expanded first move, best first
+	private double[] totals = new double[0];
+
+	public ExpectimaxSearch() {
+		this(Boolean.parseBoolean(System.getProperty("bot.contour", "true")));
+	}
+
+	/**
+	 * @param contour : true to score the chance ply on the contour of the fields
+	 */
+	public ExpectimaxSearch(boolean contour) {
+		this.contour = contour;
+	}
+
+	/**
+	 * @param grid      : current field
+	 * @param piece     : current piece type
+	 * @param spawnX    : x location of the current piece
+	 * @param spawnY    : y location of the current piece
+	 * @param next      : next piece type
+	 * @param combo     : current combo value
+	 * @param frequency : weight of every piece type in the chance ply, by ordinal
+	 * @param scorer    : evaluation of the fields
+	 * @param deadline  : time limit, the best move among the ones searched so far is returned once it expires
+	 * @return : the best move, or null if none was searched completely
+	 */
+	BotStarter.BestScore search(PackedField grid, ShapeType piece, int spawnX, int spawnY, ShapeType next,
+			int combo, double[] frequency, ScoreFunction scorer, SearchDeadline deadline) {
+		try {
+			return searchPlies(grid, piece, spawnX, spawnY, next, combo, frequency, scorer, deadline);
+		} finally {
+			// The values only hold for this search and the quota is shared with the other sessions
+			clear();
+		}
+	}
+
+	private BotStarter.BestScore searchPlies(PackedField grid, ShapeType piece, int spawnX, int spawnY, ShapeType next,
+			int combo, double[] frequency, ScoreFunction scorer, SearchDeadline deadline) {
+
+		int width = grid.getWidth();
+		int height = grid.getHeight();
+		int nextX = Orientation.spawnX(next, width);
+		clear();
+		this.completed = 0;
+		this.totals = new double[0];
+		// The contour keeps its rows in bytes
+		if (!this.contour || height > Byte.MAX_VALUE) {
+			this.surface = null;
+		} else if (this.surface == null || this.surface.getWidth() != width || this.surface.getHeight() != height) {
+			this.surface = new ContourField(width, height);
+			this.landed = new ContourField(width, height);
+		}
+
+		Ply first = new Ply(width, height, scorer);
+		Ply second = new Ply(width, height, scorer);
+		Ply third = new Ply(width, height, scorer);
+		PackedField afterFirst = new PackedField(grid);
+		PackedField afterSecond = new PackedField(grid);
+
+		int count = first.generate(grid, piece, spawnX, spawnY, combo);
+		if (count == 0)
+			return null;
+		first.evaluate(null, deadline);
+
+		// Two piece score of every first move
+		double[] twoPly = new double[count];
+		int[] removedFirst = new int[first.batch.size()];
+		double[] bestSecond = new double[first.batch.size()];
+		for (int c = 0; c < first.batch.size(); c++) {
+			if (deadline.isExpired())
+				return null;
+			first.batch.copyTo(c, afterFirst);
+			removedFirst[c] = afterFirst.removeLines();
+			second.generate(afterFirst, next, nextX, -1, combo + removedFirst[c]);
+			second.evaluate(null, deadline);
+			bestSecond[c] = second.best();
+		}
+		for (int i = 0; i < count; i++)
+			twoPly[i] = first.score(i) + bestSecond[first.candidate[i]];
+
+		// The distinct boards of the best first moves, best first
+		int[] order = new int[Math.min(FIRST_MOVES, first.batch.size())];
+		int expand = top(twoPly, first, order);
+
+		double[] threePly = new double[first.batch.size()];
+		boolean[] searched = new boolean[first.batch.size()];
+		int[] secondOrder = new int[SECOND_MOVES];
+		for (int k = 0; k < expand; k++) {
+			int c = order[k];
+			first.batch.copyTo(c, afterFirst);
+			afterFirst.removeLines();
+			int secondCount = second.generate(afterFirst, next, nextX, -1, combo + removedFirst[c]);
+			double best = TOP_OUT_SCORE;
+			if (secondCount > 0) {
+				second.evaluate(null, deadline);
+				double[] secondScores = new double[secondCount];
+				for (int i = 0; i < secondCount; i++)
+					secondScores[i] = second.score(i);
+				int secondExpand = top(secondScores, second, secondOrder);
+				for (int m = 0; m < secondExpand; m++) {
+					if (deadline.isExpired())
+						break;
+					int c2 = secondOrder[m];
+					second.batch.copyTo(c2, afterSecond);
+					int removed = afterSecond.removeLines();
+					double value = second.bestScoreOf(c2) + chance(afterSecond, combo + removedFirst[c] + removed, frequency, scorer, third, deadline);
+					best = Math.max(best, value);
+				}
+			}
+			if (deadline.isExpired())
+				break;
+			threePly[c] = best;
+			searched[c] = true;
+		}
+		int done = 0;
+		for (int k = 0; k < expand; k++)
+			if (searched[order[k]])
+				done++;
+		this.completed = expand == 0 ? 1 : (double) done / expand;
+
+		// Placements in order, so ties resolve like the lookahead
+		BotStarter.BestScore result = null;
+		double[] total = new double[first.batch.size()];
+		Arrays.fill(total, Double.NEGATIVE_INFINITY);
+		for (int i = 0; i < count; i++) {
+			int c = first.candidate[i];
+			if (!searched[c])
+				continue;
+			double score = first.score(i) + threePly[c];
+			total[c] = Math.max(total[c], score);
+			if (result == null || score >= result.score) {
+				if (result == null)
+					result = new BotStarter.BestScore();
+				result.score = score;
+				result.bestLeft = first.placements.getLeft(i);
+				result.bestRotation = first.placements.getRotation(i);
+			}
+		}
+		this.totals = new double[done];
+		for (int k = 0, t = 0; k < expand; k++)
+			if (searched[order[k]])
+				this.totals[t++] = total[order[k]];
+		Arrays.sort(this.totals);
+		for (int t = 0; t < done / 2; t++) {
+			double swap = this.totals[t];
+			this.totals[t] = this.totals[done - 1 - t];
+			this.totals[done - 1 - t] = swap;
+		}
+		return result;
+	}
+
+	/**
+	 * Expected best score of the unknown piece on a field, kept for the rest of the search
+	 */
+	private double chance(PackedField field, int combo, double[] frequency, ScoreFunction scorer, Ply ply, SearchDeadline deadline) {
+		long key = field.hash() * 31 + combo;
+		long check = field.check() * 31 + combo;
+		Expected known = this.expected.get(key);
+		if (known != null && known.check == check) {
+			this.chanceHits++;
+			return known.value;
+		}
+		this.chanceNodes++;
+
+		double value = 0;
+		if (this.surface != null)
+			this.surface.copyFrom(field);
+		for (ShapeType type : PIECES) {
+			double weight = frequency[type.ordinal()];
+			if (weight == 0)
+				continue;
+			if (this.surface != null) {
+				//todo: remove *2
+				double best = this.surface.best(type, combo * 2, scorer, this.landed);
+				value += weight * (best == Double.NEGATIVE_INFINITY ? TOP_OUT_SCORE : best);
+				continue;
+			}
+			int count = ply.generate(field, type, Orientation.spawnX(type, field.getWidth()), -1, combo);
+			if (count == 0) {
+				value += weight * TOP_OUT_SCORE;
+				continue;
+			}
+			ply.evaluate(this.leaves, deadline);
+			value += weight * ply.best();
+		}
+		keep(key, check, value);
+		return value;
+	}
+
+	/**
+	 * Keeps a value while the quota has room for it, a full cache only costs the reuse of
+	 * later fields. Once memory pressure lowers the quota below the cache, the cache is dropped.
+	 */
+	private void keep(long key, long check, double value) {
+		// A colliding field replaces the entry, which was reserved already
+		if (this.expected.containsKey(key) || QUOTA.reserve())
+			this.expected.put(key, new Expected(check, value));
+		else if (QUOTA.isOver())
+			clear();
+	}
+
+	private void clear() {
+		QUOTA.release(this.expected.size());
+		this.expected.clear();
+	}
+
+	/**
+	 * Picks the distinct boards whose best placement scores highest
+	 * @param scores : score of every placement
+	 * @param ply    : generated ply
+	 * @param order  : filled with the batch indices, best first
+	 * @return : number of boards picked
+	 */
+	private static int top(double[] scores, Ply ply, int[] order) {
+		int size = ply.batch.size();
+		double[] best = new double[size];
+		Arrays.fill(best, Double.NEGATIVE_INFINITY);
+		for (int i = 0; i < ply.placements.size(); i++)
+			best[ply.candidate[i]] = Math.max(best[ply.candidate[i]], scores[i]);
+
+		int picked = 0;
+		boolean[] taken = new boolean[size];
+		for (; picked < order.length && picked < size; picked++) {
+			int top = -1;
+			for (int c = 0; c < size; c++)
+				if (!taken[c] && (top < 0 || best[c] > best[top]))
+					top = c;
+			taken[top] = true;
+			order[picked] = top;
+		}
+		return picked;
+	}
+
+	public long getChanceNodes() {
+		return this.chanceNodes;
+	}
+
+	public long getChanceHits() {
+		return this.chanceHits;
+	}
+
+	/**
+	 * @return : share of the first moves picked for the chance ply that the last search
+	 *           expanded before its deadline, from 0 to 1
+	 */
+	public double getCompleted() {
+		return this.completed;
+	}
+
+	/**
+	 * @param ranked : first moves to compare with, like the ranking of the lookahead
+	 * @return : how clearly the move of the last search leads its best expanded first moves,
+	 *           see SearchResult.getLead
+	 */
+	public double getLead(int ranked) {
+		return SearchResult.lead(this.totals, Math.min(ranked, this.totals.length));
+	}
+
+	/*
+	* Cached value of a chance node, with a second hash of its field: the key alone is a
+	* 64 bit hash, and fields that collide on it must not share their value
+	* */
+	static class Expected {
+		final long check;
+		final double value;
+
+		Expected(long check, double value) {
+			this.check = check;
+			this.value = value;
+		}
+	}
+
+	/*
+	* Placements and boards of one piece, reused for every field it is placed on
+	* */
+	private static class Ply {
+		final Placements placements;
+		final CandidateBatch batch;
+		final int[] candidate;
+		private final int height;
+		private boolean cheap;
+
+		Ply(int width, int height, ScoreFunction scorer) {
+			this.placements = new Placements(width);
+			this.batch = new CandidateBatch(width, height, 4 * width, scorer);
+			this.candidate = new int[4 * width];
+			this.height = height;
+		}
+
+		/**
+		 * @return : number of placements
+		 */
+		int generate(PackedField field, ShapeType type, int x, int y, int combo) {
+			int count = this.placements.generate(field, type, x, y);
+			//todo: remove *2
+			this.batch.reset(field, combo * 2);
+			for (int i = 0; i < count; i++) {
+				if (this.placements.isUnique(i))
+					this.candidate[i] = this.batch.add(this.placements.getOrientation(i), this.placements.getX(i), this.placements.getY(i));
+				else
+					this.candidate[i] = this.candidate[this.placements.getUnique(i)];
+			}
+			return count;
+		}
+
+		/**
+		 * @param leaves   : cheap stage one scores, or null for the full evaluation
+		 * @param deadline : counts the evaluated boards
+		 */
+		void evaluate(StagedEvaluator leaves, SearchDeadline deadline) {
+			deadline.addNodes(this.batch.size());
+			// The bound is only a score where the expensive features cannot raise it
+			this.cheap = leaves != null && this.batch.getScoreFunction().getWeights().hasBounds();
+			if (this.cheap)
+				leaves.evaluateCheap(this.batch);
+			else
+				BatchEvaluator.getInstance().evaluate(this.batch);
+		}
+
+		double score(int i) {
+			int heightTerm = this.height - this.placements.getY(i) - this.placements.getOrientation(i).getSize() / 2;
+			return this.cheap ? this.batch.getBound(this.candidate[i], heightTerm) : this.batch.getScore(this.candidate[i], heightTerm);
+		}
+
+		/**
+		 * @return : best score of the placements landing on board c
+		 */
+		double bestScoreOf(int c) {
+			double best = Double.NEGATIVE_INFINITY;
+			for (int i = 0; i < this.placements.size(); i++)
+				if (this.candidate[i] == c)
+					best = Math.max(best, score(i));
+			return best;
+		}
+
+		/**
+		 * @return : best score of all placements, TOP_OUT_SCORE when there are none
+		 */
+		double best() {
+			if (this.placements.size() == 0)
+				return TOP_OUT_SCORE;
+			double best = Double.NEGATIVE_INFINITY;
+			for (int i = 0; i < this.placements.size(); i++)
+				best = Math.max(best, score(i));
+			return best;
+		}
+	}
+}
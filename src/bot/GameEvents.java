@@ -0,0 +1,123 @@
+// Copyright 2015 theaigames.com (developers@theaigames.com)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//	
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package bot;
+
+import java.util.ArrayList;
+
+import field.ShapeType;
+
+/**
+ * GameEvents class
+ * 
+ * Single threaded pipeline from the parser to the components that keep
+ * state derived from the game. Every event is handed to the listeners in
+ * the order they subscribed, right away on the calling thread, without
+ * queues or locks. BotState subscribes first, so when a later listener
+ * gets an event the state already includes it.
+ */
+
+public class GameEvents implements GameListener {
+
+	private final ArrayList<GameListener> listeners = new ArrayList<>();
+
+	public void subscribe(GameListener listener) {
+		this.listeners.add(listener);
+	}
+
+	public void unsubscribe(GameListener listener) {
+		this.listeners.remove(listener);
+	}
+
+	@Override
+	public void onTimebank(int timebank) {
+		for (int i = 0; i < this.listeners.size(); i++)
+			this.listeners.get(i).onTimebank(timebank);
+	}
+
+	@Override
+	public void onTimePerMove(int timePerMove) {
+		for (int i = 0; i < this.listeners.size(); i++)
+			this.listeners.get(i).onTimePerMove(timePerMove);
+	}
+
+	@Override
+	public void onPlayerNames(String[] names) {
+		for (int i = 0; i < this.listeners.size(); i++)
+			this.listeners.get(i).onPlayerNames(names);
+	}
+
+	@Override
+	public void onYourBot(String name) {
+		for (int i = 0; i < this.listeners.size(); i++)
+			this.listeners.get(i).onYourBot(name);
+	}
+
+	@Override
+	public void onFieldWidth(int width) {
+		for (int i = 0; i < this.listeners.size(); i++)
+			this.listeners.get(i).onFieldWidth(width);
+	}
+
+	@Override
+	public void onFieldHeight(int height) {
+		for (int i = 0; i < this.listeners.size(); i++)
+			this.listeners.get(i).onFieldHeight(height);
+	}
+
+	@Override
+	public void onRound(int round) {
+		for (int i = 0; i < this.listeners.size(); i++)
+			this.listeners.get(i).onRound(round);
+	}
+
+	@Override
+	public void onThisPieceType(ShapeType type) {
+		for (int i = 0; i < this.listeners.size(); i++)
+			this.listeners.get(i).onThisPieceType(type);
+	}
+
+	@Override
+	public void onNextPieceType(ShapeType type) {
+		for (int i = 0; i < this.listeners.size(); i++)
+			this.listeners.get(i).onNextPieceType(type);
+	}
+
+	@Override
+	public void onThisPiecePosition(int x, int y) {
+		for (int i = 0; i < this.listeners.size(); i++)
+			this.listeners.get(i).onThisPiecePosition(x, y);
+	}
+
+	@Override
+	public void onField(String player, String field) {
+		for (int i = 0; i < this.listeners.size(); i++)
+			this.listeners.get(i).onField(player, field);
+	}
+
+	@Override
+	public void onCombo(String player, int combo) {
+		for (int i = 0; i < this.listeners.size(); i++)
+			this.listeners.get(i).onCombo(player, combo);
+	}
+
+	@Override
+	public void onRowPoints(String player, int points) {
+		for (int i = 0; i < this.listeners.size(); i++)
+			this.listeners.get(i).onRowPoints(player, points);
+	}
+}
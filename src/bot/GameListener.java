@@ -0,0 +1,64 @@
+// Copyright 2015 theaigames.com (developers@theaigames.com)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//	
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package bot;
+
+import field.ShapeType;
+
+/**
+ * GameListener interface
+ * 
+ * Receives the lines of the engine as typed events, see GameEvents. There
+ * is one method per settings or update key; all of them do nothing by
+ * default, so a listener only implements the events it derives state
+ * from. Events arrive on the thread that reads the engine, in the order
+ * of the lines, and the next line is only read once every listener has
+ * returned.
+ */
+
+public interface GameListener {
+
+	default void onTimebank(int timebank) {}
+
+	default void onTimePerMove(int timePerMove) {}
+
+	default void onPlayerNames(String[] names) {}
+
+	default void onYourBot(String name) {}
+
+	default void onFieldWidth(int width) {}
+
+	default void onFieldHeight(int height) {}
+
+	default void onRound(int round) {}
+
+	default void onThisPieceType(ShapeType type) {}
+
+	default void onNextPieceType(ShapeType type) {}
+
+	default void onThisPiecePosition(int x, int y) {}
+
+	/**
+	 * @param player : name of the player
+	 * @param field  : the new field, as sent by the engine
+	 */
+	default void onField(String player, String field) {}
+
+	default void onCombo(String player, int combo) {}
+
+	default void onRowPoints(String player, int points) {}
+}
@@ -0,0 +1,276 @@
+// Copyright 2015 theaigames.com (developers@theaigames.com)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//	
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package bot;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+/**
+ * MemoryBudget class
+ * 
+ * Memory the caches of the search may fill, shared out between them. The
+ * main classes read it at startup, from the maximum heap and the memory
+ * limit of the container, whichever is lower (the JVM may have been given
+ * a heap larger than the container allows), less a reserve for the JVM
+ * itself. CACHE_SHARE of it goes to the caches, or the number of megabytes
+ * in the system property bot.memory.
+ * 
+ * Every kind of cache registers one Quota with a weight and the bytes one
+ * entry costs. All instances of that cache, in every session, reserve
+ * their entries from it before they add one and release them when they
+ * clear, so together they never hold more than the quota. A full cache
+ * stops adding entries rather than evicting them, so a search only loses
+ * the reuse, never its result.
+ * 
+ * When a garbage collection leaves a heap pool above PRESSURE_THRESHOLD
+ * of its maximum, the JVM notifies the budget through the pool's
+ * collection usage threshold and every quota is halved, down to
+ * MIN_SCALE. A cache that finds its quota over the halved limit clears
+ * itself at its next insert. After RECOVERY_MILLIS without such a
+ * notification the quotas double again.
+ */
+
+public class MemoryBudget {
+
+	static final double CACHE_SHARE = 0.25;
+	// Memory the JVM needs besides the heap when the container limit is the lower one
+	static final long RESERVE_BYTES = 64L << 20;
+	static final double PRESSURE_THRESHOLD = 0.8;
+	static final double MIN_SCALE = 1.0 / 64;
+	static final long RECOVERY_MILLIS = 10000;
+	private static volatile MemoryBudget instance;
+
+	private final long maxHeap;
+	private final long containerLimit; // 0 when there is none
+	private final long budget;
+	private final List<Quota> quotas = new ArrayList<>();
+	private volatile double scale = 1;
+	private volatile long lastPressure;
+	private final AtomicInteger pressureEvents = new AtomicInteger();
+	private volatile double weights;
+
+	/**
+	 * @param maxHeap        : maximum heap in bytes
+	 * @param containerLimit : memory limit of the container in bytes, 0 for none
+	 * @param override       : budget of the caches in bytes, 0 to derive it from the limits
+	 */
+	MemoryBudget(long maxHeap, long containerLimit, long override) {
+		this.maxHeap = maxHeap;
+		this.containerLimit = containerLimit;
+		long usable = containerLimit > 0 ? Math.min(maxHeap, containerLimit - RESERVE_BYTES) : maxHeap;
+		this.budget = override > 0 ? override : (long) (Math.max(usable, 0) * CACHE_SHARE);
+	}
+
+	/**
+	 * @return : the budget of this process, read and watched from the first call on
+	 */
+	public static MemoryBudget get() {
+		if (instance == null) {
+			synchronized (MemoryBudget.class) {
+				if (instance == null) {
+					MemoryBudget budget = new MemoryBudget(Runtime.getRuntime().maxMemory(), readContainerLimit(),
+							Long.getLong("bot.memory", 0) << 20);
+					budget.watch();
+					instance = budget;
+				}
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * @return : memory limit of the cgroup of the process in bytes, 0 when it has none
+	 */
+	private static long readContainerLimit() {
+		Path dir = CpuQuota.cgroupDir("memory.max", "memory", "memory.limit_in_bytes");
+		if (dir == null)
+			return 0;
+		List<String> max = CpuQuota.lines(dir.resolve("memory.max"));
+		if (max.isEmpty())
+			max = CpuQuota.lines(dir.resolve("memory.limit_in_bytes"));
+		if (max.isEmpty() || max.get(0).trim().equals("max"))
+			return 0;
+		long limit = Long.parseLong(max.get(0).trim());
+		// v1 reports no limit as the largest page aligned long
+		return limit >= Long.MAX_VALUE / 2 ? 0 : limit;
+	}
+
+	/**
+	 * Sets the collection usage threshold of the heap pools that have one,
+	 * and listens for the notifications of it being exceeded
+	 */
+	private void watch() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			long max = pool.getUsage().getMax();
+			if (pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported() && max > 0)
+				pool.setCollectionUsageThreshold((long) (max * PRESSURE_THRESHOLD));
+		}
+		NotificationEmitter emitter = (NotificationEmitter) ManagementFactory.getMemoryMXBean();
+		emitter.addNotificationListener(new NotificationListener() {
+			@Override
+			public void handleNotification(Notification notification, Object handback) {
+				if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType()))
+					pressure();
+			}
+		}, null, null);
+	}
+
+	/**
+	 * Halves every quota, called when a collection could not free enough of the heap
+	 */
+	synchronized void pressure() {
+		this.scale = Math.max(MIN_SCALE, this.scale / 2);
+		this.lastPressure = System.nanoTime();
+		this.pressureEvents.incrementAndGet();
+	}
+
+	/**
+	 * @return : share of the budget the quotas get now
+	 */
+	double getScale() {
+		double scale = this.scale;
+		if (scale < 1 && System.nanoTime() - this.lastPressure > RECOVERY_MILLIS * 1000000L)
+			return recover();
+		return scale;
+	}
+
+	private synchronized double recover() {
+		if (this.scale < 1 && System.nanoTime() - this.lastPressure > RECOVERY_MILLIS * 1000000L) {
+			this.scale = Math.min(1, this.scale * 2);
+			this.lastPressure = System.nanoTime();
+		}
+		return this.scale;
+	}
+
+	/**
+	 * @param name       : name of the cache in the report
+	 * @param weight     : share of the budget relative to the other caches
+	 * @param entryBytes : approximate memory of one entry
+	 * @return : the quota of the cache
+	 */
+	public synchronized Quota register(String name, double weight, int entryBytes) {
+		Quota quota = new Quota(this, name, weight, entryBytes);
+		this.quotas.add(quota);
+		this.weights += weight;
+		return quota;
+	}
+
+	/**
+	 * @return : budget of all caches in bytes, before the pressure scale
+	 */
+	public long getBudget() {
+		return this.budget;
+	}
+
+	public long getMaxHeap() {
+		return this.maxHeap;
+	}
+
+	/**
+	 * @return : memory limit of the container in bytes, 0 when it has none
+	 */
+	public long getContainerLimit() {
+		return this.containerLimit;
+	}
+
+	/**
+	 * @return : the limits, the scale and the use of every cache
+	 */
+	@Override
+	public synchronized String toString() {
+		StringBuilder report = new StringBuilder(String.format("%d MB for caches (heap %d MB, container %s), scale %.3f, %d pressure events",
+				this.budget >> 20, this.maxHeap >> 20, this.containerLimit > 0 ? (this.containerLimit >> 20) + " MB" : "none",
+				getScale(), this.pressureEvents.get()));
+		for (Quota quota : this.quotas) {
+			long used = quota.getUsed();
+			report.append(String.format("; %s %d of %d entries (%d KB)", quota.name, used,
+					quota.getEntries(), used * quota.entryBytes >> 10));
+		}
+		return report.toString();
+	}
+
+	/*
+	* Share of the budget of one cache
+	* */
+	public static class Quota {
+		private final MemoryBudget budget;
+		private final String name;
+		private final double weight;
+		private final int entryBytes;
+		private final AtomicLong used = new AtomicLong();
+
+		Quota(MemoryBudget budget, String name, double weight, int entryBytes) {
+			this.budget = budget;
+			this.name = name;
+			this.weight = weight;
+			this.entryBytes = entryBytes;
+		}
+
+		/**
+		 * @return : entries the cache may hold now
+		 */
+		public long getEntries() {
+			MemoryBudget budget = this.budget;
+			return (long) (budget.budget * budget.getScale() * (this.weight / budget.weights) / this.entryBytes);
+		}
+
+		/**
+		 * Takes one entry of the quota, for a cache about to add one
+		 * @return : false when the quota is used up, the cache must not add the entry
+		 */
+		public boolean reserve() {
+			long limit = getEntries();
+			if (this.used.incrementAndGet() <= limit)
+				return true;
+			this.used.decrementAndGet();
+			return false;
+		}
+
+		/**
+		 * Gives back the entries of a cache that removed them
+		 */
+		public void release(long entries) {
+			this.used.addAndGet(-entries);
+		}
+
+		/**
+		 * @return : true when the caches hold more than the quota allows now, after memory pressure
+		 */
+		public boolean isOver() {
+			return this.used.get() > getEntries();
+		}
+
+		/**
+		 * @return : entries all caches of this quota hold
+		 */
+		public long getUsed() {
+			return this.used.get();
+		}
+	}
+}
@@ -0,0 +1,309 @@
+// Copyright 2015 theaigames.com (developers@theaigames.com)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//	
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package bot;
+
+import java.util.concurrent.ExecutionException;
+
+import field.Orientation;
+import field.PackedField;
+import field.Placements;
+import field.ScoreFunction;
+import field.ShapeType;
+
+/**
+ * MonteCarloSearch class
+ * 
+ * Looks further ahead than the current and next piece by playing out many
+ * random games. The best few placements of the current piece are each
+ * followed by the known next piece and then random pieces, all placed by
+ * a cheap greedy policy on a PackedField. The placement with the best
+ * average outcome wins. Candidates, policy and outcome all use the
+ * ScoreFunction of the bot, so other weights change the playouts too.
+ * 
+ * Playouts run on the search thread and on parts forked into the
+ * SearchScheduler, at most one worker per thread of the scheduler, so
+ * sessions sharing it share its threads too. They do not allocate: every
+ * worker owns its boards, placement buffer and random generator. How
+ * many workers a turn uses, and how many playouts they run between two
+ * deadline checks, follows the playouts per second of the turns before
+ * (see WorkerSizing).
+ */
+
+public class MonteCarloSearch {
+
+	// Placements of the current piece that get playouts
+	static final int CANDIDATES = 6;
+	// Random pieces placed after the next piece in every playout
+	static final int HORIZON = 8;
+	static final double TOP_OUT_PENALTY = 100;
+	// Share of the final board evaluation in the outcome, so playouts without points still rank
+	static final double BOARD_WEIGHT = 0.05;
+	private static final int[] LINE_POINTS = {0, 0, 3, 6, 10};
+	private static final ShapeType[] PIECES = {ShapeType.I, ShapeType.J, ShapeType.L, ShapeType.O, ShapeType.S, ShapeType.T, ShapeType.Z};
+
+	private final SearchScheduler scheduler;
+	private final WorkerSizing sizing;
+	private String telemetry = "";
+
+	/**
+	 * @param scheduler : runs the workers next to the search thread, a turn uses at most one per thread
+	 */
+	public MonteCarloSearch(SearchScheduler scheduler) {
+		this.scheduler = scheduler;
+		this.sizing = new WorkerSizing(scheduler.getThreads());
+	}
+
+	/**
+	 * @param grid     : current field
+	 * @param piece    : current piece type
+	 * @param spawnX   : x location of the current piece
+	 * @param spawnY   : y location of the current piece
+	 * @param next     : next piece type
+	 * @param combo    : current combo value
+	 * @param scorer   : evaluation of the candidates, the playout policy and the final boards
+	 * @param deadline : time limit of the whole search
+	 * @param budget   : time the playouts may use, in milliseconds
+	 * @return : the placement with the best average outcome, or null if the piece cannot be placed
+	 */
+	BotStarter.BestScore search(PackedField grid, ShapeType piece, int spawnX, int spawnY, ShapeType next,
+			int combo, ScoreFunction scorer, final SearchDeadline deadline, long budget) {
+
+		Placements placements = new Placements(grid.getWidth());
+		int count = placements.generate(grid, piece, spawnX, spawnY);
+		if (count == 0)
+			return null;
+
+		// Keep the placements the evaluation likes best
+		double[] scores = new double[count];
+		PackedField scratch = new PackedField(grid);
+		for (int i = 0; i < count; i++) {
+			scratch.copyFrom(grid);
+			scratch.place(placements.getOrientation(i), placements.getX(i), placements.getY(i));
+			scores[i] = scratch.evaluate(placements.getOrientation(i), placements.getY(i), combo * 2, scorer);
+		}
+		int candidates = Math.min(CANDIDATES, count);
+		int[] chosen = new int[candidates];
+		boolean[] taken = new boolean[count];
+		for (int k = 0; k < candidates; k++) {
+			int best = -1;
+			for (int i = 0; i < count; i++)
+				if (!taken[i] && (best < 0 || scores[i] > scores[best]))
+					best = i;
+			taken[best] = true;
+			chosen[k] = best;
+		}
+
+		// Board, points and combo right after each candidate
+		final PackedField[] starts = new PackedField[candidates];
+		final double[] startPoints = new double[candidates];
+		final int[] startCombos = new int[candidates];
+		for (int k = 0; k < candidates; k++) {
+			int i = chosen[k];
+			starts[k] = new PackedField(grid);
+			starts[k].place(placements.getOrientation(i), placements.getX(i), placements.getY(i));
+			starts[k].clearShapes();
+			int removed = starts[k].removeLines();
+			startPoints[k] = points(removed, combo);
+			startCombos[k] = removed > 0 ? combo + 1 : 0;
+		}
+
+		final SearchDeadline playoutDeadline = new SearchDeadline(budget);
+		final int threads = this.sizing.getWorkers();
+		final int chunk = this.sizing.getChunk();
+		Worker[] workers = new Worker[threads];
+		for (int t = 0; t < threads; t++)
+			workers[t] = new Worker(grid.getWidth(), grid.getHeight(), candidates, t, next, scorer);
+
+		boolean stats = Boolean.getBoolean("bot.stats");
+		long throttled = stats ? CpuQuota.get().throttledNanos() : -1;
+		long steal = stats ? CpuQuota.stealNanos() : -1;
+		long start = System.nanoTime();
+		SearchScheduler.Part[] parts = new SearchScheduler.Part[threads];
+		for (int t = 1; t < threads; t++) {
+			final Worker worker = workers[t];
+			parts[t] = this.scheduler.fork(new Runnable() {
+				@Override
+				public void run() {
+					worker.run(starts, startPoints, startCombos, chunk, playoutDeadline, deadline);
+				}
+			}, deadline);
+		}
+		workers[0].run(starts, startPoints, startCombos, chunk, playoutDeadline, deadline);
+
+		// Workers still queued behind other searches get no playouts this turn
+		double[] sums = new double[candidates];
+		long[] playouts = new long[candidates];
+		for (int t = 0; t < threads; t++) {
+			try {
+				if (t > 0 && !parts[t].join())
+					continue;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch (ExecutionException e) {
+				System.err.printf("Playouts failed: %s\n", e.getCause());
+				continue;
+			}
+			for (int k = 0; k < candidates; k++) {
+				sums[k] += workers[t].sums[k];
+				playouts[k] += workers[t].playouts[k];
+			}
+		}
+		long nanos = System.nanoTime() - start;
+		long total = 0;
+		for (int k = 0; k < candidates; k++)
+			total += playouts[k];
+		this.sizing.record(threads, total, nanos);
+		if (stats)
+			this.telemetry = String.format("%d playouts, %.0f/s on %d workers, chunk %d, throttled %.1f ms, steal %.1f ms; next turn %s; quota %s",
+					total, total * 1e9 / Math.max(nanos, 1), threads, chunk, delta(CpuQuota.get().throttledNanos(), throttled),
+					delta(CpuQuota.stealNanos(), steal), this.sizing, CpuQuota.get());
+
+		// Candidates are in evaluation order, so without playouts the best evaluation wins
+		int best = 0;
+		double bestAverage = Double.NEGATIVE_INFINITY;
+		for (int k = 0; k < candidates; k++) {
+			if (playouts[k] == 0)
+				continue;
+			double average = sums[k] / playouts[k];
+			if (average > bestAverage) {
+				bestAverage = average;
+				best = k;
+			}
+		}
+
+		BotStarter.BestScore result = new BotStarter.BestScore();
+		result.score = playouts[best] > 0 ? bestAverage : scores[chosen[best]];
+		result.bestLeft = placements.getLeft(chosen[best]);
+		result.bestRotation = placements.getRotation(chosen[best]);
+		return result;
+	}
+
+	/**
+	 * @return : change of a counter in milliseconds, NaN when it is unknown
+	 */
+	private static double delta(long now, long before) {
+		return now < 0 || before < 0 ? Double.NaN : (now - before) / 1e6;
+	}
+
+	/**
+	 * @return : sizing and throughput of the last search, only kept with the system property bot.stats
+	 */
+	public String getTelemetry() {
+		return this.telemetry;
+	}
+
+	/**
+	 * Row points for clearing lines, as awarded by the engine (ignoring t-spins and perfect clears)
+	 */
+	static int points(int lines, int combo) {
+		if (lines == 0)
+			return 0;
+		return LINE_POINTS[Math.min(lines, 4)] + combo;
+	}
+
+	/*
+	* Playout state owned by one thread
+	* */
+	private static class Worker {
+		final double[] sums;
+		final long[] playouts;
+		private final PackedField board;
+		private final Placements placements;
+		private final ShapeType next;
+		private final ScoreFunction scorer;
+		// The cheap evaluation leaves out features that would raise the score
+		private final boolean cheap;
+		private final int first;
+		private long random;
+
+		Worker(int width, int height, int candidates, int id, ShapeType next, ScoreFunction scorer) {
+			this.sums = new double[candidates];
+			this.playouts = new long[candidates];
+			this.board = new PackedField(width, height);
+			this.placements = new Placements(width);
+			this.next = next;
+			this.scorer = scorer;
+			this.cheap = scorer.getWeights().hasBounds();
+			this.first = id % candidates;
+			this.random = System.nanoTime() ^ (0x9E3779B97F4A7C15L * (id + 1));
+		}
+
+		/**
+		 * @param chunk : playouts between two deadline checks
+		 */
+		void run(PackedField[] starts, double[] startPoints, int[] startCombos, int chunk,
+				SearchDeadline playoutDeadline, SearchDeadline deadline) {
+			int k = this.first;
+			while (!playoutDeadline.isExpired() && !deadline.isExpired()) {
+				for (int i = 0; i < chunk; i++) {
+					this.sums[k] += playout(starts[k], startPoints[k], startCombos[k]);
+					this.playouts[k]++;
+					k = (k + 1) % starts.length;
+				}
+			}
+		}
+
+		private ShapeType randomPiece() {
+			this.random ^= this.random << 13;
+			this.random ^= this.random >>> 7;
+			this.random ^= this.random << 17;
+			return PIECES[(int) ((this.random >>> 33) % PIECES.length)];
+		}
+
+		private double playout(PackedField start, double points, int combo) {
+			PackedField board = this.board;
+			board.copyFrom(start);
+			ShapeType type = this.next;
+
+			for (int ply = 0; ply <= HORIZON; ply++) {
+				int count = this.placements.generateDistinct(board, type, Orientation.spawnX(type, board.getWidth()), -1);
+				if (count == 0)
+					return points - TOP_OUT_PENALTY;
+
+				// Greedy: the placement with the best cheap evaluation, or the full one when the
+				// weights reward a feature the cheap one leaves out
+				int best = 0;
+				double bestScore = Double.NEGATIVE_INFINITY;
+				for (int i = 0; i < count; i++) {
+					if (!this.placements.isUnique(i))
+						continue;
+					Orientation o = this.placements.getOrientation(i);
+					int x = this.placements.getX(i);
+					int y = this.placements.getY(i);
+					board.place(o, x, y);
+					double score = this.cheap ? board.evaluateCheap(o, y, combo, this.scorer) : board.evaluate(o, y, combo, this.scorer);
+					board.remove(o, x, y);
+					if (score > bestScore) {
+						bestScore = score;
+						best = i;
+					}
+				}
+
+				board.place(this.placements.getOrientation(best), this.placements.getX(best), this.placements.getY(best));
+				int removed = board.removeLines();
+				points += points(removed, combo);
+				combo = removed > 0 ? combo + 1 : 0;
+				type = randomPiece();
+			}
+
+			return points + BOARD_WEIGHT * this.scorer.score(0, 0, 0, board.getRowTransitions(),
+					board.getColumnTransitions(), board.getHoles(), board.getWellSums());
+		}
+	}
+}
@@ -0,0 +1,207 @@
+// Copyright 2015 theaigames.com (developers@theaigames.com)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//	
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package bot;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * PortfolioSearch class
+ * 
+ * Runs different searches for the same move at the same time, each on a
+ * thread of its own, and lets an arbiter pick between their answers. The
+ * first strategy runs on the calling thread, every other one is forked
+ * into the SearchScheduler, so the strategies of all sessions share its
+ * threads; one that no thread picked up before the deadline is skipped.
+ * Every strategy holds a lock of its own while it runs, so it never runs
+ * twice at once even when the search of the last move is still unwinding.
+ * 
+ * Every finished strategy hands in a Proposal, and the arbiter publishes
+ * the best proposal so far right away, so whatever is published when the
+ * deadline hits is the arbiter's choice among the strategies that made
+ * it. Proposals that override win over the others (the survival search
+ * on a high stack). Otherwise the most confident proposal wins: every
+ * strategy rates its own move from 0 to 1 by how clearly it leads the
+ * best few moves the strategy ranked, the expectimax search scaled down
+ * by the share of its first moves it expanded before the deadline. So
+ * the lookahead wins when the third ply blurs a choice the first two
+ * plies made clearly, and when the deadline cut the expectimax search
+ * short; a clear third ply wins otherwise. Equal confidence goes to the
+ * proposal that looked the most plies ahead, remaining ties to the
+ * earlier strategy, so the choice does not depend on which strategy
+ * finished first.
+ * 
+ * Every strategy gets a fork of the deadline: with a node budget each one
+ * may evaluate the whole budget, and the nodes are added up afterwards.
+ */
+
+public class PortfolioSearch {
+
+	private final SearchScheduler scheduler;
+	private final Object[] locks;
+	private final LongAdder[] wins;
+
+	/**
+	 * @param scheduler  : runs the strategies next to the calling thread
+	 * @param strategies : most strategies a search runs
+	 */
+	public PortfolioSearch(SearchScheduler scheduler, int strategies) {
+		this.scheduler = scheduler;
+		this.locks = new Object[strategies];
+		this.wins = new LongAdder[strategies];
+		for (int s = 0; s < strategies; s++) {
+			this.locks[s] = new Object();
+			this.wins[s] = new LongAdder();
+		}
+	}
+
+	/*
+	* One way of searching the move
+	* */
+	interface Strategy {
+		/**
+		 * @param deadline : limit of this strategy
+		 * @return : its answer, or null when it has none
+		 */
+		Proposal run(SearchDeadline deadline);
+	}
+
+	/*
+	* Answer of one strategy
+	* */
+	static class Proposal {
+		final BotStarter.BestScore move;
+		final int plies;
+		final double confidence;
+		final boolean overrides;
+
+		/**
+		 * @param move       : the move
+		 * @param plies      : pieces the search looked ahead, including the current one
+		 * @param confidence : how far the strategy trusts the move, from 0 to 1
+		 * @param overrides  : wins over every proposal that does not
+		 */
+		Proposal(BotStarter.BestScore move, int plies, double confidence, boolean overrides) {
+			this.move = move;
+			this.plies = plies;
+			this.confidence = confidence;
+			this.overrides = overrides;
+		}
+
+		boolean beats(Proposal other) {
+			if (other == null)
+				return true;
+			if (this.overrides != other.overrides)
+				return this.overrides;
+			if (this.confidence != other.confidence)
+				return this.confidence > other.confidence;
+			return this.plies > other.plies;
+		}
+	}
+
+	/**
+	 * Runs all strategies and returns once they are done or the deadline expired
+	 * @param strategies : one per thread, in order of preference on ties
+	 * @param deadline   : limit of the whole search
+	 * @param result     : gets the arbiter's choice every time a strategy finishes
+	 */
+	void search(List<Strategy> strategies, SearchDeadline deadline, BotStarter.AnytimeResult result) {
+		Arbiter arbiter = new Arbiter(strategies.size(), result);
+		SearchDeadline[] forks = new SearchDeadline[strategies.size()];
+		for (int s = 0; s < forks.length; s++)
+			forks[s] = deadline.fork();
+
+		SearchScheduler.Part[] running = new SearchScheduler.Part[strategies.size()];
+		for (int s = 1; s < strategies.size(); s++)
+			running[s] = this.scheduler.fork(task(strategies.get(s), s, forks[s], arbiter), deadline);
+		task(strategies.get(0), 0, forks[0], arbiter).run();
+
+		for (int s = 1; s < running.length; s++) {
+			try {
+				// When late, the arbiter chose without it
+				running[s].join(deadline.remainingMillis());
+			} catch (ExecutionException e) {
+				System.err.printf("Portfolio strategy %d failed: %s\n", s, e.getCause());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+
+		for (SearchDeadline fork : forks)
+			deadline.addNodes(fork.getNodes());
+		int winner = arbiter.getWinner();
+		if (winner >= 0)
+			this.wins[winner].increment();
+	}
+
+	private Runnable task(final Strategy strategy, final int index, final SearchDeadline deadline, final Arbiter arbiter) {
+		final Object lock = this.locks[index];
+		return new Runnable() {
+			@Override
+			public void run() {
+				Proposal proposal;
+				synchronized (lock) {
+					proposal = strategy.run(deadline);
+				}
+				if (proposal != null && proposal.move != null)
+					arbiter.offer(index, proposal);
+			}
+		};
+	}
+
+	/**
+	 * @return : how often the proposal of every strategy was chosen
+	 */
+	public long[] getWins() {
+		long[] wins = new long[this.wins.length];
+		for (int s = 0; s < wins.length; s++)
+			wins[s] = this.wins[s].sum();
+		return wins;
+	}
+
+	/*
+	* Best proposal of one search, published as soon as it changes
+	* */
+	private static class Arbiter {
+		private final Proposal[] proposals;
+		private final BotStarter.AnytimeResult result;
+		private int winner = -1;
+
+		Arbiter(int strategies, BotStarter.AnytimeResult result) {
+			this.proposals = new Proposal[strategies];
+			this.result = result;
+		}
+
+		synchronized void offer(int index, Proposal proposal) {
+			this.proposals[index] = proposal;
+			// Strict, so an earlier strategy keeps a tie whatever order they finished in
+			int best = -1;
+			for (int s = 0; s < this.proposals.length; s++)
+				if (this.proposals[s] != null && (best < 0 || this.proposals[s].beats(this.proposals[best])))
+					best = s;
+			this.winner = best;
+			this.result.publish(this.proposals[best].move);
+		}
+
+		synchronized int getWinner() {
+			return this.winner;
+		}
+	}
+}
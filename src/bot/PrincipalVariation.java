@@ -0,0 +1,199 @@
+// Copyright 2015 theaigames.com (developers@theaigames.com)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package bot;
+
+import field.Orientation;
+import field.PackedField;
+import field.Placements;
+import field.ShapeType;
+
+import java.util.HashMap;
+
+/**
+ * PrincipalVariation class
+ *
+ * What one lookahead search learned about the next turn. Its second ply
+ * found the best placement of the next piece on the field after every
+ * first move, which is exactly the greedy result the next search starts
+ * with if the engine sends that field. Those results are kept by field
+ * hash, together with the expected field after the chosen move. Every
+ * result keeps a copy of its field, so a hash collision is a miss rather
+ * than a move for another field.
+ *
+ * When the field only matches after garbage or solid rows pushed it up,
+ * or the drawn piece cells differ, the scores no longer hold, but the
+ * chosen reply is still a good first move to publish while searching.
+ * 
+ * The next lookahead also searches that reply first, for a high early
+ * score to hold the other placements to, and takes the result for any
+ * field, piece and combo it finds here instead of searching it again.
+ */
+
+class PrincipalVariation {
+
+	private final HashMap<Long, Reply> replies = new HashMap<>();
+	private PackedField expected;
+	private ShapeType nextPiece;
+	private BotStarter.BestScore reply;
+
+	/**
+	 * Stores the best placement found for a piece on a field
+	 * @param field : field after the first move and its line clears
+	 * @param piece : next piece
+	 * @param x     : x location the piece was placed from
+	 * @param y     : y location the piece was placed from
+	 * @param combo : combo value of the search
+	 * @param best  : complete result of that search
+	 */
+	void putReply(PackedField field, ShapeType piece, int x, int y, int combo, BotStarter.BestScore best) {
+		this.replies.put(key(field, piece, x, y, combo), new Reply(new PackedField(field), piece, x, y, combo, best));
+	}
+
+	/**
+	 * Sets the move the search chose, after all replies are stored
+	 * @param field     : field before the move
+	 * @param piece     : piece of the move
+	 * @param spawnX    : x location the piece starts at
+	 * @param spawnY    : y location the piece starts at
+	 * @param best      : chosen move
+	 * @param nextPiece : piece of the next turn
+	 * @param nextX     : x location the next piece starts at
+	 * @param nextY     : y location the next piece starts at
+	 * @param combo     : combo value the replies were searched with, without the cleared lines
+	 */
+	void setPrincipal(PackedField field, ShapeType piece, int spawnX, int spawnY, BotStarter.BestScore best,
+			ShapeType nextPiece, int nextX, int nextY, int combo) {
+		Orientation o = Orientation.get(piece, best.bestRotation);
+		int x = spawnX - best.bestLeft;
+		this.expected = new PackedField(field);
+		this.expected.place(o, x, this.expected.drop(o, x, spawnY));
+		int removed = this.expected.removeLines();
+		this.nextPiece = nextPiece;
+		this.reply = getReply(this.expected, nextPiece, nextX, nextY, combo + removed);
+	}
+
+	/**
+	 * @return : the stored result for exactly this field, piece, location and combo, or null
+	 */
+	BotStarter.BestScore getReply(PackedField field, ShapeType piece, int x, int y, int combo) {
+		Reply reply = this.replies.get(key(field, piece, x, y, combo));
+		if (reply == null || reply.piece != piece || reply.x != x || reply.y != y || reply.combo != combo
+				|| !sameField(reply.field, field))
+			return null;
+		return reply.best;
+	}
+
+	/**
+	 * The reply to the chosen move when the field is the expected one, possibly
+	 * moved up by garbage rows, and that placement can still be reached
+	 * @return : the reply move, or null
+	 */
+	BotStarter.BestScore getSeed(PackedField field, ShapeType piece, int x, int y) {
+		if (this.reply == null || piece != this.nextPiece || shift(field) < 0)
+			return null;
+		Placements placements = new Placements(field.getWidth());
+		int count = placements.generate(field, piece, x, y);
+		for (int i = 0; i < count; i++)
+			if (placements.getRotation(i) == this.reply.bestRotation && placements.getLeft(i) == this.reply.bestLeft)
+				return this.reply;
+		return null;
+	}
+
+	/**
+	 * @return : rows the field moved up from the expected field, ignoring
+	 *           the drawn piece cells, or -1 when it does not match at all
+	 */
+	int shift(PackedField field) {
+		PackedField expected = this.expected;
+		if (expected == null || expected.getWidth() != field.getWidth() || expected.getHeight() != field.getHeight())
+			return -1;
+		int height = field.getHeight();
+		for (int k = 0; k < height; k++) {
+			// The rows pushed out at the top were empty
+			if (!sameRow(expected, k - 1, null, 0))
+				return -1;
+			boolean same = true;
+			for (int y = 0; y + k < height && same; y++)
+				same = sameRow(expected, y + k, field, y);
+			if (same)
+				return k;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return : true when the block and solid cells of row a of one field match row b of the other,
+	 *           or when row a is empty (or -1) if the other field is null
+	 */
+	private static boolean sameRow(PackedField one, int a, PackedField other, int b) {
+		if (a < 0)
+			return true;
+		for (int word = 0; word < one.getWords(); word++) {
+			int blocks = other == null ? 0 : other.getBlockRow(b, word);
+			int solids = other == null ? 0 : other.getSolidRow(b, word);
+			if (one.getBlockRow(a, word) != blocks || one.getSolidRow(a, word) != solids)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return : true when both fields have the same size and the same cells, the drawn piece included
+	 */
+	private static boolean sameField(PackedField one, PackedField other) {
+		if (one.getWidth() != other.getWidth() || one.getHeight() != other.getHeight())
+			return false;
+		for (int y = 0; y < one.getHeight(); y++) {
+			if (!sameRow(one, y, other, y))
+				return false;
+			for (int word = 0; word < one.getWords(); word++)
+				if (one.getShapeRow(y, word) != other.getShapeRow(y, word))
+					return false;
+		}
+		return true;
+	}
+
+	private static long key(PackedField field, ShapeType piece, int x, int y, int combo) {
+		long key = field.hash();
+		key = key * 31 + piece.ordinal();
+		key = key * 31 + x;
+		key = key * 31 + y;
+		return key * 31 + combo;
+	}
+
+	/*
+	* Result of one search with the field it was searched on
+	* */
+	private static class Reply {
+		final PackedField field;
+		final ShapeType piece;
+		final int x;
+		final int y;
+		final int combo;
+		final BotStarter.BestScore best;
+
+		Reply(PackedField field, ShapeType piece, int x, int y, int combo, BotStarter.BestScore best) {
+			this.field = field;
+			this.piece = piece;
+			this.x = x;
+			this.y = y;
+			this.combo = combo;
+			this.best = best;
+		}
+	}
+}
@@ -0,0 +1,159 @@
+// Copyright 2015 theaigames.com (developers@theaigames.com)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//	
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package bot;
+
+/**
+ * SearchDeadline class
+ * 
+ * Time limit shared between the search and the watchdog in getMoves().
+ * The search polls isExpired() and unwinds as soon as it returns true.
+ * 
+ * The searches report every board they evaluate with addNodes(). A
+ * deadline made by nodes() expires after that many boards instead of
+ * after some time, so a search stops at the same point on every machine
+ * and run. Nodes are counted on the search thread only.
+ */
+
+public class SearchDeadline {
+
+	private final long deadline;
+	private final long nodeBudget; // no limit when negative
+	private final SearchDeadline parent;
+	private final boolean counted; // nodes are also added to the parent
+	private volatile boolean cancelled;
+	private long nodes;
+
+	/**
+	 * @param budget : time the search may run, in milliseconds
+	 */
+	public SearchDeadline(long budget) {
+		this(null, budget);
+	}
+
+	/**
+	 * Deadline for part of a search, which also expires with the deadline of the whole
+	 * @param parent : deadline of the whole search (can be null)
+	 * @param budget : time the part may run, in milliseconds
+	 */
+	public SearchDeadline(SearchDeadline parent, long budget) {
+		this(parent, budget, -1);
+	}
+
+	private SearchDeadline(SearchDeadline parent, long budget, long nodeBudget) {
+		this(parent, System.nanoTime() + Math.max(0, budget) * 1000000L, nodeBudget, true);
+	}
+
+	private SearchDeadline(SearchDeadline parent, long deadline, long nodeBudget, boolean counted) {
+		this.deadline = deadline;
+		this.nodeBudget = nodeBudget;
+		this.parent = parent;
+		this.counted = counted;
+		this.cancelled = false;
+	}
+
+	/**
+	 * A deadline that expires after a number of evaluated boards, never on time
+	 * @param budget : number of boards the search may evaluate
+	 */
+	public static SearchDeadline nodes(long budget) {
+		return new SearchDeadline(null, Long.MAX_VALUE / 2000000L, Math.max(0, budget));
+	}
+
+	/**
+	 * Deadline for part of the search that is left, in time or in nodes like this one
+	 * @param share : share of the remaining time or nodes
+	 */
+	public SearchDeadline part(double share) {
+		if (this.nodeBudget >= 0)
+			return new SearchDeadline(this, Long.MAX_VALUE / 2000000L, (long) (Math.max(0, this.nodeBudget - this.nodes) * share));
+		return new SearchDeadline(this, (long) (remainingMillis() * share));
+	}
+
+	/**
+	 * Deadline for a search that runs next to others on another thread: it
+	 * expires with this one, or after all the nodes left here, but counts
+	 * its nodes on its own, to be added to this one when it is done
+	 */
+	public SearchDeadline fork() {
+		return new SearchDeadline(this, this.deadline, this.nodeBudget >= 0 ? Math.max(0, this.nodeBudget - this.nodes) : -1, false);
+	}
+
+	/**
+	 * Counts evaluated boards, here and in the deadlines this one is part of
+	 */
+	public void addNodes(long count) {
+		this.nodes += count;
+		if (this.parent != null && this.counted)
+			this.parent.addNodes(count);
+	}
+
+	public long getNodes() {
+		return this.nodes;
+	}
+
+	/**
+	 * @return : true when this deadline counts nodes instead of time
+	 */
+	public boolean isNodeBudget() {
+		return this.nodeBudget >= 0;
+	}
+
+	/**
+	 * A deadline that never expires unless cancelled
+	 */
+	public static SearchDeadline none() {
+		return new SearchDeadline(Long.MAX_VALUE / 2000000L);
+	}
+
+	/**
+	 * @return : the deadline as a System.nanoTime() value
+	 */
+	public long getDeadline() {
+		return this.deadline;
+	}
+
+	public void cancel() {
+		this.cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return this.cancelled;
+	}
+
+	public boolean isExpired() {
+		if (this.cancelled || (this.parent != null && this.parent.isExpired()))
+			return true;
+		if (this.nodeBudget >= 0)
+			return this.nodes >= this.nodeBudget;
+		return System.nanoTime() >= this.deadline;
+	}
+
+	/**
+	 * @return : boards left before the node budget runs out (never negative), Long.MAX_VALUE without one
+	 */
+	public long remainingNodes() {
+		return this.nodeBudget >= 0 ? Math.max(0, this.nodeBudget - this.nodes) : Long.MAX_VALUE;
+	}
+
+	/**
+	 * @return : milliseconds left before the deadline (never negative)
+	 */
+	public long remainingMillis() {
+		return Math.max(0, (this.deadline - System.nanoTime()) / 1000000L);
+	}
+}
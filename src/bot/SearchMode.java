@@ -0,0 +1,49 @@
+// Copyright 2015 theaigames.com (developers@theaigames.com)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//	
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package bot;
+
+/**
+ * SearchMode enum
+ * 
+ * The searches BotStarter can use to pick its moves, chosen with the
+ * first command line argument (e.g. "monte_carlo").
+ */
+
+public enum SearchMode {
+	LOOKAHEAD,
+	MONTE_CARLO,
+	EXPECTIMAX,
+	PORTFOLIO;
+
+	/**
+	 * @param args : command line arguments
+	 * @return : the mode named by the first argument, LOOKAHEAD when there is none
+	 */
+	public static SearchMode parse(String[] args) {
+		if (args.length == 0)
+			return LOOKAHEAD;
+		return parse(args[0]);
+	}
+
+	/**
+	 * @param name : mode name, case insensitive and with - or _ between words
+	 */
+	public static SearchMode parse(String name) {
+		return SearchMode.valueOf(name.trim().toUpperCase().replace('-', '_'));
+	}
+}
@@ -0,0 +1,204 @@
+// Copyright 2015 theaigames.com (developers@theaigames.com)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//	
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package bot;
+
+import java.util.ArrayList;
+
+import moves.MoveType;
+
+/**
+ * SearchResult class
+ * 
+ * The best few placements of one search, best first, each with its
+ * score and the reply the search expects for the next piece. The
+ * lookahead scores every placement anyway, this keeps the ranking that
+ * a single BestScore throws away, for move ordering, arbitration
+ * between searches and fallback moves.
+ * 
+ * Entries live in parallel arrays of fixed capacity, so offering a
+ * placement never allocates. Placements landing on the same cells are
+ * one entry, the best scoring of them. Ties rank like the search picks
+ * its move: the later placement goes first.
+ */
+
+public class SearchResult {
+
+	private final int capacity;
+	private final int[] candidate;
+	private final double[] score;
+	private final int[] left;
+	private final int[] rotation;
+	private final double[] replyScore;
+	private final int[] replyLeft;
+	private final int[] replyRotation;
+	private int size;
+
+	/**
+	 * @param capacity : placements to keep
+	 */
+	public SearchResult(int capacity) {
+		this.capacity = capacity;
+		this.candidate = new int[capacity];
+		this.score = new double[capacity];
+		this.left = new int[capacity];
+		this.rotation = new int[capacity];
+		this.replyScore = new double[capacity];
+		this.replyLeft = new int[capacity];
+		this.replyRotation = new int[capacity];
+	}
+
+	public void clear() {
+		this.size = 0;
+	}
+
+	/**
+	 * Ranks a placement, kept when it is among the best
+	 * @param candidate     : board the placement leads to, placements with the same board are one entry
+	 * @param score         : score of the placement, including the reply
+	 * @param left          : left moves, negative for right moves
+	 * @param rotation      : right turns
+	 * @param replyScore    : score of the best placement of the next piece after it
+	 * @param replyLeft     : left moves of that placement
+	 * @param replyRotation : right turns of that placement
+	 */
+	void offer(int candidate, double score, int left, int rotation, double replyScore, int replyLeft, int replyRotation) {
+		int at = -1;
+		for (int k = 0; k < this.size && at < 0; k++)
+			if (this.candidate[k] == candidate)
+				at = k;
+		if (at >= 0) {
+			if (score < this.score[at])
+				return;
+			remove(at);
+		}
+
+		int k = this.size < this.capacity ? this.size : this.capacity - 1;
+		if (this.size == this.capacity && score < this.score[k])
+			return;
+		for (; k > 0 && score >= this.score[k - 1]; k--)
+			move(k - 1, k);
+		this.candidate[k] = candidate;
+		this.score[k] = score;
+		this.left[k] = left;
+		this.rotation[k] = rotation;
+		this.replyScore[k] = replyScore;
+		this.replyLeft[k] = replyLeft;
+		this.replyRotation[k] = replyRotation;
+		if (this.size < this.capacity)
+			this.size++;
+	}
+
+	private void remove(int at) {
+		for (int k = at; k + 1 < this.size; k++)
+			move(k + 1, k);
+		this.size--;
+	}
+
+	private void move(int from, int to) {
+		this.candidate[to] = this.candidate[from];
+		this.score[to] = this.score[from];
+		this.left[to] = this.left[from];
+		this.rotation[to] = this.rotation[from];
+		this.replyScore[to] = this.replyScore[from];
+		this.replyLeft[to] = this.replyLeft[from];
+		this.replyRotation[to] = this.replyRotation[from];
+	}
+
+	/**
+	 * @return : number of ranked placements, at most the capacity
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	public int getCapacity() {
+		return this.capacity;
+	}
+
+	/**
+	 * How clearly the best placement leads the ranking
+	 * @return : its lead over the runner-up as a share of its lead over the last ranked
+	 *           placement, from 0 for a tie to 1, and 1 when nothing else was ranked
+	 */
+	public double getLead() {
+		return lead(this.score, this.size);
+	}
+
+	/**
+	 * @param scores : best first
+	 * @param size   : number of scores
+	 * @see #getLead()
+	 */
+	static double lead(double[] scores, int size) {
+		if (size < 2)
+			return 1;
+		double spread = scores[0] - scores[size - 1];
+		return spread > 0 ? (scores[0] - scores[1]) / spread : 0;
+	}
+
+	/**
+	 * @param rank : 0 for the best placement
+	 */
+	public double getScore(int rank) {
+		return this.score[rank];
+	}
+
+	public int getLeft(int rank) {
+		return this.left[rank];
+	}
+
+	public int getRotation(int rank) {
+		return this.rotation[rank];
+	}
+
+	public double getReplyScore(int rank) {
+		return this.replyScore[rank];
+	}
+
+	public int getReplyLeft(int rank) {
+		return this.replyLeft[rank];
+	}
+
+	public int getReplyRotation(int rank) {
+		return this.replyRotation[rank];
+	}
+
+	/**
+	 * @return : the moves the engine needs for the placement
+	 */
+	public ArrayList<MoveType> getMoves(int rank) {
+		return BotStarter.toMoves(this.rotation[rank], this.left[rank]);
+	}
+
+	/**
+	 * @return : the moves of the reply the search expects for the next piece
+	 */
+	public ArrayList<MoveType> getReplyMoves(int rank) {
+		return BotStarter.toMoves(this.replyRotation[rank], this.replyLeft[rank]);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		for (int k = 0; k < this.size; k++)
+			builder.append(String.format("%s%d. %.2f rotate %d left %d, reply rotate %d left %d",
+					k == 0 ? "" : "; ", k + 1, this.score[k], this.rotation[k], this.left[k],
+					this.replyRotation[k], this.replyLeft[k]));
+		return builder.toString();
+	}
+}
@@ -0,0 +1,173 @@
+// Copyright 2015 theaigames.com (developers@theaigames.com)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//	
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package bot;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SearchScheduler class
+ * 
+ * Thread pool that runs the searches of one or more bots. Queued searches
+ * are started earliest deadline first, so when several sessions share the
+ * pool the one closest to its timeout gets the next free core.
+ * 
+ * A running search can fork() parts of its work, such as playouts, into
+ * the same queue instead of keeping threads of its own, so the searches
+ * of all sessions together never use more threads than the pool has. A
+ * part that is still queued once the search is done with its own share
+ * is skipped, which also keeps a search on a pool of one thread from
+ * waiting for itself.
+ */
+
+public class SearchScheduler {
+
+	private final ThreadPoolExecutor executor;
+	private final AtomicLong sequence;
+
+	/**
+	 * @param threads : number of searches that can run at the same time
+	 */
+	public SearchScheduler(int threads) {
+		this.sequence = new AtomicLong();
+		this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+			private int count = 0;
+
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "search-" + this.count++);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Queues a search
+	 * @param search   : the search to run
+	 * @param deadline : time limit of the search, used to order the queue
+	 * @return : future that completes when the search is done
+	 */
+	public Future<?> submit(Runnable search, SearchDeadline deadline) {
+		DeadlineTask task = new DeadlineTask(search, deadline.getDeadline(), this.sequence.getAndIncrement());
+		this.executor.execute(task);
+		return task;
+	}
+
+	/**
+	 * Queues part of a running search, to run next to the calling thread once a thread is free
+	 * @param part     : the work
+	 * @param deadline : time limit of the search, used to order the queue
+	 * @return : the queued part, see Part.join()
+	 */
+	public Part fork(Runnable part, SearchDeadline deadline) {
+		Part queued = new Part(part);
+		// The only thread is the one of the search that forks, the part could start once it is done at the earliest
+		if (getThreads() == 1) {
+			queued.claimed.set(true);
+			return queued;
+		}
+		queued.future = submit(queued, deadline);
+		return queued;
+	}
+
+	public int getThreads() {
+		return this.executor.getMaximumPoolSize();
+	}
+
+	public void shutdown() {
+		this.executor.shutdownNow();
+	}
+
+	/*
+	* Forked part of a search, run at most once
+	* */
+	public static class Part implements Runnable {
+		private final Runnable work;
+		private final AtomicBoolean claimed = new AtomicBoolean();
+		private Future<?> future; // null when it was never queued
+
+		Part(Runnable work) {
+			this.work = work;
+		}
+
+		@Override
+		public void run() {
+			if (this.claimed.compareAndSet(false, true))
+				this.work.run();
+		}
+
+		/**
+		 * Waits for the part, or skips it when no thread has started it by then
+		 * @param millis : longest wait
+		 * @return : true when the part finished in time, a late part that started is left to unwind
+		 */
+		public boolean join(long millis) throws InterruptedException, ExecutionException {
+			if (this.future == null)
+				return false;
+			try {
+				this.future.get(millis, TimeUnit.MILLISECONDS);
+				return true;
+			} catch (TimeoutException e) {
+				this.claimed.set(true);
+				return false;
+			}
+		}
+
+		/**
+		 * Skips the part when no thread has started it yet, otherwise waits for it
+		 * @return : true when the part ran
+		 */
+		public boolean join() throws InterruptedException, ExecutionException {
+			if (this.claimed.compareAndSet(false, true) || this.future == null)
+				return false;
+			this.future.get();
+			return true;
+		}
+	}
+
+	/*
+	* Queue entry ordered by deadline, then by submission order
+	* */
+	private static class DeadlineTask extends FutureTask<Void> implements Comparable<DeadlineTask> {
+		private final long deadline;
+		private final long sequence;
+
+		DeadlineTask(Runnable search, long deadline, long sequence) {
+			super(search, null);
+			this.deadline = deadline;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(DeadlineTask other) {
+			if (this.deadline != other.deadline)
+				return this.deadline - other.deadline < 0 ? -1 : 1;
+			return Long.compare(this.sequence, other.sequence);
+		}
+	}
+}
@@ -0,0 +1,381 @@
+// Copyright 2015 theaigames.com (developers@theaigames.com)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//	
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package bot;
+
+import java.util.HashMap;
+
+import field.BatchEvaluator;
+import field.CandidateBatch;
+import field.Orientation;
+import field.PackedField;
+import field.Placements;
+import field.ScoreFunction;
+import field.ShapeType;
+
+/**
+ * SurvivalSearch class
+ * 
+ * Search for a stack close to the top, where the evaluation alone walks
+ * into a top out. Only placements that leave the spawn cells of the
+ * following piece free are candidates, which leaves few of them, and
+ * those few are searched deeper and deeper until the time runs out: the
+ * current and next piece, then the unknown pieces as chance nodes
+ * weighted by their frequency.
+ * 
+ * Topping out is an explicit outcome instead of a low score: a ply
+ * without a safe placement is worth TOP_OUT_SCORE, far below any board,
+ * so the search first minimizes the chance to top out and only then
+ * looks at the evaluation.
+ * 
+ * Each depth costs some twenty times the one before, so the last
+ * iteration that fits rarely finishes. A depth is only started when the
+ * growth of the iterations so far says it can finish, and the whole
+ * search gets at most MOVE_SHARE of the time the engine adds per move,
+ * so a long run of high stacks does not drain the time bank.
+ */
+
+public class SurvivalSearch {
+
+	// Searched when a column reaches this many rows from the top, see PackedField.tooHigh
+	static final int TRIGGER_ROWS = 6;
+	// Share of the remaining time bank, or of the node budget, the search may use
+	static final double TIME_SHARE = 0.75;
+	// Most of the search time, as a share of the time per move
+	static final double MOVE_SHARE = 1.0;
+	// Safe placements of the unknown pieces that get searched further, by score
+	static final int BEAM = 4;
+	static final int MAX_DEPTH = 8;
+	static final double TOP_OUT_SCORE = -1e6;
+	private static final ShapeType[] PIECES = {ShapeType.I, ShapeType.J, ShapeType.L, ShapeType.O, ShapeType.S, ShapeType.T, ShapeType.Z};
+	private static final MemoryBudget.Quota QUOTA = MemoryBudget.get().register("survival", 2, ExpectimaxSearch.ENTRY_BYTES);
+
+	private final HashMap<Long, ExpectimaxSearch.Expected> expected = new HashMap<>();
+	private Level[] levels;
+	private double[] frequency;
+	private SearchDeadline deadline;
+	private int depth;
+
+	/**
+	 * @param deadline    : deadline of the move
+	 * @param timePerMove : time the engine adds to the time bank every move (ms), 0 when unknown
+	 * @return : the part of the deadline the search may use
+	 */
+	static SearchDeadline slice(SearchDeadline deadline, long timePerMove) {
+		if (deadline.isNodeBudget() || timePerMove <= 0)
+			return deadline.part(TIME_SHARE);
+		long budget = (long) (deadline.remainingMillis() * TIME_SHARE);
+		return new SearchDeadline(deadline, Math.min(budget, (long) (timePerMove * MOVE_SHARE)));
+	}
+
+	/**
+	 * @return : true when the field is high enough to need this search
+	 */
+	static boolean isNeeded(PackedField grid) {
+		return grid.tooHigh(TRIGGER_ROWS);
+	}
+
+	/**
+	 * @param grid      : current field
+	 * @param piece     : current piece type
+	 * @param spawnX    : x location of the current piece
+	 * @param spawnY    : y location of the current piece
+	 * @param next      : next piece type
+	 * @param combo     : current combo value
+	 * @param frequency : weight of every piece type in the chance plies, by ordinal
+	 * @param scorer    : evaluation of the fields
+	 * @param deadline  : time for the whole search, the deepest complete result is returned once it expires
+	 * @return : the best move of the deepest complete search, or null when the piece has no safe placement
+	 */
+	BotStarter.BestScore search(PackedField grid, ShapeType piece, int spawnX, int spawnY, ShapeType next,
+			int combo, double[] frequency, ScoreFunction scorer, SearchDeadline deadline) {
+		try {
+			return searchDepths(grid, piece, spawnX, spawnY, next, combo, frequency, scorer, deadline);
+		} finally {
+			// The values only hold for this search and the quota is shared with the other sessions
+			clear();
+		}
+	}
+
+	private BotStarter.BestScore searchDepths(PackedField grid, ShapeType piece, int spawnX, int spawnY, ShapeType next,
+			int combo, double[] frequency, ScoreFunction scorer, SearchDeadline deadline) {
+
+		this.frequency = frequency;
+		this.deadline = deadline;
+		this.depth = 0;
+		this.levels = new Level[MAX_DEPTH];
+		for (int d = 0; d < MAX_DEPTH; d++)
+			this.levels[d] = new Level(grid.getWidth(), grid.getHeight(), scorer);
+
+		Level first = this.levels[0];
+		int count = first.generate(grid, piece, spawnX, spawnY, combo);
+		if (count == 0)
+			return null;
+		first.evaluate();
+		deadline.addNodes(first.batch.size());
+
+		// Every safe first move, the narrow set the deep search is spent on
+		int size = first.batch.size();
+		int[] removed = new int[size];
+		boolean[] safe = new boolean[size];
+		int safeCount = 0;
+		for (int c = 0; c < size; c++) {
+			first.batch.copyTo(c, first.child);
+			removed[c] = first.child.removeLines();
+			safe[c] = spawnFree(first.child, next);
+			if (safe[c])
+				safeCount++;
+		}
+		if (safeCount == 0)
+			return null;
+
+		BotStarter.BestScore best = null;
+		double[] values = new double[size];
+		// With one safe board there is nothing to choose, depth 2 only picks its best placement
+		int maxDepth = safeCount == 1 ? 2 : MAX_DEPTH;
+		long cost = 0;
+		double growth = PIECES.length * BEAM;
+		for (int depth = 2; depth <= maxDepth; depth++) {
+			// An iteration that cannot finish would only throw its time away
+			if (cost > 0 && cost * growth > remaining(deadline))
+				break;
+			long start = spent(deadline);
+			clear();
+			boolean complete = true;
+			for (int c = 0; c < size && complete; c++) {
+				if (!safe[c])
+					continue;
+				first.batch.copyTo(c, first.child);
+				first.child.removeLines();
+				values[c] = known(first.child, next, combo + removed[c], 1, depth - 1);
+				complete = !deadline.isExpired();
+			}
+			if (!complete)
+				break;
+			this.depth = depth;
+			long iteration = Math.max(1, spent(deadline) - start);
+			if (depth > 2)
+				growth = Math.max(1, (double) iteration / cost);
+			cost = iteration;
+
+			// Placements in order, so ties resolve like the lookahead
+			best = null;
+			for (int i = 0; i < count; i++) {
+				int c = first.candidate[i];
+				if (!safe[c])
+					continue;
+				double score = first.score(i) + values[c];
+				if (best == null || score >= best.score) {
+					if (best == null)
+						best = new BotStarter.BestScore();
+					best.score = score;
+					best.bestLeft = first.placements.getLeft(i);
+					best.bestRotation = first.placements.getRotation(i);
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return : nodes evaluated with a node budget, otherwise the time in nanoseconds, from an arbitrary start
+	 */
+	private static long spent(SearchDeadline deadline) {
+		return deadline.isNodeBudget() ? deadline.getNodes() : System.nanoTime();
+	}
+
+	/**
+	 * @return : nodes or nanoseconds left, like spent()
+	 */
+	private static long remaining(SearchDeadline deadline) {
+		return deadline.isNodeBudget() ? deadline.remainingNodes() : deadline.remainingMillis() * 1000000L;
+	}
+
+	/**
+	 * Best value of a piece whose type is known, placed from its spawn location
+	 * @param level : index of the level the ply uses
+	 * @param plies : plies left, including this one
+	 */
+	private double known(PackedField field, ShapeType type, int combo, int level, int plies) {
+		Level ply = this.levels[level];
+		int count = ply.generate(field, type, Orientation.spawnX(type, field.getWidth()), -1, combo);
+		if (count == 0)
+			return TOP_OUT_SCORE;
+		ply.evaluate();
+		this.deadline.addNodes(ply.batch.size());
+
+		int size = ply.batch.size();
+		double best = TOP_OUT_SCORE;
+		if (plies == 1) {
+			for (int c = 0; c < size; c++)
+				best = Math.max(best, ply.best[c]);
+			return best;
+		}
+
+		// The best few boards that leave room for any piece
+		ply.sort();
+		for (int k = 0, expanded = 0; k < size && expanded < BEAM; k++) {
+			int c = ply.order[k];
+			ply.batch.copyTo(c, ply.child);
+			int removed = ply.child.removeLines();
+			if (!spawnFreeAll(ply.child))
+				continue;
+			expanded++;
+			best = Math.max(best, ply.best[c] + chance(ply.child, combo + removed, level + 1, plies - 1));
+			if (this.deadline.isExpired())
+				break;
+		}
+		return best;
+	}
+
+	/**
+	 * Expected value of the unknown piece, kept for the rest of the iteration and
+	 * checked against a second hash of the field like the chance values of the expectimax search
+	 */
+	private double chance(PackedField field, int combo, int level, int plies) {
+		long key = (field.hash() * 31 + combo) * 31 + plies;
+		long check = (field.check() * 31 + combo) * 31 + plies;
+		ExpectimaxSearch.Expected known = this.expected.get(key);
+		if (known != null && known.check == check)
+			return known.value;
+
+		double value = 0;
+		for (ShapeType type : PIECES) {
+			double weight = this.frequency[type.ordinal()];
+			if (weight != 0)
+				value += weight * known(field, type, combo, level, plies);
+		}
+		keep(key, check, value);
+		return value;
+	}
+
+	/**
+	 * Keeps a value while the quota has room for it, a full cache only costs the reuse of
+	 * later fields. Once memory pressure lowers the quota below the cache, the cache is dropped.
+	 */
+	private void keep(long key, long check, double value) {
+		// A colliding field replaces the entry, which was reserved already
+		if (this.expected.containsKey(key) || QUOTA.reserve())
+			this.expected.put(key, new ExpectimaxSearch.Expected(check, value));
+		else if (QUOTA.isOver())
+			clear();
+	}
+
+	private void clear() {
+		QUOTA.release(this.expected.size());
+		this.expected.clear();
+	}
+
+	private static boolean spawnFree(PackedField field, ShapeType type) {
+		return field.fits(Orientation.get(type, 0), Orientation.spawnX(type, field.getWidth()), -1);
+	}
+
+	private static boolean spawnFreeAll(PackedField field) {
+		for (ShapeType type : PIECES)
+			if (!spawnFree(field, type))
+				return false;
+		return true;
+	}
+
+	/**
+	 * @return : depth of the last complete iteration, 0 before the first
+	 */
+	public int getDepth() {
+		return this.depth;
+	}
+
+	/**
+	 * @return : boards evaluated by the last search
+	 */
+	public long getNodes() {
+		return this.deadline == null ? 0 : this.deadline.getNodes();
+	}
+
+	/*
+	* Placements and boards of one ply, reused at the same depth of every line
+	* */
+	private static class Level {
+		final Placements placements;
+		final CandidateBatch batch;
+		final PackedField child;
+		final int[] candidate;
+		final double[] best;
+		final int[] order;
+		private final boolean[] taken;
+		private final int height;
+
+		Level(int width, int height, ScoreFunction scorer) {
+			this.placements = new Placements(width);
+			this.batch = new CandidateBatch(width, height, 4 * width, scorer);
+			this.child = new PackedField(width, height);
+			this.candidate = new int[4 * width];
+			this.best = new double[4 * width];
+			this.order = new int[4 * width];
+			this.taken = new boolean[4 * width];
+			this.height = height;
+		}
+
+		/**
+		 * @return : number of placements
+		 */
+		int generate(PackedField field, ShapeType type, int x, int y, int combo) {
+			int count = this.placements.generate(field, type, x, y);
+			//todo: remove *2
+			this.batch.reset(field, combo * 2);
+			for (int i = 0; i < count; i++) {
+				if (this.placements.isUnique(i))
+					this.candidate[i] = this.batch.add(this.placements.getOrientation(i), this.placements.getX(i), this.placements.getY(i));
+				else
+					this.candidate[i] = this.candidate[this.placements.getUnique(i)];
+			}
+			return count;
+		}
+
+		/**
+		 * Scores the boards, each with the best landing height term of its placements
+		 */
+		void evaluate() {
+			BatchEvaluator.getInstance().evaluate(this.batch);
+			for (int c = 0; c < this.batch.size(); c++)
+				this.best[c] = Double.NEGATIVE_INFINITY;
+			for (int i = 0; i < this.placements.size(); i++)
+				this.best[this.candidate[i]] = Math.max(this.best[this.candidate[i]], score(i));
+		}
+
+		double score(int i) {
+			int heightTerm = this.height - this.placements.getY(i) - this.placements.getOrientation(i).getSize() / 2;
+			return this.batch.getScore(this.candidate[i], heightTerm);
+		}
+
+		/**
+		 * Puts the boards in order, best first
+		 */
+		void sort() {
+			int size = this.batch.size();
+			for (int c = 0; c < size; c++)
+				this.taken[c] = false;
+			for (int k = 0; k < size; k++) {
+				int top = -1;
+				for (int c = 0; c < size; c++)
+					if (!this.taken[c] && (top < 0 || this.best[c] > this.best[top]))
+						top = c;
+				this.taken[top] = true;
+				this.order[k] = top;
+			}
+		}
+	}
+}
@@ -0,0 +1,130 @@
+// Copyright 2015 theaigames.com (developers@theaigames.com)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//	
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package bot;
+
+/**
+ * WorkerSizing class
+ * 
+ * Picks the number of workers of a parallel search from the throughput
+ * it measured on earlier turns. A worker pool sized by the processors
+ * or the CPU quota can still be too large: neighbours on the host steal
+ * time, and a quota is shared with the JVM's own threads. Each turn
+ * reports its work and wall time; the count whose throughput stays
+ * highest is kept, and every PROBE_TURNS turns one count next to it is
+ * tried, so the choice follows the machine when its load changes. A try
+ * that wins is followed by the next count in the same direction. An
+ * extra worker has to add MARGIN of throughput to be worth keeping.
+ * 
+ * The split of the work follows the measured speed as well: workers
+ * check the deadline after a chunk of work that takes about CHUNK_NANOS,
+ * instead of after every item.
+ */
+
+class WorkerSizing {
+
+	static final int PROBE_TURNS = 8;
+	// Weight of the last turn in the throughput of a worker count
+	static final double SMOOTHING = 0.3;
+	static final double MARGIN = 0.05;
+	static final long CHUNK_NANOS = 200000;
+	static final int MAX_CHUNK = 64;
+
+	private final int maxWorkers;
+	private final double[] throughput; // by worker count, 0 until measured
+	private int workers;
+	private int chunk = 1;
+	private int turns;
+	private boolean probeUp;
+	private int probe; // direction of the count the current turn tries, 0 when it is not a try
+
+	/**
+	 * @param maxWorkers : the most workers a turn may use
+	 */
+	WorkerSizing(int maxWorkers) {
+		this.maxWorkers = Math.max(1, maxWorkers);
+		this.throughput = new double[this.maxWorkers + 1];
+		this.workers = this.maxWorkers;
+	}
+
+	/**
+	 * @return : workers of the next turn
+	 */
+	int getWorkers() {
+		return this.workers;
+	}
+
+	/**
+	 * @return : items a worker does between two deadline checks
+	 */
+	int getChunk() {
+		return this.chunk;
+	}
+
+	int getMaxWorkers() {
+		return this.maxWorkers;
+	}
+
+	/**
+	 * Adds the result of a turn and picks the workers of the next one
+	 * @param workers : workers the turn used
+	 * @param items   : work done by all of them
+	 * @param nanos   : wall time of the turn
+	 */
+	void record(int workers, long items, long nanos) {
+		if (items <= 0 || nanos <= 0)
+			return;
+		double rate = items * 1e9 / nanos;
+		double known = this.throughput[workers];
+		this.throughput[workers] = known == 0 ? rate : known + SMOOTHING * (rate - known);
+
+		double nanosPerItem = (double) nanos * workers / items;
+		this.chunk = (int) Math.max(1, Math.min(MAX_CHUNK, CHUNK_NANOS / nanosPerItem));
+
+		this.turns++;
+		int best = best();
+		int step = 0;
+		if (this.probe != 0 && best == workers) {
+			// The count tried last turn won, keep going that way
+			step = this.probe;
+		} else if (this.turns % PROBE_TURNS == 0) {
+			// Alternate between one more and one less
+			this.probeUp = !this.probeUp;
+			step = this.probeUp ? 1 : -1;
+		}
+		if (best + step < 1 || best + step > this.maxWorkers)
+			step = best - step < 1 || best - step > this.maxWorkers ? 0 : -step;
+		this.probe = step;
+		this.workers = best + step;
+	}
+
+	/**
+	 * @return : the fewest workers whose throughput no larger count beats by MARGIN
+	 */
+	private int best() {
+		int best = 0;
+		for (int n = 1; n <= this.maxWorkers; n++)
+			if (this.throughput[n] > 0 && (best == 0 || this.throughput[n] > this.throughput[best] * (1 + MARGIN)))
+				best = n;
+		return best == 0 ? this.maxWorkers : best;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d of %d workers, chunk %d", this.workers, this.maxWorkers, this.chunk);
+	}
+}
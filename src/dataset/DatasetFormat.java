@@ -0,0 +1,116 @@
+// Copyright 2015 theaigames.com (developers@theaigames.com)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//	
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package dataset;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import field.CandidateBatch;
+import field.PackedField;
+
+/**
+ * DatasetFormat class
+ * 
+ * Layout of the binary position datasets of DatasetWriter and
+ * DatasetReader. A file is a header and then fixed size records, all
+ * little endian, so record i starts at HEADER_BYTES + i * record bytes.
+ * 
+ * Header: MAGIC, VERSION, field width, field height, record bytes, then
+ * zeros up to HEADER_BYTES.
+ * 
+ * Record: piece, next piece, rotation and left moves of the chosen
+ * placement (one byte each, left is signed), the combo the engine sent
+ * (int), the CandidateBatch features of the field after the placement
+ * (FEATURES ints, same order), then the block, solid and shape rows of
+ * the field before the placement: every row is rowBytes(width) bytes,
+ * bit x % 8 of byte x / 8 is column x.
+ */
+
+final class DatasetFormat {
+
+	static final int MAGIC = 0x53444254; // "TBDS"
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 32;
+
+	static final int PIECE = 0;
+	static final int NEXT_PIECE = 1;
+	static final int ROTATION = 2;
+	static final int LEFT = 3;
+	static final int COMBO = 4;
+	static final int FEATURES = 8;
+	static final int ROWS = FEATURES + 4 * CandidateBatch.FEATURES;
+	static final int LAYERS = 3;
+
+	private DatasetFormat() {
+	}
+
+	static int rowBytes(int width) {
+		return (width + 7) / 8;
+	}
+
+	static int recordBytes(int width, int height) {
+		return ROWS + LAYERS * height * rowBytes(width);
+	}
+
+	static ByteBuffer header(int width, int height) {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height).putInt(recordBytes(width, height));
+		header.clear();
+		return header;
+	}
+
+	/**
+	 * Reads and checks the header of an existing file
+	 * @return : width and height of the fields in the file
+	 */
+	static int[] readHeader(FileChannel channel, Path path) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		while (header.hasRemaining())
+			if (channel.read(header, header.position()) < 0)
+				throw new IOException(path + " is too short for a dataset header");
+		header.flip();
+		if (header.getInt() != MAGIC)
+			throw new IOException(path + " is not a dataset");
+		int version = header.getInt();
+		if (version != VERSION)
+			throw new IOException(path + " has dataset version " + version + ", expected " + VERSION);
+		int width = header.getInt();
+		int height = header.getInt();
+		if (header.getInt() != recordBytes(width, height))
+			throw new IOException(path + " has a record size that does not match its field size");
+		return new int[] {width, height};
+	}
+
+	/**
+	 * Writes one layer of rows, word k of row y is rows[k * height + y] like in PackedField
+	 */
+	static void putRows(ByteBuffer buffer, PackedField field, int layer) {
+		int width = field.getWidth();
+		int bytes = rowBytes(width);
+		for (int y = 0; y < field.getHeight(); y++) {
+			for (int b = 0; b < bytes; b++) {
+				int word = b >>> 2;
+				int row = layer == 0 ? field.getBlockRow(y, word) : layer == 1 ? field.getSolidRow(y, word) : field.getShapeRow(y, word);
+				buffer.put((byte) (row >>> ((b & 3) * 8)));
+			}
+		}
+	}
+}
@@ -0,0 +1,251 @@
+// Copyright 2015 theaigames.com (developers@theaigames.com)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//	
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package dataset;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import field.CandidateBatch;
+import field.PackedField;
+import field.ScoreFunction;
+import field.ShapeType;
+
+/**
+ * DatasetReader class
+ * 
+ * Iterates the records of a dataset written by DatasetWriter, see
+ * DatasetFormat. The file is memory mapped in chunks of whole records
+ * and the getters read the current record straight from the mapping, so
+ * iterating creates no objects per record and the size of the file is
+ * only limited by the address space.
+ * 
+ * Usage: DatasetReader file, prints a summary of the dataset
+ */
+
+public class DatasetReader implements Closeable {
+
+	private static final long CHUNK_BYTES = 1L << 30;
+	private static final ShapeType[] TYPES = ShapeType.values();
+
+	private final FileChannel channel;
+	private final int width;
+	private final int height;
+	private final int words;
+	private final int recordBytes;
+	private final int rowBytes;
+	private final long records;
+	private final long chunkRecords;
+	private ByteBuffer chunk;
+	private long chunkStart;
+	private long index;
+	private int offset;
+
+	/**
+	 * Opens a dataset with the records it has now, later appends are not seen
+	 * @param path : dataset file
+	 */
+	public DatasetReader(Path path) throws IOException {
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			int[] dimensions = DatasetFormat.readHeader(this.channel, path);
+			this.width = dimensions[0];
+			this.height = dimensions[1];
+			this.records = (this.channel.size() - DatasetFormat.HEADER_BYTES) / DatasetFormat.recordBytes(this.width, this.height);
+		} catch (IOException e) {
+			this.channel.close();
+			throw e;
+		}
+		this.words = (this.width + 31) / 32;
+		this.recordBytes = DatasetFormat.recordBytes(this.width, this.height);
+		this.rowBytes = DatasetFormat.rowBytes(this.width);
+		this.chunkRecords = Math.max(CHUNK_BYTES / this.recordBytes, 1);
+		this.chunkStart = -1;
+		this.index = -1;
+	}
+
+	public static void main(String[] args) throws IOException {
+		try (DatasetReader reader = new DatasetReader(Paths.get(args[0]))) {
+			long start = System.nanoTime();
+			long[] pieces = new long[TYPES.length];
+			double[] sums = new double[CandidateBatch.FEATURES];
+			long combos = 0;
+			while (reader.next()) {
+				pieces[reader.getPiece().ordinal()]++;
+				combos += reader.getCombo();
+				for (int i = 0; i < sums.length; i++)
+					sums[i] += reader.getFeature(i);
+			}
+			double seconds = (System.nanoTime() - start) / 1e9;
+
+			long n = Math.max(reader.size(), 1);
+			System.out.printf("%d records of %dx%d fields, %d bytes each, read in %.2fs (%.0f records/s)\n",
+					reader.size(), reader.getWidth(), reader.getHeight(), reader.recordBytes, seconds, reader.size() / seconds);
+			StringBuilder counts = new StringBuilder();
+			for (ShapeType type : TYPES)
+				if (type != ShapeType.NONE)
+					counts.append(String.format(" %s %d", type, pieces[type.ordinal()]));
+			System.out.printf("pieces:%s\n", counts);
+			System.out.printf("mean combo %.2f, height %.2f, lines %.3f, row transitions %.2f, column transitions %.2f, holes %.2f, well sums %.2f\n",
+					(double) combos / n, sums[CandidateBatch.HEIGHT] / n, sums[CandidateBatch.LINES] / n,
+					sums[CandidateBatch.ROW_TRANSITIONS] / n, sums[CandidateBatch.COLUMN_TRANSITIONS] / n,
+					sums[CandidateBatch.HOLES] / n, sums[CandidateBatch.WELL_SUMS] / n);
+		}
+	}
+
+	/**
+	 * @return : number of records
+	 */
+	public long size() {
+		return this.records;
+	}
+
+	/**
+	 * Moves before a record, the next call of next() makes it current
+	 * @param record : 0 to size()
+	 */
+	public void seek(long record) {
+		if (record < 0 || record > this.records)
+			throw new IndexOutOfBoundsException("record " + record + " of " + this.records);
+		this.index = record - 1;
+	}
+
+	/**
+	 * Makes the next record current
+	 * @return : false at the end of the dataset
+	 */
+	public boolean next() throws IOException {
+		if (this.index + 1 >= this.records)
+			return false;
+		this.index++;
+		if (this.chunkStart < 0 || this.index < this.chunkStart || this.index >= this.chunkStart + this.chunkRecords)
+			map(this.index - this.index % this.chunkRecords);
+		this.offset = (int) (this.index - this.chunkStart) * this.recordBytes;
+		return true;
+	}
+
+	private void map(long first) throws IOException {
+		long count = Math.min(this.chunkRecords, this.records - first);
+		long position = DatasetFormat.HEADER_BYTES + first * this.recordBytes;
+		this.chunk = this.channel.map(FileChannel.MapMode.READ_ONLY, position, count * this.recordBytes)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		this.chunkStart = first;
+	}
+
+	/**
+	 * @return : index of the current record
+	 */
+	public long getIndex() {
+		return this.index;
+	}
+
+	public ShapeType getPiece() {
+		return TYPES[this.chunk.get(this.offset + DatasetFormat.PIECE)];
+	}
+
+	/**
+	 * @return : the next piece, NONE when it was not known
+	 */
+	public ShapeType getNextPiece() {
+		return TYPES[this.chunk.get(this.offset + DatasetFormat.NEXT_PIECE)];
+	}
+
+	public int getRotation() {
+		return this.chunk.get(this.offset + DatasetFormat.ROTATION);
+	}
+
+	/**
+	 * @return : left moves of the chosen placement, negative for right moves
+	 */
+	public int getLeft() {
+		return this.chunk.get(this.offset + DatasetFormat.LEFT);
+	}
+
+	/**
+	 * @return : combo the engine sent
+	 */
+	public int getCombo() {
+		return this.chunk.getInt(this.offset + DatasetFormat.COMBO);
+	}
+
+	/**
+	 * @param feature : CandidateBatch.HEIGHT to CandidateBatch.WELL_SUMS
+	 * @return : the feature of the field after the placement
+	 */
+	public int getFeature(int feature) {
+		return this.chunk.getInt(this.offset + DatasetFormat.FEATURES + 4 * feature);
+	}
+
+	/**
+	 * @return : the score the search gave the placement on its own, without the next piece
+	 */
+	public double score(ScoreFunction scorer) {
+		//todo: remove *2, together with the search
+		return scorer.score(getFeature(CandidateBatch.HEIGHT), getFeature(CandidateBatch.LINES), getCombo() * 2,
+				getFeature(CandidateBatch.ROW_TRANSITIONS), getFeature(CandidateBatch.COLUMN_TRANSITIONS),
+				getFeature(CandidateBatch.HOLES), getFeature(CandidateBatch.WELL_SUMS));
+	}
+
+	public int getBlockRow(int y, int word) {
+		return row(0, y, word);
+	}
+
+	public int getSolidRow(int y, int word) {
+		return row(1, y, word);
+	}
+
+	public int getShapeRow(int y, int word) {
+		return row(2, y, word);
+	}
+
+	private int row(int layer, int y, int word) {
+		int start = this.offset + DatasetFormat.ROWS + (layer * this.height + y) * this.rowBytes;
+		int row = 0;
+		for (int b = 4 * word; b < Math.min(4 * word + 4, this.rowBytes); b++)
+			row |= (this.chunk.get(start + b) & 0xff) << ((b & 3) * 8);
+		return row;
+	}
+
+	/**
+	 * Overwrites a field of the same size with the field of the current record, before the placement
+	 */
+	public void copyTo(PackedField field) {
+		for (int y = 0; y < this.height; y++)
+			for (int word = 0; word < this.words; word++)
+				field.setRow(y, word, getBlockRow(y, word), getSolidRow(y, word), getShapeRow(y, word));
+	}
+
+	public int getWidth() {
+		return this.width;
+	}
+
+	public int getHeight() {
+		return this.height;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.chunk = null;
+		this.channel.close();
+	}
+}
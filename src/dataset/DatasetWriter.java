@@ -0,0 +1,204 @@
+// Copyright 2015 theaigames.com (developers@theaigames.com)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//	
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package dataset;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+
+import field.CandidateBatch;
+import field.Orientation;
+import field.PackedField;
+import field.ShapeType;
+
+/**
+ * DatasetWriter class
+ * 
+ * Appends positions and the placement chosen on them to a binary
+ * dataset, see DatasetFormat. Records are collected in one direct buffer
+ * and written when it is full or on flush, so appending costs the
+ * features of one board and a copy of its rows. An existing file of the
+ * same field size is appended to, an incomplete last record (from a
+ * process that was killed while writing) is cut off first.
+ * 
+ * One writer per file: writers of different processes on the same file
+ * would mix their records. Within a JVM, shared() hands out one writer
+ * per path and append is synchronized.
+ */
+
+public class DatasetWriter implements Closeable {
+
+	private static final int BUFFER_BYTES = 1 << 20;
+	private static final HashMap<String, DatasetWriter> shared = new HashMap<>();
+
+	private final Path path;
+	private final FileChannel channel;
+	private final ByteBuffer buffer;
+	private final int width;
+	private final int height;
+	private final int recordBytes;
+	private final PackedField board;
+	private final int[] features = new int[CandidateBatch.FEATURES];
+	private long records;
+
+	/**
+	 * Opens a dataset for appending, and creates it if it does not exist
+	 * @param path   : dataset file
+	 * @param width  : field width of every record
+	 * @param height : field height of every record
+	 */
+	public DatasetWriter(Path path, int width, int height) throws IOException {
+		this.path = path;
+		this.width = width;
+		this.height = height;
+		this.recordBytes = DatasetFormat.recordBytes(width, height);
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			long size = this.channel.size();
+			if (size == 0) {
+				this.channel.write(DatasetFormat.header(width, height), 0);
+				size = DatasetFormat.HEADER_BYTES;
+			} else {
+				int[] dimensions = DatasetFormat.readHeader(this.channel, path);
+				if (dimensions[0] != width || dimensions[1] != height)
+					throw new IOException(String.format("%s holds %dx%d fields, not %dx%d",
+							path, dimensions[0], dimensions[1], width, height));
+			}
+			this.records = (size - DatasetFormat.HEADER_BYTES) / this.recordBytes;
+			long end = DatasetFormat.HEADER_BYTES + this.records * this.recordBytes;
+			this.channel.truncate(end);
+			this.channel.position(end);
+		} catch (IOException e) {
+			this.channel.close();
+			throw e;
+		}
+		this.buffer = ByteBuffer.allocateDirect(Math.max(BUFFER_BYTES / this.recordBytes, 1) * this.recordBytes)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		this.board = new PackedField(width, height);
+	}
+
+	/**
+	 * @return : the writer of this JVM for the path, opened on first use
+	 */
+	public static DatasetWriter shared(String path, int width, int height) throws IOException {
+		synchronized (shared) {
+			DatasetWriter writer = shared.get(path);
+			if (writer == null) {
+				writer = new DatasetWriter(Paths.get(path), width, height);
+				shared.put(path, writer);
+			} else if (writer.width != width || writer.height != height) {
+				throw new IOException(String.format("%s is open for %dx%d fields, not %dx%d",
+						path, writer.width, writer.height, width, height));
+			}
+			return writer;
+		}
+	}
+
+	/**
+	 * Appends a position and its chosen placement. The features are those
+	 * of the field with the piece dropped in, before its lines are removed,
+	 * the same the search evaluates.
+	 * @param field    : field before the placement, the same size as the dataset
+	 * @param piece    : piece that was placed
+	 * @param spawnX   : x location the piece started at
+	 * @param spawnY   : y location the piece started at
+	 * @param next     : next piece
+	 * @param combo    : combo the engine sent
+	 * @param rotation : right turns of the placement
+	 * @param left     : left moves of the placement, negative for right moves
+	 */
+	public synchronized void append(PackedField field, ShapeType piece, int spawnX, int spawnY, ShapeType next,
+			int combo, int rotation, int left) throws IOException {
+		if (field.getWidth() != this.width || field.getHeight() != this.height)
+			throw new IllegalArgumentException(String.format("%dx%d field in a %dx%d dataset",
+					field.getWidth(), field.getHeight(), this.width, this.height));
+		if (this.buffer.remaining() < this.recordBytes)
+			flushBuffer();
+
+		Orientation o = Orientation.get(piece, rotation);
+		int x = spawnX - left;
+		this.board.copyFrom(field);
+		int y = this.board.drop(o, x, spawnY);
+		this.board.place(o, x, y);
+
+		int[] features = this.features;
+		features[CandidateBatch.HEIGHT] = this.height - y - o.getSize() / 2;
+		features[CandidateBatch.LINES] = this.board.lines();
+		features[CandidateBatch.ROW_TRANSITIONS] = this.board.getRowTransitions();
+		features[CandidateBatch.COLUMN_TRANSITIONS] = this.board.getColumnTransitions();
+		features[CandidateBatch.HOLES] = this.board.getHoles();
+		features[CandidateBatch.WELL_SUMS] = this.board.getWellSums();
+
+		ByteBuffer buffer = this.buffer;
+		buffer.put((byte) piece.ordinal());
+		buffer.put((byte) (next == null ? ShapeType.NONE : next).ordinal());
+		buffer.put((byte) rotation);
+		buffer.put((byte) left);
+		buffer.putInt(combo);
+		for (int feature : features)
+			buffer.putInt(feature);
+		for (int layer = 0; layer < DatasetFormat.LAYERS; layer++)
+			DatasetFormat.putRows(buffer, field, layer);
+		this.records++;
+	}
+
+	/**
+	 * Writes the buffered records, so a reader sees them
+	 */
+	public synchronized void flush() throws IOException {
+		flushBuffer();
+	}
+
+	private void flushBuffer() throws IOException {
+		this.buffer.flip();
+		while (this.buffer.hasRemaining())
+			this.channel.write(this.buffer);
+		this.buffer.clear();
+	}
+
+	/**
+	 * @return : records in the file, including the buffered ones
+	 */
+	public synchronized long getRecords() {
+		return this.records;
+	}
+
+	public Path getPath() {
+		return this.path;
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized (shared) {
+			shared.values().remove(this);
+		}
+		synchronized (this) {
+			try {
+				flushBuffer();
+			} finally {
+				this.channel.close();
+			}
+		}
+	}
+}
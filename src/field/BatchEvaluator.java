@@ -0,0 +1,91 @@
+// Copyright 2015 theaigames.com (developers@theaigames.com)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//	
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package field;
+
+/**
+ * BatchEvaluator class
+ * 
+ * Computes the features and scores of every candidate in a CandidateBatch.
+ * The scores are bit for bit the same as Field.evaluate on each candidate.
+ * getInstance() returns the Vector API implementation when the
+ * jdk.incubator.vector module is available (compile src-vector and run
+ * with --add-modules jdk.incubator.vector, see scripts/build-runtime.sh)
+ * and the scalar one otherwise, or when the system property bot.vector
+ * is set to false. The scalar implementation is all src needs to compile.
+ */
+
+public abstract class BatchEvaluator {
+
+	private static BatchEvaluator instance;
+
+	public static synchronized BatchEvaluator getInstance() {
+		if (instance == null)
+			instance = load();
+		return instance;
+	}
+
+	/**
+	 * The scalar implementation, regardless of what getInstance() picked
+	 */
+	public static BatchEvaluator getScalar() {
+		return new ScalarBatchEvaluator();
+	}
+
+	private static BatchEvaluator load() {
+		if (!Boolean.parseBoolean(System.getProperty("bot.vector", "true")))
+			return new ScalarBatchEvaluator();
+		try {
+			Class<?> vector = Class.forName("field.VectorBatchEvaluator");
+			return (BatchEvaluator) vector.getDeclaredConstructor().newInstance();
+		} catch (Throwable e) {
+			// module not available or not supported by this JVM
+			return new ScalarBatchEvaluator();
+		}
+	}
+
+	/**
+	 * Fills in the features and scores of all candidates in the batch
+	 * @param batch : candidates to evaluate
+	 */
+	public abstract void evaluate(CandidateBatch batch);
+
+	/**
+	 * Fills in only the cheap features of all candidates: lines, row transitions and holes.
+	 * Use CandidateBatch.getBound to rank them and complete() for the survivors.
+	 * @param batch : candidates to evaluate
+	 */
+	public abstract void evaluateCheap(CandidateBatch batch);
+
+	/**
+	 * Adds the expensive features, column transitions and well sums, to one
+	 * candidate after evaluateCheap and computes its score. Features the
+	 * batch's score function does not use are left at 0.
+	 * @param batch : evaluated batch
+	 * @param i     : index of the candidate
+	 */
+	public void complete(CandidateBatch batch, int i) {
+		int c = batch.capacity;
+		batch.features[CandidateBatch.COLUMN_TRANSITIONS * c + i] = batch.scorer.uses(CandidateBatch.COLUMN_TRANSITIONS)
+				? Features.getColumnTransitions(batch.blocks, batch.solids, batch.shapes, i, c, batch.width, batch.height) : 0;
+		batch.features[CandidateBatch.WELL_SUMS * c + i] = batch.scorer.uses(CandidateBatch.WELL_SUMS)
+				? Features.getWellSums(batch.blocks, batch.solids, batch.shapes, i, c, batch.width, batch.height) : 0;
+		batch.score(i, i + 1);
+	}
+
+	public abstract String getName();
+}
@@ -0,0 +1,298 @@
+// Copyright 2015 theaigames.com (developers@theaigames.com)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//	
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package field;
+
+/**
+ * CandidateBatch class
+ * 
+ * All placements of one piece on the same field, stored as a
+ * structure of arrays so they can be evaluated together.
+ * Row y of candidate i is at blocks[y * capacity + i], and the same for
+ * the solid and shape rows. Fields wider than 32 columns have more than
+ * one word per row, word k of row y is at blocks[(k * height + y) * capacity + i]. Features are laid out the same way:
+ * features[feature * capacity + i].
+ */
+
+public class CandidateBatch {
+
+	public static final int HEIGHT = 0;
+	public static final int LINES = 1;
+	public static final int ROW_TRANSITIONS = 2;
+	public static final int COLUMN_TRANSITIONS = 3;
+	public static final int HOLES = 4;
+	public static final int WELL_SUMS = 5;
+	public static final int FEATURES = 6;
+
+	// Capacity is padded to this many lanes so vector loads never leave the arrays
+	static final int LANE_PADDING = 16;
+
+	final int width;
+	final int height;
+	final int words;
+	final int capacity;
+	final int[] blocks;
+	final int[] solids;
+	final int[] shapes;
+	final int[] features;
+	final double[] scores;
+	final ScoreFunction scorer;
+	int count;
+	int combo;
+	private PackedField base;
+
+	// Columns covered by the piece of every candidate
+	private final int[] lowX;
+	private final int[] highX;
+	// Column transitions the piece of every candidate might take away, see prepareBounds
+	private final int[] transitionSlack;
+
+	// Base field numbers behind the stage one bounds
+	private final int[] baseTop;
+	private boolean boundsReady;
+	private int baseColumnTransitions;
+	private final int[] baseWells;
+
+	/**
+	 * @param width    : field width
+	 * @param height   : field height
+	 * @param capacity : maximum number of candidates
+	 */
+	public CandidateBatch(int width, int height, int capacity) {
+		this(width, height, capacity, ScoreFunction.DEFAULT);
+	}
+
+	/**
+	 * @param width    : field width
+	 * @param height   : field height
+	 * @param capacity : maximum number of candidates
+	 * @param scorer   : combines the features into the scores, features it does not use are not computed
+	 */
+	public CandidateBatch(int width, int height, int capacity, ScoreFunction scorer) {
+		this.scorer = scorer;
+		this.width = width;
+		this.height = height;
+		this.words = Features.words(width);
+		this.capacity = (capacity + LANE_PADDING - 1) / LANE_PADDING * LANE_PADDING;
+		this.blocks = new int[this.words * height * this.capacity];
+		this.solids = new int[this.words * height * this.capacity];
+		this.shapes = new int[this.words * height * this.capacity];
+		this.features = new int[FEATURES * this.capacity];
+		this.scores = new double[this.capacity];
+		this.lowX = new int[this.capacity];
+		this.highX = new int[this.capacity];
+		this.transitionSlack = new int[this.capacity];
+		this.baseTop = new int[width];
+		this.baseWells = new int[width + 1];
+	}
+
+	/**
+	 * Empties the batch for the placements of a new piece
+	 * @param base  : field the pieces are placed on
+	 * @param combo : combo value passed to the evaluation
+	 */
+	public void reset(PackedField base, int combo) {
+		this.base = base;
+		this.combo = combo;
+		this.count = 0;
+		this.boundsReady = false;
+
+		// Highest block or solid cell of every column
+		System.arraycopy(base.getTops(), 0, this.baseTop, 0, this.width);
+	}
+
+	/**
+	 * Computes what getBound needs from the base field. Turning a cell into a
+	 * block can take away at most 2 column transitions, and only when there
+	 * is a block above it: a piece that came down from the top of a column
+	 * never lowers its transitions. Wells more than one column away from the
+	 * piece stay as they are.
+	 */
+	void prepareBounds() {
+		if (this.boundsReady)
+			return;
+		int[] blocks = this.base.blockRows();
+		int[] solids = this.base.solidRows();
+		int[] shapes = this.base.shapeRows();
+		this.baseColumnTransitions = Features.getColumnTransitions(blocks, solids, shapes, 0, 1, this.width, this.height);
+
+		// Prefix sums of the well sums per column
+		int[] columns = new int[this.width];
+		Features.getColumnWellSums(blocks, solids, shapes, 0, 1, this.width, this.height, columns);
+		this.baseWells[0] = 0;
+		for (int x = 0; x < this.width; x++)
+			this.baseWells[x + 1] = this.baseWells[x] + columns[x];
+		this.boundsReady = true;
+	}
+
+	/**
+	 * Adds the base field with the piece locked in place, like Field.addPiece
+	 * @param piece : dropped piece
+	 * @return : index of the candidate
+	 */
+	public int add(Shape piece) {
+		int i = this.count++;
+		int[] baseBlocks = this.base.blockRows();
+		int[] baseSolids = this.base.solidRows();
+		int[] baseShapes = this.base.shapeRows();
+		for (int y = 0, j = i; y < this.words * this.height; y++, j += this.capacity) {
+			this.blocks[j] = baseBlocks[y];
+			this.solids[j] = baseSolids[y];
+			this.shapes[j] = baseShapes[y];
+		}
+		this.lowX[i] = this.width;
+		this.highX[i] = -1;
+		this.transitionSlack[i] = 0;
+		for (Cell single : piece.getBlocks()) {
+			int x = single.getX();
+			int y = single.getY();
+			this.lowX[i] = Math.min(this.lowX[i], x);
+			this.highX[i] = Math.max(this.highX[i], x);
+			if (x < 0 || x >= this.width || y < 0 || y >= this.height)
+				continue;
+			if (this.baseTop[x] < y)
+				this.transitionSlack[i] += 2;
+			int j = ((x >>> 5) * this.height + y) * this.capacity + i;
+			this.blocks[j] |= 1 << x;
+			this.solids[j] &= ~(1 << x);
+			this.shapes[j] &= ~(1 << x);
+		}
+		this.features[HEIGHT * this.capacity + i] = this.height - piece.getY() - piece.getSize() / 2;
+		return i;
+	}
+
+	/**
+	 * Adds the base field with a piece in the given orientation locked at (x, y)
+	 * @return : index of the candidate
+	 */
+	public int add(Orientation o, int x, int y) {
+		int i = this.count++;
+		int[] baseBlocks = this.base.blockRows();
+		int[] baseSolids = this.base.solidRows();
+		int[] baseShapes = this.base.shapeRows();
+		for (int row = 0, j = i; row < this.words * this.height; row++, j += this.capacity) {
+			this.blocks[j] = baseBlocks[row];
+			this.solids[j] = baseSolids[row];
+			this.shapes[j] = baseShapes[row];
+		}
+		this.lowX[i] = x + o.getMinDx();
+		this.highX[i] = x + o.getMaxDx();
+		this.transitionSlack[i] = 0;
+		for (int c = 0; c < o.getCells(); c++) {
+			int cx = x + o.getDx(c);
+			int cy = y + o.getDy(c);
+			if (cx < 0 || cx >= this.width || cy < 0 || cy >= this.height)
+				continue;
+			if (this.baseTop[cx] < cy)
+				this.transitionSlack[i] += 2;
+			int j = ((cx >>> 5) * this.height + cy) * this.capacity + i;
+			this.blocks[j] |= 1 << cx;
+			this.solids[j] &= ~(1 << cx);
+			this.shapes[j] &= ~(1 << cx);
+		}
+		this.features[HEIGHT * this.capacity + i] = this.height - y - o.getSize() / 2;
+		return i;
+	}
+
+	/**
+	 * Overwrites a field with the board of a candidate
+	 * @param i      : index of the candidate
+	 * @param target : field of the same size
+	 */
+	public void copyTo(int i, PackedField target) {
+		int[] targetBlocks = target.blockRows();
+		int[] targetSolids = target.solidRows();
+		int[] targetShapes = target.shapeRows();
+		for (int y = 0, j = i; y < this.words * this.height; y++, j += this.capacity) {
+			targetBlocks[y] = this.blocks[j];
+			targetSolids[y] = this.solids[j];
+			targetShapes[y] = this.shapes[j];
+		}
+		target.rowsChanged();
+	}
+
+	/**
+	 * Combines the computed features of candidates [from, to) into their scores
+	 */
+	void score(int from, int to) {
+		int c = this.capacity;
+		for (int i = from; i < to; i++) {
+			this.scores[i] = this.scorer.score(this.features[HEIGHT * c + i], this.features[LINES * c + i], this.combo,
+					this.features[ROW_TRANSITIONS * c + i], this.features[COLUMN_TRANSITIONS * c + i],
+					this.features[HOLES * c + i], this.features[WELL_SUMS * c + i]);
+		}
+	}
+
+	public int size() {
+		return this.count;
+	}
+
+	public int getCapacity() {
+		return this.capacity;
+	}
+
+	public int getCombo() {
+		return this.combo;
+	}
+
+	public ScoreFunction getScoreFunction() {
+		return this.scorer;
+	}
+
+	public double getScore(int i) {
+		return this.scores[i];
+	}
+
+	/**
+	 * Score of the board of candidate i for a piece whose location gives another height term,
+	 * like a different rotation landing on the same cells
+	 */
+	public double getScore(int i, int heightTerm) {
+		int c = this.capacity;
+		return this.scorer.score(heightTerm, this.features[LINES * c + i], this.combo,
+				this.features[ROW_TRANSITIONS * c + i], this.features[COLUMN_TRANSITIONS * c + i],
+				this.features[HOLES * c + i], this.features[WELL_SUMS * c + i]);
+	}
+
+	/**
+	 * Upper bound of the score after stage one: the cheap features with lower
+	 * bounds of the expensive ones from the base field. The expensive features
+	 * only have negative weights, so the score never exceeds it; with weights
+	 * where they do not, there is no bound and every candidate passes.
+	 * @param i          : index of the candidate
+	 * @param heightTerm : landing height term of the piece
+	 */
+	public double getBound(int i, int heightTerm) {
+		if (!this.scorer.getWeights().hasBounds())
+			return Double.POSITIVE_INFINITY;
+		int c = this.capacity;
+		int columnTransitions = Math.max(0, this.baseColumnTransitions - this.transitionSlack[i]);
+		int low = Math.max(0, this.lowX[i] - 1);
+		int high = Math.min(this.width - 1, this.highX[i] + 1);
+		int wells = this.baseWells[this.width] - (this.baseWells[high + 1] - this.baseWells[low]);
+		return this.scorer.score(heightTerm, this.features[LINES * c + i], this.combo,
+				this.features[ROW_TRANSITIONS * c + i], columnTransitions, this.features[HOLES * c + i], wells);
+	}
+
+	public double getBound(int i) {
+		return getBound(i, this.features[HEIGHT * this.capacity + i]);
+	}
+
+	public int getFeature(int feature, int i) {
+		return this.features[feature * this.capacity + i];
+	}
+}
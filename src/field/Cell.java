@@ -17,8 +17,6 @@
 
 package field;
 
-import java.awt.Point;
-
 import field.CellType;
 
 /**
@@ -32,33 +30,34 @@ import field.CellType;
 
 public class Cell {
 
-	private Point location;
+	private int x;
+	private int y;
 	private CellType state;
 	
 	public Cell() {
-		this.location = null;
 		this.state = CellType.EMPTY;
 	}
 
 	public Cell(int x, int y, CellType type) {
-		this.location = new Point(x, y);
+		this.x = x;
+		this.y = y;
 		this.state = type;
 	}
 	
 	public boolean isOutOfBoundaries(Field f) {
-		if(this.location.x >= f.getWidth() || this.location.x < 0 || this.location.y >= f.getHeight()) 
+		if(this.x >= f.getWidth() || this.x < 0 || this.y >= f.getHeight()) 
 			return true;
 		return false;
 	}
 
 	public boolean isOutOfBoundariesTop(Field f) {
-		if(this.location.x >= f.getWidth() || this.location.x < 0 || this.location.y >= f.getHeight() || this.location.y < 0)
+		if(this.x >= f.getWidth() || this.x < 0 || this.y >= f.getHeight() || this.y < 0)
 			return true;
 		return false;
 	}
 
 	public boolean hasCollision(Field f) {
-		Cell cell = f.getCell(this.location.x, this.location.y);
+		Cell cell = f.getCell(this.x, this.y);
 		if(cell == null)
 			return false;
 
@@ -69,12 +68,11 @@ public class Cell {
 	public void setBlock() {this.state = CellType.BLOCK;}
 	public void setEmpty() {this.state = CellType.EMPTY;}
 	public void setSolid() {this.state = CellType.SOLID;}
+	public void setState(CellType state) {this.state = state;}
 
 	public void setLocation(int x, int y) {
-		if(this.location == null)
-			this.location = new Point();
-		
-		this.location.setLocation(x, y);
+		this.x = x;
+		this.y = y;
 	}
 	
 	public boolean isShape() {
@@ -97,7 +95,11 @@ public class Cell {
 		return this.state;
 	}
 	
-	public Point getLocation() {
-		return this.location;
+	public int getX() {
+		return this.x;
+	}
+
+	public int getY() {
+		return this.y;
 	}
 }
@@ -0,0 +1,57 @@
+// Copyright 2015 theaigames.com (developers@theaigames.com)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//	
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package field;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+
+/**
+ * CompiledScore class
+ * 
+ * Template of the classes made by ScoreCompiler. It is never loaded as it
+ * is: every weight vector defines a hidden class from these bytes, whose
+ * class data is the score handle of that vector. The handle is a static
+ * final constant, so the JIT inlines it with its weights as constants.
+ */
+
+final class CompiledScore extends ScoreFunction {
+
+	private static final MethodHandle SCORE;
+
+	static {
+		try {
+			SCORE = MethodHandles.classData(MethodHandles.lookup(), "_", MethodHandle.class);
+		} catch (IllegalAccessException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	CompiledScore(Weights weights) {
+		super(weights);
+	}
+
+	@Override
+	public double score(int heightTerm, int lines, int combo, int rowTransitions,
+			int columnTransitions, int holes, int wellSums) {
+		try {
+			return (double) SCORE.invokeExact(heightTerm, lines, combo, rowTransitions, columnTransitions, holes, wellSums);
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
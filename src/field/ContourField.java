@@ -0,0 +1,409 @@
+// Copyright 2015 theaigames.com (developers@theaigames.com)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//	
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package field;
+
+/**
+ * ContourField class
+ * 
+ * Reduced model of a field for the deep plies of a search, where copying
+ * and evaluating whole boards costs more than the accuracy is worth.
+ * Every column is kept as four bytes: its height, the holes under its
+ * top, the filled cells from its top down to the first hole and the
+ * number of separate hole runs. Solid rows are a floor under all columns.
+ * 
+ * Where the cells are is read from those bytes as if every column had
+ * its holes in one run right below the filled top part, on top of a
+ * filled lower part: filled rows [floor, lo), holes [lo, hi), filled
+ * rows [hi, height), see lo() and hi(). Line clears and the features of
+ * evaluate() are computed on that layout, which is exact for columns
+ * with at most one run of holes. Pieces only land on the surface (no
+ * tucks under overhangs), and when a clear uncovers a hole run of a
+ * column with several runs its length is taken as their mean.
+ */
+
+public class ContourField {
+
+	private final int width;
+	private final int height;
+	private final byte[] heights; // filled rows up to the highest cell, from the bottom of the field
+	private final byte[] holes;   // empty cells below the highest cell
+	private final byte[] depth;   // filled cells from the highest cell down to the first hole or the floor
+	private final byte[] runs;    // runs of holes, one column transition in and one out each
+	private int floor;            // solid rows
+
+	public ContourField(int width, int height) {
+		if (height > Byte.MAX_VALUE)
+			throw new IllegalArgumentException("field too high for a contour: " + height);
+		this.width = width;
+		this.height = height;
+		this.heights = new byte[width];
+		this.holes = new byte[width];
+		this.depth = new byte[width];
+		this.runs = new byte[width];
+	}
+
+	public ContourField(PackedField field) {
+		this(field.getWidth(), field.getHeight());
+		copyFrom(field);
+	}
+
+	/**
+	 * Reduces a full field to its contour. Shape cells are ignored.
+	 */
+	public void copyFrom(PackedField field) {
+		int[] tops = field.getTops();
+		this.floor = 0;
+		for (int y = this.height - 1; y >= 0 && field.getSolidRow(y, 0) != 0; y--)
+			this.floor++;
+		for (int x = 0; x < this.width; x++) {
+			int word = x >>> 5;
+			int bit = x & 31;
+			int holes = 0, depth = 0, runs = 0;
+			boolean clean = true, inHole = false;
+			for (int y = tops[x]; y < this.height - this.floor; y++) {
+				boolean filled = ((field.getBlockRow(y, word) >>> bit) & 1) != 0;
+				if (filled) {
+					if (clean)
+						depth++;
+					inHole = false;
+				} else {
+					holes++;
+					if (!inHole)
+						runs++;
+					clean = false;
+					inHole = true;
+				}
+			}
+			this.heights[x] = (byte) Math.max(this.height - tops[x], this.floor);
+			this.holes[x] = (byte) holes;
+			this.depth[x] = (byte) depth;
+			this.runs[x] = (byte) runs;
+		}
+	}
+
+	public void copyFrom(ContourField other) {
+		System.arraycopy(other.heights, 0, this.heights, 0, this.width);
+		System.arraycopy(other.holes, 0, this.holes, 0, this.width);
+		System.arraycopy(other.depth, 0, this.depth, 0, this.width);
+		System.arraycopy(other.runs, 0, this.runs, 0, this.width);
+		this.floor = other.floor;
+	}
+
+	/**
+	 * Drops a piece straight down onto the surface
+	 * @param x : column of the piece, as in PackedField.drop
+	 * @return : the row the piece lands on, in the rows of PackedField
+	 */
+	public int drop(Orientation o, int x) {
+		int landing = Integer.MAX_VALUE;
+		for (int dx = o.getMinDx(); dx <= o.getMaxDx(); dx++) {
+			int bottom = o.getBottom(dx);
+			if (bottom >= 0)
+				landing = Math.min(landing, this.height - this.heights[x + dx] - 1 - bottom);
+		}
+		return landing;
+	}
+
+	/**
+	 * Adds a piece that landed on row y and clears the rows it completed
+	 * @return : number of rows cleared
+	 */
+	public int place(Orientation o, int x, int y) {
+		for (int dx = o.getMinDx(); dx <= o.getMaxDx(); dx++) {
+			int bottom = o.getBottom(dx);
+			if (bottom < 0)
+				continue;
+			int top = bottom;
+			while (top > 0 && ((o.getRow(top - 1) >>> dx) & 1) != 0)
+				top--;
+			int c = x + dx;
+			int gap = this.height - 1 - (y + bottom) - this.heights[c];
+			if (gap > 0) {
+				this.holes[c] += gap;
+				this.runs[c]++;
+				this.depth[c] = (byte) (bottom - top + 1);
+			} else {
+				this.depth[c] += bottom - top + 1;
+			}
+			this.heights[c] = (byte) (this.height - y - top);
+		}
+
+		// Only the rows of the piece can have become full, upper rows first so the lower ones keep their index
+		int cleared = 0;
+		for (int dy = o.getMinDy(); dy <= o.getMaxDy(); dy++) {
+			int row = this.height - 1 - (y + dy);
+			if (isFull(row)) {
+				removeRow(row);
+				cleared++;
+			}
+		}
+		return cleared;
+	}
+
+	private boolean isFull(int row) {
+		for (int x = 0; x < this.width; x++)
+			if (row >= this.heights[x] || (row >= lo(x) && row < hi(x)))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Removes a full row, from the filled top or lower part of every column
+	 */
+	private void removeRow(int row) {
+		for (int x = 0; x < this.width; x++) {
+			boolean top = row >= hi(x);
+			this.heights[x]--;
+			if (!top)
+				continue;
+			this.depth[x]--;
+			if (this.depth[x] > 0 || this.runs[x] == 0)
+				continue;
+			// The run under the removed cells is open now
+			int run = this.holes[x] / this.runs[x];
+			this.heights[x] -= run;
+			this.holes[x] -= run;
+			this.runs[x]--;
+			this.depth[x] = (byte) (this.runs[x] == 0 ? this.heights[x] - this.floor : 1);
+		}
+	}
+
+	/**
+	 * @return : lowest hole row of a column, counted from the bottom of the field
+	 */
+	private int lo(int x) {
+		return this.heights[x] - this.depth[x] - this.holes[x];
+	}
+
+	/**
+	 * @return : the row above the highest hole of a column, counted from the bottom of the field
+	 */
+	private int hi(int x) {
+		return this.heights[x] - this.depth[x];
+	}
+
+	/**
+	 * Scores the field after place(), in the same terms as PackedField.evaluate
+	 * @param o     : the piece that was placed
+	 * @param y     : the row it landed on
+	 * @param lines : rows place() cleared
+	 * @param combo : combo value the lines are multiplied with
+	 */
+	public double evaluate(Orientation o, int y, int lines, int combo, ScoreFunction scorer) {
+		return scorer.score(this.height - y - o.getSize() / 2, lines, combo, getRowTransitions() + lines,
+				getColumnTransitions(), getHoles(), getWellSums());
+	}
+
+	/**
+	 * Best score of a piece over every surface landing that stays inside the
+	 * field. A landing without a clear only changes the features next to the
+	 * columns of the piece, so only those are computed again.
+	 * @param scratch : receives the fields after each landing
+	 * @return : the best score, negative infinity when the piece has no landing
+	 */
+	public double best(ShapeType type, int combo, ScoreFunction scorer, ContourField scratch) {
+		int last = this.width - 1;
+		int rowTransitions = rowTransitions(0, last);
+		int columnTransitions = columnTransitions(0, last);
+		int holes = holes(0, last);
+		int wellSums = wellSums(0, last);
+		double best = Double.NEGATIVE_INFINITY;
+		for (Orientation o : Orientation.getDistinct(type)) {
+			for (int x = -o.getMinDx(); x + o.getMaxDx() < this.width; x++) {
+				int y = drop(o, x);
+				if (y + o.getMinDy() < 0)
+					continue;
+				scratch.copyFrom(this);
+				int lines = scratch.place(o, x, y);
+				if (lines > 0) {
+					best = Math.max(best, scratch.evaluate(o, y, lines, combo, scorer));
+					continue;
+				}
+				int from = x + o.getMinDx();
+				int to = x + o.getMaxDx();
+				best = Math.max(best, scorer.score(this.height - y - o.getSize() / 2, 0, combo,
+						rowTransitions - rowTransitions(from, to) + scratch.rowTransitions(from, to),
+						columnTransitions - columnTransitions(from, to) + scratch.columnTransitions(from, to),
+						holes - holes(from, to) + scratch.holes(from, to),
+						wellSums - wellSums(from, to) + scratch.wellSums(from, to)));
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Rows where exactly one of two neighbouring columns is filled, and the
+	 * filled cells of the last column against the right wall. Full rows,
+	 * which are already cleared, are added by evaluate().
+	 */
+	public int getRowTransitions() {
+		return rowTransitions(0, this.width - 1);
+	}
+
+	/**
+	 * The top of every column that has cells, and both ends of every hole
+	 * run except the lower end of a run on the bottom of the field
+	 */
+	public int getColumnTransitions() {
+		return columnTransitions(0, this.width - 1);
+	}
+
+	public int getHoles() {
+		return holes(0, this.width - 1);
+	}
+
+	/**
+	 * Empty cells next to filled cells on both sides, or on the inner side
+	 * in the outer columns, each counted with the empty cells below it as
+	 * in Features.getWellSums
+	 */
+	public int getWellSums() {
+		return wellSums(0, this.width - 1);
+	}
+
+	/**
+	 * The features below count the part that depends on columns from to to,
+	 * so a change to those columns changes the features by the difference.
+	 */
+	private int rowTransitions(int from, int to) {
+		int last = this.width - 1;
+		int transitions = to == last ? filled(last) : 0;
+		for (int x = Math.max(from, 1); x <= Math.min(to + 1, last); x++) {
+			if ((this.holes[x - 1] | this.holes[x]) == 0)
+				transitions += Math.abs(this.heights[x] - this.heights[x - 1]);
+			else
+				transitions += filled(x - 1) + filled(x) - 2 * common(x - 1, x);
+		}
+		return transitions;
+	}
+
+	private int columnTransitions(int from, int to) {
+		int transitions = 0;
+		for (int x = from; x <= to; x++) {
+			if (this.heights[x] > this.floor)
+				transitions++;
+			transitions += 2 * this.runs[x];
+			if (this.runs[x] > 0 && lo(x) == 0)
+				transitions--;
+		}
+		return transitions;
+	}
+
+	private int holes(int from, int to) {
+		int count = 0;
+		for (int x = from; x <= to; x++)
+			count += this.holes[x];
+		return count;
+	}
+
+	private int wellSums(int from, int to) {
+		if (this.width < 2)
+			return 0;
+		int wells = 0;
+		for (int x = Math.max(from - 1, 0); x <= Math.min(to + 1, this.width - 1); x++) {
+			int top = this.heights[x];
+			// The rows both neighbours fill, the outer columns only have the inner one
+			int a = x == 0 ? x + 1 : x - 1;
+			int b = x == this.width - 1 ? x - 1 : x + 1;
+			if ((this.holes[x] | this.holes[a] | this.holes[b]) == 0) {
+				int d = Math.min(this.heights[a], this.heights[b]) - top;
+				if (d > 0)
+					wells += d * (d + 1) / 2;
+				continue;
+			}
+			int lo = lo(x), hi = hi(x);
+			// Outer columns also count the holes below a cell of the top part
+			int below = x == 0 || x == this.width - 1 ? this.holes[x] : 0;
+			for (int i = 0; i < 2; i++)
+				for (int j = 0; j < 2; j++) {
+					int start = Math.max(partFrom(a, i), partFrom(b, j));
+					int end = Math.min(partTo(a, i), partTo(b, j));
+					wells += wellCells(Math.max(start, lo), Math.min(end, hi), lo, 0)
+							+ wellCells(Math.max(start, top), end, top, below);
+				}
+		}
+		return wells;
+	}
+
+	/**
+	 * @return : sum of 1 + extra + r - base over the rows r in [from, to)
+	 */
+	private static int wellCells(int from, int to, int base, int extra) {
+		int n = to - from;
+		return n <= 0 ? 0 : n * (1 + extra - base) + (from + to - 1) * n / 2;
+	}
+
+	/**
+	 * @param part : 0 for the filled lower part of a column, 1 for the filled top part
+	 * @return : lowest row of the part
+	 */
+	private int partFrom(int x, int part) {
+		return part == 0 ? this.floor : hi(x);
+	}
+
+	/**
+	 * @return : the row above the part, see partFrom
+	 */
+	private int partTo(int x, int part) {
+		return part == 0 ? lo(x) : this.heights[x];
+	}
+
+	/**
+	 * @return : filled cells of a column above the floor
+	 */
+	private int filled(int x) {
+		return this.heights[x] - this.floor - this.holes[x];
+	}
+
+	/**
+	 * @return : rows above the floor where both columns are filled
+	 */
+	private int common(int a, int b) {
+		int common = 0;
+		for (int i = 0; i < 2; i++)
+			for (int j = 0; j < 2; j++)
+				common += Math.max(0, Math.min(partTo(a, i), partTo(b, j)) - Math.max(partFrom(a, i), partFrom(b, j)));
+		return common;
+	}
+
+	/**
+	 * @return : filled rows of a column up to its highest cell, solid rows included
+	 */
+	public int getColumnHeight(int x) {
+		return this.heights[x];
+	}
+
+	/**
+	 * @return : holes of a column
+	 */
+	public int getColumnHoles(int x) {
+		return this.holes[x];
+	}
+
+	public int getFloor() {
+		return this.floor;
+	}
+
+	public int getHeight() {
+		return this.height;
+	}
+
+	public int getWidth() {
+		return this.width;
+	}
+}
@@ -0,0 +1,347 @@
+// Copyright 2015 theaigames.com (developers@theaigames.com)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//	
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package field;
+
+/**
+ * Features class
+ * 
+ * Scalar versions of the evaluation features on packed rows, where bit x
+ * of a row is the cell in column x. Every method reads row y at
+ * [offset + y * stride], so it works both on a single PackedField
+ * (stride 1) and on one column of a CandidateBatch. The results are the
+ * same as the Field methods with the same name.
+ * 
+ * Fields wider than 32 columns store every row as several 32 column
+ * words. Word k of all rows comes after word k - 1 of all rows, at
+ * [offset + (k * height + y) * stride], so each word is laid out like a
+ * narrow field of its own. The methods pick the wide versions from the
+ * width they are given.
+ * 
+ * All evaluators must combine the features through score() so that their
+ * results stay identical to Field.evaluate.
+ */
+
+public final class Features {
+
+	public static final double HEIGHT_WEIGHT = -4.500158825082766;
+	public static final double LINES_WEIGHT = 4.4181268101392694;
+	public static final double ROW_TRANSITIONS_WEIGHT = -3.2178882868487753;
+	public static final double COLUMN_TRANSITIONS_WEIGHT = -9.348695305445199;
+	public static final double HOLES_WEIGHT = -7.899265427351652;
+	public static final double WELL_SUMS_WEIGHT = -3.3855972247263626;
+
+	private Features() {}
+
+	/**
+	 * @param heightTerm        : field height minus the landing row and half the piece size
+	 * @param lines             : number of full rows
+	 * @param combo             : combo value the lines are multiplied with
+	 * @param rowTransitions    : see getRowTransitions
+	 * @param columnTransitions : see getColumnTransitions
+	 * @param holes             : see getHoles
+	 * @param wellSums          : see getWellSums
+	 * @return : weighted score of the features
+	 */
+	public static double score(int heightTerm, int lines, int combo, int rowTransitions,
+			int columnTransitions, int holes, int wellSums) {
+		return heightTerm * HEIGHT_WEIGHT
+				+ lines * combo * LINES_WEIGHT
+				+ rowTransitions * ROW_TRANSITIONS_WEIGHT
+				+ columnTransitions * COLUMN_TRANSITIONS_WEIGHT
+				+ holes * HOLES_WEIGHT
+				+ wellSums * WELL_SUMS_WEIGHT;
+	}
+
+	static int fullRow(int width) {
+		return width >= 32 ? -1 : (1 << width) - 1;
+	}
+
+	/**
+	 * @return : number of 32 column words in a row
+	 */
+	static int words(int width) {
+		return (width + 31) >>> 5;
+	}
+
+	/**
+	 * @return : columns of the field in word k of a row
+	 */
+	private static int wordWidth(int width, int k) {
+		return Math.min(32, width - 32 * k);
+	}
+
+	/**
+	 * Rows made only of block and shape cells
+	 */
+	static int lines(int[] blocks, int[] shapes, int offset, int stride, int width, int height) {
+		if (width > 32)
+			return wideLines(blocks, shapes, offset, stride, width, height);
+		int full = fullRow(width);
+		int count = 0;
+		for (int y = 0, j = offset; y < height; y++, j += stride)
+			if ((blocks[j] | shapes[j]) == full)
+				count++;
+		return count;
+	}
+
+	/**
+	 * Empty/block changes from the left of every row, up to the first solid or shape cell.
+	 * A block in the last column counts as a transition into the right wall.
+	 */
+	static int getRowTransitions(int[] blocks, int[] solids, int[] shapes, int offset, int stride, int width, int height) {
+		if (width > 32)
+			return wideRowTransitions(blocks, solids, shapes, offset, stride, width, height);
+		int full = fullRow(width);
+		int transitions = 0;
+		for (int y = 0, j = offset; y < height; y++, j += stride) {
+			int stop = solids[j] | shapes[j];
+			int empty = full & ~(blocks[j] | stop);
+			int reach = stop == 0 ? width : Integer.numberOfTrailingZeros(stop);
+			int inside = (reach >= 32 ? -1 : (1 << reach) - 1) & ~1;
+			transitions += Integer.bitCount((empty ^ (empty << 1)) & inside);
+			if (reach == width)
+				transitions += (blocks[j] >>> (width - 1)) & 1;
+		}
+		return transitions;
+	}
+
+	/**
+	 * Empty/block changes from the top of every column, skipping shape cells and
+	 * stopping at the first solid cell
+	 */
+	static int getColumnTransitions(int[] blocks, int[] solids, int[] shapes, int offset, int stride, int width, int height) {
+		if (width > 32) {
+			// Columns do not depend on each other, so every word is a field of its own
+			int transitions = 0;
+			for (int k = 0; k < words(width); k++)
+				transitions += getColumnTransitions(blocks, solids, shapes, offset + k * height * stride, stride, wordWidth(width, k), height);
+			return transitions;
+		}
+		int full = fullRow(width);
+		int transitions = 0;
+		int lastEmpty = full;
+		int alive = full;
+		for (int y = 0, j = offset; y < height; y++, j += stride) {
+			alive &= ~solids[j];
+			int empty = full & ~(blocks[j] | solids[j] | shapes[j]);
+			int changes = (empty ^ lastEmpty) & alive & ~shapes[j];
+			transitions += Integer.bitCount(changes);
+			lastEmpty ^= changes;
+		}
+		return transitions;
+	}
+
+	/**
+	 * Empty cells below a block cell of the same column
+	 */
+	static int getHoles(int[] blocks, int[] solids, int[] shapes, int offset, int stride, int width, int height) {
+		if (width > 32) {
+			int count = 0;
+			for (int k = 0; k < words(width); k++)
+				count += getHoles(blocks, solids, shapes, offset + k * height * stride, stride, wordWidth(width, k), height);
+			return count;
+		}
+		int full = fullRow(width);
+		int count = 0;
+		int covered = 0;
+		for (int y = 0, j = offset; y < height; y++, j += stride) {
+			count += Integer.bitCount(full & ~(blocks[j] | solids[j] | shapes[j]) & covered);
+			covered |= blocks[j];
+		}
+		return count;
+	}
+
+	/**
+	 * Sum of the well depths as computed by Field.getWellSums, including its
+	 * counting of every empty cell below a well in the outer columns
+	 */
+	static int getWellSums(int[] blocks, int[] solids, int[] shapes, int offset, int stride, int width, int height) {
+		if (width > 32)
+			return wideWellSums(blocks, solids, shapes, offset, stride, width, height, null);
+		int full = fullRow(width);
+		int inner = full & ~1 & ~(1 << (width - 1));
+		int wells = 0;
+		for (int y = 0, j = offset; y < height; y++, j += stride) {
+			int block = blocks[j];
+			int well = full & ~(block | solids[j] | shapes[j]) & (block << 1) & (block >>> 1) & inner;
+			wells += Integer.bitCount(well);
+			for (int k = j + stride; well != 0 && k < offset + height * stride; k += stride) {
+				well &= full & ~(blocks[k] | solids[k] | shapes[k]);
+				wells += Integer.bitCount(well);
+			}
+		}
+
+		int emptyLeft = 0;
+		int emptyRight = 0;
+		for (int y = height - 1, j = offset + y * stride; y >= 0; y--, j -= stride) {
+			int block = blocks[j];
+			int empty = full & ~(block | solids[j] | shapes[j]);
+			if ((empty & 1) != 0 && ((block >>> 1) & 1) != 0)
+				wells += 1 + emptyLeft;
+			if (((empty >>> (width - 1)) & 1) != 0 && ((block >>> (width - 2)) & 1) != 0)
+				wells += 1 + emptyRight;
+			emptyLeft += empty & 1;
+			emptyRight += (empty >>> (width - 1)) & 1;
+		}
+		return wells;
+	}
+
+	/**
+	 * getWellSums split by the column the wells are in
+	 * @param wells : receives the well sum of every column
+	 */
+	static void getColumnWellSums(int[] blocks, int[] solids, int[] shapes, int offset, int stride, int width, int height, int[] wells) {
+		if (width > 32) {
+			for (int x = 0; x < width; x++)
+				wells[x] = 0;
+			wideWellSums(blocks, solids, shapes, offset, stride, width, height, wells);
+			return;
+		}
+		int full = fullRow(width);
+		int inner = full & ~1 & ~(1 << (width - 1));
+		for (int x = 0; x < width; x++)
+			wells[x] = 0;
+		for (int y = 0, j = offset; y < height; y++, j += stride) {
+			int block = blocks[j];
+			int well = full & ~(block | solids[j] | shapes[j]) & (block << 1) & (block >>> 1) & inner;
+			for (int k = j; well != 0 && k < offset + height * stride; k += stride) {
+				if (k != j)
+					well &= full & ~(blocks[k] | solids[k] | shapes[k]);
+				for (int bits = well; bits != 0; bits &= bits - 1)
+					wells[Integer.numberOfTrailingZeros(bits)]++;
+			}
+		}
+
+		int emptyLeft = 0;
+		int emptyRight = 0;
+		for (int y = height - 1, j = offset + y * stride; y >= 0; y--, j -= stride) {
+			int block = blocks[j];
+			int empty = full & ~(block | solids[j] | shapes[j]);
+			if ((empty & 1) != 0 && ((block >>> 1) & 1) != 0)
+				wells[0] += 1 + emptyLeft;
+			if (((empty >>> (width - 1)) & 1) != 0 && ((block >>> (width - 2)) & 1) != 0)
+				wells[width - 1] += 1 + emptyRight;
+			emptyLeft += empty & 1;
+			emptyRight += (empty >>> (width - 1)) & 1;
+		}
+	}
+	private static int wideLines(int[] blocks, int[] shapes, int offset, int stride, int width, int height) {
+		int words = words(width);
+		int plane = height * stride;
+		int count = 0;
+		for (int y = 0, j = offset; y < height; y++, j += stride) {
+			boolean full = true;
+			for (int k = 0, i = j; k < words && full; k++, i += plane)
+				full = (blocks[i] | shapes[i]) == fullRow(wordWidth(width, k));
+			if (full)
+				count++;
+		}
+		return count;
+	}
+
+	private static int wideRowTransitions(int[] blocks, int[] solids, int[] shapes, int offset, int stride, int width, int height) {
+		int words = words(width);
+		int plane = height * stride;
+		int transitions = 0;
+		for (int y = 0, j = offset; y < height; y++, j += stride) {
+			int reach = width;
+			for (int k = 0, i = j; k < words; k++, i += plane) {
+				int stop = solids[i] | shapes[i];
+				if (stop != 0) {
+					reach = 32 * k + Integer.numberOfTrailingZeros(stop);
+					break;
+				}
+			}
+
+			// Changes between column x - 1 and x, the first column of a word compares with the last one of the word before
+			int carry = 0;
+			for (int k = 0, i = j; k < words && 32 * k < reach; k++, i += plane) {
+				int empty = fullRow(wordWidth(width, k)) & ~(blocks[i] | solids[i] | shapes[i]);
+				int inside = fullRow(reach - 32 * k) & (k == 0 ? ~1 : -1);
+				transitions += Integer.bitCount((empty ^ ((empty << 1) | carry)) & inside);
+				carry = empty >>> 31;
+			}
+			if (reach == width)
+				transitions += cell(blocks, offset, stride, height, width - 1, y);
+		}
+		return transitions;
+	}
+
+	/**
+	 * @param wells : adds the well sum of every column to it, can be null
+	 * @return : the well sum of the field
+	 */
+	private static int wideWellSums(int[] blocks, int[] solids, int[] shapes, int offset, int stride, int width, int height, int[] wells) {
+		int words = words(width);
+		int plane = height * stride;
+		int sum = 0;
+		for (int k = 0; k < words; k++) {
+			int full = fullRow(wordWidth(width, k));
+			int inner = full;
+			if (k == 0)
+				inner &= ~1;
+			if (k == words - 1)
+				inner &= ~(1 << (width - 1));
+			int end = offset + k * plane + height * stride;
+			for (int y = 0, j = offset + k * plane; y < height; y++, j += stride) {
+				int block = blocks[j];
+				// Neighbours across the word boundaries come from the words before and after
+				int left = (block << 1) | (k > 0 ? blocks[j - plane] >>> 31 : 0);
+				int right = (block >>> 1) | (k < words - 1 ? blocks[j + plane] << 31 : 0);
+				int well = full & ~(block | solids[j] | shapes[j]) & left & right & inner;
+				for (int i = j; well != 0 && i < end; i += stride) {
+					if (i != j)
+						well &= full & ~(blocks[i] | solids[i] | shapes[i]);
+					sum += Integer.bitCount(well);
+					if (wells != null)
+						for (int bits = well; bits != 0; bits &= bits - 1)
+							wells[32 * k + Integer.numberOfTrailingZeros(bits)]++;
+				}
+			}
+		}
+
+		int emptyLeft = 0;
+		int emptyRight = 0;
+		for (int y = height - 1; y >= 0; y--) {
+			int left = 1 - (cell(blocks, offset, stride, height, 0, y) | cell(solids, offset, stride, height, 0, y)
+					| cell(shapes, offset, stride, height, 0, y));
+			int right = 1 - (cell(blocks, offset, stride, height, width - 1, y) | cell(solids, offset, stride, height, width - 1, y)
+					| cell(shapes, offset, stride, height, width - 1, y));
+			if (left != 0 && cell(blocks, offset, stride, height, 1, y) != 0) {
+				sum += 1 + emptyLeft;
+				if (wells != null)
+					wells[0] += 1 + emptyLeft;
+			}
+			if (right != 0 && cell(blocks, offset, stride, height, width - 2, y) != 0) {
+				sum += 1 + emptyRight;
+				if (wells != null)
+					wells[width - 1] += 1 + emptyRight;
+			}
+			emptyLeft += left;
+			emptyRight += right;
+		}
+		return sum;
+	}
+
+	/**
+	 * @return : 1 if column x of row y is set, 0 otherwise
+	 */
+	private static int cell(int[] rows, int offset, int stride, int height, int x, int y) {
+		return (rows[offset + ((x >>> 5) * height + y) * stride] >>> x) & 1;
+	}
+}
@@ -28,10 +28,18 @@ package field;
 
 public class Field {
 	
+	// Bottom rows that have to match the last string a few rows higher, see findShift
+	private static final int SHIFT_ROWS = 4;
+
 	private int width;
 	private int height;
 	private String initialField;
-	private Cell grid[][];
+	private Cell grid[][]; // rows of cells in a ring, row y is grid[physical(y)]
+	private String rows[]; // row strings the cells were parsed from, null once a row is changed
+	private int top; // index in grid and rows of row 0
+	private int shift;
+	private int changedRows[];
+	private int changedCount;
 
 	public Field(int width, int height, String fieldString) {
 		this.width = width;
@@ -46,7 +54,10 @@ public class Field {
 	 */
 	private void parse(String fieldString) {
 		
-		this.grid = new Cell[this.width][this.height];
+		this.grid = new Cell[this.height][this.width];
+		this.rows = new String[this.height];
+		this.changedRows = new int[this.height];
+		this.top = 0;
 		
 		// get the separate rows
 		String[] rows = fieldString.split(";");
@@ -56,18 +67,100 @@ public class Field {
 			// parse each cell of the row
 			for(int x=0; x < this.width; x++) {
 				int cellCode = Integer.parseInt(rowCells[x]);
-				this.grid[x][y] = new Cell(x, y, CellType.values()[cellCode]);
+				this.grid[y][x] = new Cell(x, y, CellType.values()[cellCode]);
 			}
+			this.rows[y] = rows[y];
 		}
 	}
 
+	/**
+	 * Brings the cells up to date with a new field string of the same size.
+	 * Between two rounds only a few rows change (a locked piece, cleared
+	 * lines, garbage rows pushed in), so only rows that differ from the
+	 * last string are parsed again and the Cell objects are kept.
+	 * 
+	 * Garbage and solid rows push the whole stack up, which would change
+	 * every row. When the bottom rows match the last string a few rows
+	 * higher, the ring of rows is turned by that many rows first, so only
+	 * the pushed in rows (and the piece rows) are parsed again.
+	 * @param fieldString : input string
+	 * @return : number of changed rows, see getChangedRow
+	 */
+	public int update(String fieldString) {
+		this.initialField = fieldString;
+		this.changedCount = 0;
+
+		String[] rows = fieldString.split(";");
+		this.shift = findShift(rows);
+		this.top = physical(this.shift);
+		for(int y=0; y < this.height; y++) {
+			int i = physical(y);
+			if(rows[y].equals(this.rows[i]))
+				continue;
+			String[] rowCells = rows[y].split(",");
+			for(int x=0; x < this.width; x++) {
+				int cellCode = Integer.parseInt(rowCells[x]);
+				this.grid[i][x].setState(CellType.values()[cellCode]);
+			}
+			this.rows[i] = rows[y];
+			this.changedRows[this.changedCount++] = y;
+		}
+		return this.changedCount;
+	}
+
+	/**
+	 * @param rows : rows of the new field string
+	 * @return : rows the stack moved up since the last string, 0 when the bottom row is the same or no shift matches
+	 */
+	private int findShift(String[] rows) {
+		int bottom = this.height - 1;
+		if(rows[bottom].equals(this.rows[physical(bottom)]))
+			return 0;
+		for(int shift = 1; shift < this.height; shift++) {
+			boolean same = true;
+			for(int y = bottom; y > bottom - SHIFT_ROWS && y - shift >= 0 && same; y--)
+				same = rows[y - shift].equals(this.rows[physical(y)]);
+			if(same)
+				return shift;
+		}
+		return 0;
+	}
+
+	/**
+	 * @return : rows the last update turned the ring by, the PackedField of
+	 *           the old string needs PackedField.rotateUp before its changed rows are read again
+	 */
+	public int getShift() {
+		return this.shift;
+	}
+
+	/**
+	 * @return : index in grid and rows of row y
+	 */
+	private int physical(int y) {
+		int i = this.top + y;
+		return i < this.height ? i : i - this.height;
+	}
+
+	private Cell[] row(int y) {
+		return this.grid[physical(y)];
+	}
+
+	/**
+	 * @param i : 0 to the number of changed rows returned by the last update
+	 * @return : the row
+	 */
+	public int getChangedRow(int i) {
+		return this.changedRows[i];
+	}
+
 	private String generateString() {
 		StringBuilder builder = new StringBuilder();
 
 		for (int i = 0; i < this.height; i++) {
 			for (int j = 0; j < this.width; j++) {
 				String value = "";
-				switch (this.grid[j][i].getState()) {
+				switch (row(i)[j].getState()) {
 					case EMPTY:
 						value = "0";
 						break;
@@ -92,15 +185,17 @@ public class Field {
 	public Cell getCell(int x, int y) {
 		if(x < 0 || x >= this.width || y < 0 || y >= this.height)
 			return null;
-		return this.grid[x][y];
+		return row(y)[x];
 	}
 
 	private void setCell(Cell cell) {
-		int x = (int) cell.getLocation().getX();
-		int y = (int) cell.getLocation().getY();
+		int x = cell.getX();
+		int y = cell.getY();
 		if(x < 0 || x >= this.width || y < 0 || y >= this.height)
 			return;
-		this.grid[x][y].setBlock();
+		int i = physical(y);
+		this.grid[i][x].setBlock();
+		this.rows[i] = null;
 	}
 
 	public void addPiece(Shape piece){
@@ -111,7 +206,7 @@ public class Field {
 
 	private int columnHeight(int column){
 		int r = 0;
-		for(; r < this.height && (this.grid[column][r].isEmpty()||this.grid[column][r].isShape()); r++);
+		for(; r < this.height && (row(r)[column].isEmpty()||row(r)[column].isShape()); r++);
 		return this.height - r;
 	}
 
@@ -125,7 +220,7 @@ public class Field {
 
 	private boolean isLine(int row){
 		for(int c = 0; c < this.width; c++){
-			if (this.grid[c][row].isEmpty() || this.grid[c][row].isSolid()){
+			if (row(row)[c].isEmpty() || row(row)[c].isSolid()){
 				return false;
 			}
 		}
@@ -137,9 +232,9 @@ public class Field {
 		for(int c = 0; c < this.width; c++){
 			boolean block = false;
 			for(int r = 0; r < this.height; r++){
-				if (this.grid[c][r].isBlock()) {
+				if (row(r)[c].isBlock()) {
 					block = true;
-				}else if (this.grid[c][r].isEmpty() && block){
+				}else if (row(r)[c].isEmpty() && block){
 					count++;
 				}
 			}
@@ -233,21 +328,21 @@ public class Field {
 
 
 		for(int r = 0; r < this.height; r++){
-			if(this.grid[0][r].isEmpty())
+			if(row(r)[0].isEmpty())
 				last.setEmpty();
 			else
 				last.setBlock();
 			for(int c = 0; c < this.width; c++){
-				if(this.grid[c][r].isSolid() || this.grid[c][r].isShape())
+				if(row(r)[c].isSolid() || row(r)[c].isShape())
 					break;
-				if (this.grid[c][r].isEmpty() != last.isEmpty() ) {
+				if (row(r)[c].isEmpty() != last.isEmpty() ) {
 					transitions++;
 					if (last.isEmpty())
 						last.setBlock();
 					else
 						last.setEmpty();
 				}
-				if(c==this.width-1 && this.grid[c][r].isBlock())
+				if(c==this.width-1 && row(r)[c].isBlock())
 					transitions++;
 			}
 		}
@@ -262,11 +357,11 @@ public class Field {
 		for(int c = 0; c < this.width; c++){
 			last.setEmpty();
 			for(int r = 0; r < this.height; r++){
-				if(this.grid[c][r].isSolid())
+				if(row(r)[c].isSolid())
 					break;
-				if(this.grid[c][r].isShape())
+				if(row(r)[c].isShape())
 					continue;
-				if (this.grid[c][r].isEmpty() != last.isEmpty() ) {
+				if (row(r)[c].isEmpty() != last.isEmpty() ) {
 					transitions++;
 					if (last.isEmpty())
 						last.setBlock();
@@ -284,9 +379,9 @@ public class Field {
 		for(int c = 0; c < this.width; c++){
 			boolean block = false;
 			for(int r = 0; r < this.height; r++){
-				if (this.grid[c][r].isBlock()) {
+				if (row(r)[c].isBlock()) {
 					block = true;
-				}else if (this.grid[c][r].isEmpty() && block){
+				}else if (row(r)[c].isEmpty() && block){
 					count++;
 				}
 			}
@@ -294,41 +389,57 @@ public class Field {
 		return count;
 	}
 
+	/**
+	 * Removes the full rows. A cleared row becomes the empty top row by
+	 * moving row references, on whichever side of it has fewer rows: the
+	 * rows above move down one, or the ring turns back one and the rows
+	 * below move up one. Cells are never copied.
+	 * @return : number of removed rows
+	 */
 	public int removeLines() {
 		int count = 0;
 		for (int r = 0; r < this.height; r++) {
-			for (int c = 0; c < this.width; c++) {
-				if (!this.grid[c][r].isBlock())
-					break;
-				if (c == this.width - 1) {
-					count++;
-					Cell temp;
-					for (int k = 0; k < this.width; k++) {
-						this.grid[k][r].setEmpty();
-						for (int l = r - 1; l >= 0; l--) {
-							temp = this.grid[k][l + 1];
-							this.grid[k][l + 1] = this.grid[k][l];
-							this.grid[k][l] = temp;
-						}
-					}
-				}
+			if (!isFullRow(r))
+				continue;
+			count++;
+			int cleared = physical(r);
+			Cell[] cells = this.grid[cleared];
+			for (int k = 0; k < this.width; k++)
+				cells[k].setEmpty();
+			this.rows[cleared] = null;
+
+			if (r < this.height - 1 - r) {
+				for (int y = r; y > 0; y--)
+					moveRow(physical(y - 1), physical(y));
+			} else {
+				for (int y = r + 1; y < this.height; y++)
+					moveRow(physical(y), physical(y - 1));
+				this.top = physical(this.height - 1);
 			}
+			this.grid[physical(0)] = cells;
+			this.rows[physical(0)] = null;
 		}
 		return count;
 	}
 
-	public double evaluate(Shape _setPiece, int myCombo){
+	private boolean isFullRow(int r) {
+		for (Cell cell : row(r))
+			if (!cell.isBlock())
+				return false;
+		return true;
+	}
 
-		double score;
+	private void moveRow(int from, int to) {
+		this.grid[to] = this.grid[from];
+		this.rows[to] = this.rows[from];
+	}
+
+	public double evaluate(Shape _setPiece, int myCombo){
 
-		score = (this.getHeight()-_setPiece.getLocation().getY()-_setPiece.getSize()/2) * -4.500158825082766
-				+ this.lines() * myCombo * 4.4181268101392694
-				+ this.getRowTransitions() * -3.2178882868487753
-				+ this.getColumnTransitions() * -9.348695305445199
-				+ this.getHoles() * -7.899265427351652
-				+ this.getWellSums() * -3.3855972247263626;
+		int heightTerm = this.getHeight() - _setPiece.getY() - _setPiece.getSize()/2;
 
-		return score;
+		return Features.score(heightTerm, this.lines(), myCombo, this.getRowTransitions(),
+				this.getColumnTransitions(), this.getHoles(), this.getWellSums());
 	}
 
 	public int getWellSums() {
@@ -336,10 +447,10 @@ public class Field {
 
 		for(int r = 0; r < this.height; r++){
 			for(int c = 1; c < this.width-1; c++){
-				if(this.grid[c][r].isEmpty() && this.grid[c-1][r].isBlock() && this.grid[c+1][r].isBlock()) {
+				if(row(r)[c].isEmpty() && row(r)[c-1].isBlock() && row(r)[c+1].isBlock()) {
 					well_sums++;
 					for (int k = r+1; k<this.height; k++)
-						if(this.grid[c][k].isEmpty())
+						if(row(k)[c].isEmpty())
 							well_sums++;
 						else
 							break;
@@ -347,19 +458,19 @@ public class Field {
 			}
 		}
 		for(int r = 0; r < this.height; r++){
-			if(this.grid[0][r].isEmpty() && this.grid[1][r].isBlock()) {
+			if(row(r)[0].isEmpty() && row(r)[1].isBlock()) {
 				well_sums++;
 				for (int k = r+1; k<this.height; k++)
-					if(this.grid[0][k].isEmpty())
+					if(row(k)[0].isEmpty())
 						well_sums++;
 			}
 		}
 
 		for(int r = 0; r < this.height; r++){
-			if(this.grid[this.width-1][r].isEmpty() && this.grid[this.width-2][r].isBlock()) {
+			if(row(r)[this.width-1].isEmpty() && row(r)[this.width-2].isBlock()) {
 				well_sums++;
 				for (int k = r+1; k<this.height; k++)
-					if(this.grid[this.width-1][k].isEmpty())
+					if(row(k)[this.width-1].isEmpty())
 						well_sums++;
 			}
 		}
@@ -0,0 +1,220 @@
+// Copyright 2015 theaigames.com (developers@theaigames.com)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//	
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package field;
+
+import java.util.Arrays;
+
+/**
+ * Orientation class
+ * 
+ * Read-only table of the cells of every ShapeType after 0 to 3 turnRight()
+ * calls, as offsets from the Shape location. Built once from Shape itself,
+ * so a piece at location (x, y) with a given rotation covers exactly the
+ * cells the Shape would, and is shared by every search and session.
+ */
+
+public final class Orientation {
+
+	private static final Orientation[][] TABLE = build();
+	private static final Orientation[][] DISTINCT = buildDistinct();
+
+	private final ShapeType type;
+	private final int rotation;
+	private final int size;
+	private final int[] dx;
+	private final int[] dy;
+	private final int[] rows; // bit dx of rows[dy] is set for every cell
+	private final int[] bottoms; // lowest dy of every column dx, -1 when empty
+	private final int minDx;
+	private final int maxDx;
+	private final int minDy;
+	private final int maxDy;
+
+	private Orientation(ShapeType type, int rotation, Shape shape) {
+		this.type = type;
+		this.rotation = rotation;
+		this.size = shape.getSize();
+		this.rows = new int[this.size];
+
+		Cell[] blocks = shape.getBlocks();
+		int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, minY = Integer.MAX_VALUE, maxY = Integer.MIN_VALUE;
+		for (Cell single : blocks) {
+			int x = single.getX();
+			int y = single.getY();
+			this.rows[y] |= 1 << x;
+			minX = Math.min(minX, x);
+			maxX = Math.max(maxX, x);
+			minY = Math.min(minY, y);
+			maxY = Math.max(maxY, y);
+		}
+
+		// Cells in row-major order
+		this.dx = new int[blocks.length];
+		this.dy = new int[blocks.length];
+		int i = 0;
+		for (int y = 0; y < this.size; y++)
+			for (int x = 0; x < this.size; x++)
+				if (((this.rows[y] >>> x) & 1) != 0) {
+					this.dx[i] = x;
+					this.dy[i] = y;
+					i++;
+				}
+
+		this.bottoms = new int[this.size];
+		for (int x = 0; x < this.size; x++) {
+			this.bottoms[x] = -1;
+			for (int y = 0; y < this.size; y++)
+				if (((this.rows[y] >>> x) & 1) != 0)
+					this.bottoms[x] = y;
+		}
+
+		this.minDx = minX;
+		this.maxDx = maxX;
+		this.minDy = minY;
+		this.maxDy = maxY;
+	}
+
+	private static Orientation[][] build() {
+		ShapeType[] types = ShapeType.values();
+		Orientation[][] table = new Orientation[types.length][];
+		for (ShapeType type : types) {
+			if (type == ShapeType.NONE)
+				continue;
+			table[type.ordinal()] = new Orientation[4];
+			Shape shape = new Shape(type, null, 0, 0);
+			for (int rotation = 0; rotation < 4; rotation++) {
+				if (rotation != 0)
+					shape.turnRight();
+				table[type.ordinal()][rotation] = new Orientation(type, rotation, shape);
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * Keeps the first rotation of every different form, two rotations of the same
+	 * form only differing by a translation (O has 1 form, I, S and Z have 2)
+	 */
+	private static Orientation[][] buildDistinct() {
+		Orientation[][] distinct = new Orientation[TABLE.length][];
+		for (int t = 0; t < TABLE.length; t++) {
+			if (TABLE[t] == null)
+				continue;
+			Orientation[] forms = new Orientation[4];
+			int count = 0;
+			for (Orientation o : TABLE[t]) {
+				boolean known = false;
+				for (int i = 0; i < count; i++)
+					known |= forms[i].isTranslationOf(o);
+				if (!known)
+					forms[count++] = o;
+			}
+			distinct[t] = Arrays.copyOf(forms, count);
+		}
+		return distinct;
+	}
+
+	private boolean isTranslationOf(Orientation other) {
+		int tx = other.minDx - this.minDx;
+		int ty = other.minDy - this.minDy;
+		for (int i = 0; i < this.dx.length; i++)
+			if (this.dx[i] + tx != other.dx[i] || this.dy[i] + ty != other.dy[i])
+				return false;
+		return true;
+	}
+
+	/**
+	 * @param type     : piece type
+	 * @param rotation : number of turnRight() calls, 0 to 3
+	 * @return : the cells of the piece in that orientation
+	 */
+	public static Orientation get(ShapeType type, int rotation) {
+		return TABLE[type.ordinal()][rotation & 3];
+	}
+
+	/**
+	 * @param type : piece type
+	 * @return : the rotations of the piece that cover different forms
+	 */
+	public static Orientation[] getDistinct(ShapeType type) {
+		return DISTINCT[type.ordinal()];
+	}
+
+	/**
+	 * @return : the x location the engine spawns a piece of this type at
+	 */
+	public static int spawnX(ShapeType type, int width) {
+		return (width - get(type, 0).size) / 2;
+	}
+
+	public ShapeType getType() {
+		return this.type;
+	}
+
+	public int getRotation() {
+		return this.rotation;
+	}
+
+	public int getSize() {
+		return this.size;
+	}
+
+	public int getCells() {
+		return this.dx.length;
+	}
+
+	public int getDx(int i) {
+		return this.dx[i];
+	}
+
+	public int getDy(int i) {
+		return this.dy[i];
+	}
+
+	/**
+	 * @param dy : row offset from the location, 0 to size - 1
+	 * @return : the cells of that row as a bitmask of column offsets
+	 */
+	public int getRow(int dy) {
+		return this.rows[dy];
+	}
+
+	/**
+	 * @param dx : column offset from the location, 0 to size - 1
+	 * @return : the lowest row offset with a cell in that column, -1 when it has none
+	 */
+	public int getBottom(int dx) {
+		return this.bottoms[dx];
+	}
+
+	public int getMinDx() {
+		return this.minDx;
+	}
+
+	public int getMaxDx() {
+		return this.maxDx;
+	}
+
+	public int getMinDy() {
+		return this.minDy;
+	}
+
+	public int getMaxDy() {
+		return this.maxDy;
+	}
+}
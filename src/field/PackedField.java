@@ -0,0 +1,569 @@
+// Copyright 2015 theaigames.com (developers@theaigames.com)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//	
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package field;
+
+import java.util.Arrays;
+
+/**
+ * PackedField class
+ * 
+ * Bitmask copy of a Field used by the search. Every row is stored as one
+ * int per cell type, where bit x is the cell in column x, so copying,
+ * collision checks and line clears work on whole rows at once.
+ * Behaves exactly like the Field it was created from.
+ * 
+ * Fields wider than 32 columns use several int words per row, laid out
+ * as described in Features: column x of row y is bit x % 32 of
+ * [x / 32 * height + y]. Fields up to 32 wide keep the one word paths.
+ */
+
+public class PackedField {
+
+	private final int width;
+	private final int height;
+	private final int words;
+	private final int fullRow; // columns of the last word
+	private final int[] blocks;
+	private final int[] solids;
+	private final int[] shapes;
+	private final int[] tops; // highest block or solid row of every column, height when empty
+	private boolean topsValid;
+	private long hash;
+	private boolean hashValid;
+
+	public PackedField(Field field) {
+		this(field.getWidth(), field.getHeight());
+		for (int y = 0; y < this.height; y++)
+			updateRow(field, y);
+	}
+
+	public PackedField(PackedField other) {
+		this(other.width, other.height);
+		copyFrom(other);
+	}
+
+	/**
+	 * Creates an empty field
+	 */
+	public PackedField(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.words = Features.words(width);
+		this.fullRow = Features.fullRow(width - 32 * (this.words - 1));
+		this.blocks = new int[this.words * height];
+		this.solids = new int[this.words * height];
+		this.shapes = new int[this.words * height];
+		this.tops = new int[width];
+	}
+
+	/**
+	 * Overwrites this field with another one of the same size
+	 * @param other : field to copy
+	 */
+	public void copyFrom(PackedField other) {
+		System.arraycopy(other.blocks, 0, this.blocks, 0, this.blocks.length);
+		System.arraycopy(other.solids, 0, this.solids, 0, this.solids.length);
+		System.arraycopy(other.shapes, 0, this.shapes, 0, this.shapes.length);
+		rowsChanged();
+	}
+
+	/**
+	 * Reads one row again from the Field this field was created from
+	 * @param field : field of the same size
+	 * @param y     : row to read
+	 */
+	public void updateRow(Field field, int y) {
+		for (int k = 0, j = y; k < this.words; k++, j += this.height) {
+			int blocks = 0, solids = 0, shapes = 0;
+			for (int x = 32 * k; x < Math.min(this.width, 32 * k + 32); x++) {
+				Cell cell = field.getCell(x, y);
+				if (cell.isBlock())
+					blocks |= 1 << x;
+				else if (cell.isSolid())
+					solids |= 1 << x;
+				else if (cell.isShape())
+					shapes |= 1 << x;
+			}
+			this.blocks[j] = blocks;
+			this.solids[j] = solids;
+			this.shapes[j] = shapes;
+		}
+		rowsChanged();
+	}
+
+	/**
+	 * Overwrites one word of a row, for example with a row read from a dataset
+	 * @param y    : row
+	 * @param word : word of the row, see getWords
+	 */
+	public void setRow(int y, int word, int blocks, int solids, int shapes) {
+		int j = word * this.height + y;
+		this.blocks[j] = blocks;
+		this.solids[j] = solids;
+		this.shapes[j] = shapes;
+		rowsChanged();
+	}
+
+	/**
+	 * @return : index of the word with column x of row y, the bit is x % 32 (shifts only use the low 5 bits)
+	 */
+	private int index(int x, int y) {
+		return (x >>> 5) * this.height + y;
+	}
+
+	/**
+	 * Same as Cell.hasCollision || Cell.isOutOfBoundaries for a shape cell
+	 */
+	private boolean blocked(int x, int y) {
+		if (x < 0 || x >= this.width || y >= this.height)
+			return true;
+		return y >= 0 && (((this.blocks[index(x, y)] | this.solids[index(x, y)]) >>> x) & 1) != 0;
+	}
+
+	private boolean fits(Shape piece, int dx, int dy) {
+		for (Cell single : piece.getBlocks()) {
+			if (blocked(single.getX() + dx, single.getY() + dy))
+				return false;
+		}
+		return true;
+	}
+
+	public boolean isValid(Shape piece) {
+		return fits(piece, 0, 0);
+	}
+
+	public boolean isValidTop(Shape piece) {
+		for (Cell single : piece.getBlocks()) {
+			if (single.getY() < 0)
+				return false;
+		}
+		return fits(piece, 0, 0);
+	}
+
+	public boolean canMoveLeft(Shape piece) {
+		return fits(piece, -1, 0);
+	}
+
+	public boolean canMoveDown(Shape piece) {
+		return fits(piece, 0, 1);
+	}
+
+	/**
+	 * Turns the cells of the piece into blocks, whatever they were before
+	 * @param piece : dropped piece
+	 */
+	public void addPiece(Shape piece) {
+		for (Cell single : piece.getBlocks()) {
+			int x = single.getX();
+			int y = single.getY();
+			if (x < 0 || x >= this.width || y < 0 || y >= this.height)
+				continue;
+			int j = index(x, y);
+			this.blocks[j] |= 1 << x;
+			this.solids[j] &= ~(1 << x);
+			this.shapes[j] &= ~(1 << x);
+		}
+		rowsChanged();
+	}
+
+	private static int shift(int row, int x) {
+		return x >= 0 ? row << x : row >>> -x;
+	}
+
+	/**
+	 * Same as isValid for a piece in the given orientation and location
+	 */
+	public boolean fits(Orientation o, int x, int y) {
+		if (x + o.getMinDx() < 0 || x + o.getMaxDx() >= this.width || y + o.getMaxDy() >= this.height)
+			return false;
+		if (this.words > 1) {
+			for (int c = 0; c < o.getCells(); c++) {
+				int cx = x + o.getDx(c);
+				int cy = y + o.getDy(c);
+				if (cy >= 0 && (((this.blocks[index(cx, cy)] | this.solids[index(cx, cy)]) >>> cx) & 1) != 0)
+					return false;
+			}
+			return true;
+		}
+		for (int dy = o.getMinDy(); dy <= o.getMaxDy(); dy++) {
+			int row = y + dy;
+			if (row >= 0 && ((this.blocks[row] | this.solids[row]) & shift(o.getRow(dy), x)) != 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Same as Field.tooHigh: true when a column has a block or solid cell in the top rows
+	 * @param limit : number of rows at the top
+	 */
+	public boolean tooHigh(int limit) {
+		int[] tops = getTops();
+		for (int x = 0; x < this.width; x++)
+			if (tops[x] < limit)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Same as isValidTop for a piece in the given orientation and location
+	 */
+	public boolean fitsTop(Orientation o, int x, int y) {
+		return y + o.getMinDy() >= 0 && fits(o, x, y);
+	}
+
+	/**
+	 * Moves a fitting piece down as far as it goes. A piece above the
+	 * surface lands where the bottom of one of its columns meets the top
+	 * of that field column. A piece that starts under an overhang is
+	 * moved down one row at a time instead.
+	 * @return : the row the piece lands on
+	 */
+	public int drop(Orientation o, int x, int y) {
+		int[] tops = getTops();
+		int landing = Integer.MAX_VALUE;
+		for (int dx = o.getMinDx(); dx <= o.getMaxDx(); dx++) {
+			int bottom = o.getBottom(dx);
+			if (bottom < 0)
+				continue;
+			int top = tops[x + dx];
+			if (y + bottom >= top)
+				return dropStepwise(o, x, y);
+			landing = Math.min(landing, top - 1 - bottom);
+		}
+		return landing;
+	}
+
+	private int dropStepwise(Orientation o, int x, int y) {
+		while (fits(o, x, y + 1))
+			y++;
+		return y;
+	}
+
+	/**
+	 * @return : the highest block or solid row of every column, the height for an empty column
+	 */
+	int[] getTops() {
+		if (this.topsValid)
+			return this.tops;
+		for (int x = 0; x < this.width; x++)
+			this.tops[x] = this.height;
+		for (int k = 0; k < this.words; k++) {
+			int open = k == this.words - 1 ? this.fullRow : -1;
+			for (int y = 0, j = k * this.height; y < this.height && open != 0; y++, j++) {
+				int found = (this.blocks[j] | this.solids[j]) & open;
+				open &= ~found;
+				for (; found != 0; found &= found - 1)
+					this.tops[32 * k + Integer.numberOfTrailingZeros(found)] = y;
+			}
+		}
+		this.topsValid = true;
+		return this.tops;
+	}
+
+	/**
+	 * Has to be called after writing the rows directly, see blockRows()
+	 */
+	void rowsChanged() {
+		this.topsValid = false;
+		this.hashValid = false;
+	}
+
+	/**
+	 * Same as addPiece for a piece in the given orientation and location
+	 */
+	public void place(Orientation o, int x, int y) {
+		if (this.words > 1) {
+			for (int c = 0; c < o.getCells(); c++) {
+				int cx = x + o.getDx(c);
+				int cy = y + o.getDy(c);
+				if (cx < 0 || cx >= this.width || cy < 0 || cy >= this.height)
+					continue;
+				int j = index(cx, cy);
+				this.blocks[j] |= 1 << cx;
+				this.solids[j] &= ~(1 << cx);
+				this.shapes[j] &= ~(1 << cx);
+			}
+			rowsChanged();
+			return;
+		}
+		for (int dy = o.getMinDy(); dy <= o.getMaxDy(); dy++) {
+			int row = y + dy;
+			if (row < 0 || row >= this.height)
+				continue;
+			int mask = shift(o.getRow(dy), x) & this.fullRow;
+			this.blocks[row] |= mask;
+			this.solids[row] &= ~mask;
+			this.shapes[row] &= ~mask;
+		}
+		rowsChanged();
+	}
+
+	/**
+	 * Takes a placed piece out again. Only valid right after place() on cells that were empty.
+	 */
+	public void remove(Orientation o, int x, int y) {
+		if (this.words > 1) {
+			for (int c = 0; c < o.getCells(); c++) {
+				int cx = x + o.getDx(c);
+				int cy = y + o.getDy(c);
+				if (cx >= 0 && cx < this.width && cy >= 0 && cy < this.height)
+					this.blocks[index(cx, cy)] &= ~(1 << cx);
+			}
+			rowsChanged();
+			return;
+		}
+		for (int dy = o.getMinDy(); dy <= o.getMaxDy(); dy++) {
+			int row = y + dy;
+			if (row >= 0 && row < this.height)
+				this.blocks[row] &= ~shift(o.getRow(dy), x);
+		}
+		rowsChanged();
+	}
+
+	/**
+	 * Empties the shape cells, the falling piece the engine draws into the field
+	 */
+	public void clearShapes() {
+		for (int j = 0; j < this.shapes.length; j++)
+			this.shapes[j] = 0;
+		this.hashValid = false;
+	}
+
+	/**
+	 * Removes the rows made only of block cells, moving everything above them down.
+	 * The rows that stay are moved once, however many rows are removed.
+	 * @return : number of removed rows
+	 */
+	public int removeLines() {
+		int lowest = -1;
+		for (int y = this.height - 1; y >= 0 && lowest < 0; y--)
+			if (isBlockRow(y))
+				lowest = y;
+		if (lowest < 0)
+			return 0;
+
+		// Compacts the rows from the lowest removed row up, then empties the rows left at the top
+		int to = lowest;
+		for (int y = lowest; y >= 0; y--) {
+			if (isBlockRow(y))
+				continue;
+			if (y != to)
+				moveRow(y, to);
+			to--;
+		}
+		int count = to + 1;
+		for (int j = 0; j < this.blocks.length; j += this.height) {
+			Arrays.fill(this.blocks, j, j + count, 0);
+			Arrays.fill(this.solids, j, j + count, 0);
+			Arrays.fill(this.shapes, j, j + count, 0);
+		}
+		rowsChanged();
+		return count;
+	}
+
+	private void moveRow(int from, int to) {
+		for (int j = 0; j < this.blocks.length; j += this.height) {
+			this.blocks[j + to] = this.blocks[j + from];
+			this.solids[j + to] = this.solids[j + from];
+			this.shapes[j + to] = this.shapes[j + from];
+		}
+	}
+
+	/**
+	 * Moves every row up, the top rows wrap around to the bottom. Same as
+	 * the ring of rows Field.update turns when garbage rows pushed the
+	 * stack up, after which only the changed rows need updateRow.
+	 * @param rows : rows to move, see Field.getShift
+	 */
+	public void rotateUp(int rows) {
+		if (rows == 0)
+			return;
+		int[] top = new int[rows];
+		for (int[] cells : new int[][] {this.blocks, this.solids, this.shapes}) {
+			for (int j = 0; j < cells.length; j += this.height) {
+				System.arraycopy(cells, j, top, 0, rows);
+				System.arraycopy(cells, j + rows, cells, j, this.height - rows);
+				System.arraycopy(top, 0, cells, j + this.height - rows, rows);
+			}
+		}
+		rowsChanged();
+	}
+
+	/**
+	 * @return : hash of every cell, kept until the field changes
+	 */
+	public long hash() {
+		if (this.hashValid)
+			return this.hash;
+		long hash = this.width * 31L + this.height;
+		for (int j = 0; j < this.blocks.length; j++) {
+			hash = mix(hash ^ this.blocks[j]);
+			hash = mix(hash ^ ((long) this.solids[j] << 32 | this.shapes[j] & 0xffffffffL));
+		}
+		this.hash = hash;
+		this.hashValid = true;
+		return hash;
+	}
+
+	/**
+	 * @return : a second hash of every cell, computed apart from hash() with other constants,
+	 *           that tells fields whose hash() collides apart
+	 */
+	public long check() {
+		long check = this.height * 31L + this.width;
+		for (int j = 0; j < this.blocks.length; j++) {
+			check = (check ^ this.blocks[j]) * 0xc4ceb9fe1a85ec53L;
+			check = (check ^ (check >>> 31) ^ ((long) this.shapes[j] << 32 | this.solids[j] & 0xffffffffL)) * 0x9e3779b97f4a7c15L;
+			check ^= check >>> 29;
+		}
+		return check;
+	}
+
+	private static long mix(long h) {
+		h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+		return h ^ (h >>> 29);
+	}
+
+	private boolean isBlockRow(int y) {
+		for (int k = 0, j = y; k < this.words - 1; k++, j += this.height)
+			if (this.blocks[j] != -1)
+				return false;
+		return this.blocks[(this.words - 1) * this.height + y] == this.fullRow;
+	}
+
+	public int lines() {
+		return Features.lines(this.blocks, this.shapes, 0, 1, this.width, this.height);
+	}
+
+	public int getRowTransitions() {
+		return Features.getRowTransitions(this.blocks, this.solids, this.shapes, 0, 1, this.width, this.height);
+	}
+
+	public int getColumnTransitions() {
+		return Features.getColumnTransitions(this.blocks, this.solids, this.shapes, 0, 1, this.width, this.height);
+	}
+
+	public int getHoles() {
+		return Features.getHoles(this.blocks, this.solids, this.shapes, 0, 1, this.width, this.height);
+	}
+
+	public int getWellSums() {
+		return Features.getWellSums(this.blocks, this.solids, this.shapes, 0, 1, this.width, this.height);
+	}
+
+	/**
+	 * Same as Field.evaluate
+	 */
+	public double evaluate(Shape _setPiece, int myCombo) {
+		return evaluate(this.height - _setPiece.getY() - _setPiece.getSize() / 2, myCombo);
+	}
+
+	/**
+	 * Same as Field.evaluate for a piece that landed on row y
+	 */
+	public double evaluate(Orientation o, int y, int myCombo) {
+		return evaluate(this.height - y - o.getSize() / 2, myCombo);
+	}
+
+	/**
+	 * Evaluation with other weights for a piece that landed on row y
+	 */
+	public double evaluate(Orientation o, int y, int myCombo, ScoreFunction scorer) {
+		return scorer.score(this.height - y - o.getSize() / 2, lines(), myCombo, getRowTransitions(),
+				getColumnTransitions(), getHoles(), getWellSums());
+	}
+
+	private double evaluate(int heightTerm, int myCombo) {
+		return Features.score(heightTerm, lines(), myCombo, getRowTransitions(),
+				getColumnTransitions(), getHoles(), getWellSums());
+	}
+
+	/**
+	 * Evaluation without the column transitions and well sums, the two most
+	 * expensive features. It is an upper bound of evaluate() only when
+	 * neither has a positive weight, see Weights.hasBounds().
+	 */
+	public double evaluateCheap(Orientation o, int y, int myCombo, ScoreFunction scorer) {
+		return scorer.score(this.height - y - o.getSize() / 2, lines(), myCombo, getRowTransitions(),
+				0, getHoles(), 0);
+	}
+
+	public int getBlockRow(int y) {
+		return this.blocks[y];
+	}
+
+	public int getSolidRow(int y) {
+		return this.solids[y];
+	}
+
+	public int getShapeRow(int y) {
+		return this.shapes[y];
+	}
+
+	/**
+	 * @param y    : row
+	 * @param word : 0 for columns 0 to 31, 1 for 32 to 63, ...
+	 * @return : the block cells of those columns
+	 */
+	public int getBlockRow(int y, int word) {
+		return this.blocks[word * this.height + y];
+	}
+
+	public int getSolidRow(int y, int word) {
+		return this.solids[word * this.height + y];
+	}
+
+	public int getShapeRow(int y, int word) {
+		return this.shapes[word * this.height + y];
+	}
+
+	/**
+	 * @return : number of int words per row
+	 */
+	public int getWords() {
+		return this.words;
+	}
+
+	int[] blockRows() {
+		return this.blocks;
+	}
+
+	int[] solidRows() {
+		return this.solids;
+	}
+
+	int[] shapeRows() {
+		return this.shapes;
+	}
+
+	/**
+	 * @return : the columns in the last word of a row, the whole row for fields up to 32 wide
+	 */
+	public int getFullRow() {
+		return this.fullRow;
+	}
+
+	public int getHeight() {
+		return this.height;
+	}
+
+	public int getWidth() {
+		return this.width;
+	}
+}
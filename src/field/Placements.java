@@ -0,0 +1,219 @@
+// Copyright 2015 theaigames.com (developers@theaigames.com)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//	
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package field;
+
+import java.util.Arrays;
+
+/**
+ * Placements class
+ * 
+ * Reusable buffer with every landing spot of one piece, generated in the
+ * same order and with the same rules as the search in BotStarter: for each
+ * rotation, slide the piece as far left as it goes from its spawn location,
+ * then walk it right one column at a time and drop it. Spots that leave a
+ * cell above the field are skipped.
+ * 
+ * Different rotations and columns often land on exactly the same cells.
+ * Every spot is linked to the first spot with the same cells (see
+ * getUnique), so each distinct landing only has to be evaluated once.
+ * Filling the buffer does not allocate, so it can be used inside playouts.
+ */
+
+public class Placements {
+
+	private final int[] x;
+	private final int[] y;
+	private final int[] left;
+	private final int[] unique;
+	private final Orientation[] orientation;
+	private final PlacementSet seen;
+	private int count;
+	private int uniqueCount;
+
+	/**
+	 * @param width : field width, bounds the number of placements per rotation
+	 */
+	public Placements(int width) {
+		int capacity = 4 * width;
+		this.x = new int[capacity];
+		this.y = new int[capacity];
+		this.left = new int[capacity];
+		this.unique = new int[capacity];
+		this.orientation = new Orientation[capacity];
+		this.seen = new PlacementSet(capacity);
+	}
+
+	/**
+	 * @param grid   : field to place the piece on
+	 * @param type   : piece type
+	 * @param spawnX : x location the piece starts at
+	 * @param spawnY : y location the piece starts at
+	 * @return : number of placements found
+	 */
+	public int generate(PackedField grid, ShapeType type, int spawnX, int spawnY) {
+		this.count = 0;
+		this.uniqueCount = 0;
+		this.seen.clear();
+		for (int rotation = 0; rotation < 4; rotation++)
+			sweep(grid, Orientation.get(type, rotation), spawnX, spawnY);
+		return this.count;
+	}
+
+	/**
+	 * Same as generate, but only with one rotation of every form of the piece.
+	 * Finds the same distinct landings for less work when the moves to get
+	 * there do not matter, as in playouts.
+	 */
+	public int generateDistinct(PackedField grid, ShapeType type, int spawnX, int spawnY) {
+		this.count = 0;
+		this.uniqueCount = 0;
+		this.seen.clear();
+		for (Orientation o : Orientation.getDistinct(type))
+			sweep(grid, o, spawnX, spawnY);
+		return this.count;
+	}
+
+	private void sweep(PackedField grid, Orientation o, int spawnX, int spawnY) {
+		int width = grid.getWidth();
+
+		// Move the rotated shape all the way to the left (until it can be moved)
+		int px = spawnX;
+		int moves = 0;
+		while (grid.fits(o, px - 1, spawnY)) {
+			px--;
+			moves++;
+		}
+
+		// Until the piece is moved all the way to the right
+		for (; grid.fits(o, px, spawnY); px++, moves--) {
+			int py = grid.drop(o, px, spawnY);
+			if (!grid.fitsTop(o, px, py))
+				continue;
+			int i = this.count++;
+			this.x[i] = px;
+			this.y[i] = py;
+			this.left[i] = moves;
+			this.orientation[i] = o;
+
+			int first = this.seen.putIfAbsent(key(o, px, py, width), i);
+			this.unique[i] = first < 0 ? i : first;
+			if (first < 0)
+				this.uniqueCount++;
+		}
+	}
+
+	/**
+	 * The covered cells as four 16 bit field indexes in increasing order
+	 */
+	private static long key(Orientation o, int px, int py, int width) {
+		long key = 0;
+		for (int c = 0; c < o.getCells(); c++)
+			key = (key << 16) | ((py + o.getDy(c)) * width + px + o.getDx(c));
+		return key;
+	}
+
+	public int size() {
+		return this.count;
+	}
+
+	/**
+	 * @return : number of placements that land on different cells
+	 */
+	public int uniqueSize() {
+		return this.uniqueCount;
+	}
+
+	/**
+	 * @return : index of the first placement landing on the same cells as placement i
+	 */
+	public int getUnique(int i) {
+		return this.unique[i];
+	}
+
+	public boolean isUnique(int i) {
+		return this.unique[i] == i;
+	}
+
+	public int getX(int i) {
+		return this.x[i];
+	}
+
+	public int getY(int i) {
+		return this.y[i];
+	}
+
+	/**
+	 * @return : number of left moves from the spawn location, negative for right moves
+	 */
+	public int getLeft(int i) {
+		return this.left[i];
+	}
+
+	public int getRotation(int i) {
+		return this.orientation[i].getRotation();
+	}
+
+	public Orientation getOrientation(int i) {
+		return this.orientation[i];
+	}
+
+	/*
+	* Open addressing map from placement key to placement index, emptied by
+	* bumping a generation counter instead of clearing the arrays
+	* */
+	private static class PlacementSet {
+		private final long[] keys;
+		private final int[] values;
+		private final int[] generations;
+		private final int mask;
+		private int generation;
+
+		PlacementSet(int capacity) {
+			int size = Integer.highestOneBit(Math.max(4 * capacity, 16) - 1) << 1;
+			this.keys = new long[size];
+			this.values = new int[size];
+			this.generations = new int[size];
+			this.mask = size - 1;
+			this.generation = 1;
+		}
+
+		void clear() {
+			if (++this.generation == 0) {
+				Arrays.fill(this.generations, 0);
+				this.generation = 1;
+			}
+		}
+
+		/**
+		 * @return : the value already stored for the key, or -1 after storing the new value
+		 */
+		int putIfAbsent(long key, int value) {
+			long h = key * 0x9E3779B97F4A7C15L;
+			int slot = (int) (h ^ (h >>> 32)) & this.mask;
+			while (this.generations[slot] == this.generation) {
+				if (this.keys[slot] == key)
+					return this.values[slot];
+				slot = (slot + 1) & this.mask;
+			}
+			this.generations[slot] = this.generation;
+			this.keys[slot] = key;
+			this.values[slot] = value;
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,61 @@
+// Copyright 2015 theaigames.com (developers@theaigames.com)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//	
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package field;
+
+/**
+ * ScalarBatchEvaluator class
+ * 
+ * Evaluates the candidates of a batch one after the other.
+ */
+
+class ScalarBatchEvaluator extends BatchEvaluator {
+
+	@Override
+	public void evaluate(CandidateBatch batch) {
+		int c = batch.capacity;
+		int w = batch.width;
+		int h = batch.height;
+		boolean columnTransitions = batch.scorer.uses(CandidateBatch.COLUMN_TRANSITIONS);
+		boolean wellSums = batch.scorer.uses(CandidateBatch.WELL_SUMS);
+		for (int i = 0; i < batch.count; i++) {
+			batch.features[CandidateBatch.LINES * c + i] = Features.lines(batch.blocks, batch.shapes, i, c, w, h);
+			batch.features[CandidateBatch.ROW_TRANSITIONS * c + i] = Features.getRowTransitions(batch.blocks, batch.solids, batch.shapes, i, c, w, h);
+			batch.features[CandidateBatch.COLUMN_TRANSITIONS * c + i] = columnTransitions ? Features.getColumnTransitions(batch.blocks, batch.solids, batch.shapes, i, c, w, h) : 0;
+			batch.features[CandidateBatch.HOLES * c + i] = Features.getHoles(batch.blocks, batch.solids, batch.shapes, i, c, w, h);
+			batch.features[CandidateBatch.WELL_SUMS * c + i] = wellSums ? Features.getWellSums(batch.blocks, batch.solids, batch.shapes, i, c, w, h) : 0;
+		}
+		batch.score(0, batch.count);
+	}
+
+	@Override
+	public void evaluateCheap(CandidateBatch batch) {
+		int c = batch.capacity;
+		int w = batch.width;
+		int h = batch.height;
+		for (int i = 0; i < batch.count; i++) {
+			batch.features[CandidateBatch.LINES * c + i] = Features.lines(batch.blocks, batch.shapes, i, c, w, h);
+			batch.features[CandidateBatch.ROW_TRANSITIONS * c + i] = Features.getRowTransitions(batch.blocks, batch.solids, batch.shapes, i, c, w, h);
+			batch.features[CandidateBatch.HOLES * c + i] = Features.getHoles(batch.blocks, batch.solids, batch.shapes, i, c, w, h);
+		}
+	}
+
+	@Override
+	public String getName() {
+		return "scalar";
+	}
+}
@@ -0,0 +1,150 @@
+// Copyright 2015 theaigames.com (developers@theaigames.com)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//	
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package field;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ScoreCompiler class
+ * 
+ * Builds a ScoreFunction for a weight vector. The score is put together
+ * from method handles with the weights bound as constants and the
+ * features without weight left out, and becomes the constant of a hidden
+ * class defined from CompiledScore, so every vector gets a class of its
+ * own that the JIT compiles like hand written code.
+ * 
+ * The terms are added in the order of Features.score, so the default
+ * weights give the same scores bit for bit (a dropped term can only turn
+ * a score of -0.0 into 0.0). When hidden classes cannot be defined, the
+ * handle is called through a field instead, which is slower but the same.
+ */
+
+public final class ScoreCompiler {
+
+	private static final MethodType SCORE_TYPE = MethodType.methodType(double.class,
+			int.class, int.class, int.class, int.class, int.class, int.class, int.class);
+
+	private static final ConcurrentHashMap<Weights, ScoreFunction> compiled = new ConcurrentHashMap<>();
+
+	private ScoreCompiler() {}
+
+	/**
+	 * @param weights : weight vector
+	 * @return : score function of the weights, the same instance for equal vectors
+	 */
+	public static ScoreFunction compile(Weights weights) {
+		return compiled.computeIfAbsent(weights, ScoreCompiler::define);
+	}
+
+	private static ScoreFunction define(Weights weights) {
+		MethodHandle score = handle(weights);
+		try (InputStream in = ScoreCompiler.class.getResourceAsStream("CompiledScore.class")) {
+			if (in == null)
+				throw new IOException("CompiledScore.class not found");
+			MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClassWithClassData(in.readAllBytes(), score, true);
+			MethodHandle constructor = lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class, Weights.class));
+			return (ScoreFunction) constructor.invoke(weights);
+		} catch (Throwable e) {
+			System.err.printf("Score compiler falling back to method handles: %s\n", e);
+			return new HandleScore(weights, score);
+		}
+	}
+
+	/**
+	 * @return : handle of type SCORE_TYPE that computes the score of the weights
+	 */
+	static MethodHandle handle(Weights weights) {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			MethodHandle times = lookup.findStatic(ScoreCompiler.class, "times",
+					MethodType.methodType(double.class, double.class, int.class));
+			MethodHandle linesTimes = lookup.findStatic(ScoreCompiler.class, "linesTimes",
+					MethodType.methodType(double.class, double.class, int.class, int.class));
+			MethodHandle add = lookup.findStatic(ScoreCompiler.class, "add",
+					MethodType.methodType(double.class, double.class, double.class));
+
+			// Arguments of SCORE_TYPE: heightTerm, lines, combo, then the rest of the features
+			MethodHandle sum = null;
+			for (int feature = 0; feature < CandidateBatch.FEATURES; feature++) {
+				if (!weights.uses(feature))
+					continue;
+				MethodHandle term;
+				if (feature == CandidateBatch.LINES) {
+					term = MethodHandles.insertArguments(linesTimes, 0, weights.get(feature));
+					term = MethodHandles.permuteArguments(term, SCORE_TYPE, 1, 2);
+				} else {
+					int argument = feature == CandidateBatch.HEIGHT ? 0 : feature + 1;
+					term = MethodHandles.insertArguments(times, 0, weights.get(feature));
+					term = MethodHandles.permuteArguments(term, SCORE_TYPE, argument);
+				}
+				if (sum == null) {
+					sum = term;
+				} else {
+					// add(sum(args), term(args))
+					MethodHandle both = MethodHandles.dropArguments(add, 2, SCORE_TYPE.parameterList());
+					both = MethodHandles.foldArguments(both, 1, term);
+					sum = MethodHandles.foldArguments(both, 0, sum);
+				}
+			}
+			if (sum == null)
+				sum = MethodHandles.dropArguments(MethodHandles.constant(double.class, 0.0), 0, SCORE_TYPE.parameterList());
+			return sum;
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static double times(double weight, int feature) {
+		return feature * weight;
+	}
+
+	private static double linesTimes(double weight, int lines, int combo) {
+		return lines * combo * weight;
+	}
+
+	private static double add(double a, double b) {
+		return a + b;
+	}
+
+	/*
+	* Calls the score handle through a field, where hidden classes are not available
+	* */
+	private static final class HandleScore extends ScoreFunction {
+		private final MethodHandle score;
+
+		HandleScore(Weights weights, MethodHandle score) {
+			super(weights);
+			this.score = score;
+		}
+
+		@Override
+		public double score(int heightTerm, int lines, int combo, int rowTransitions,
+				int columnTransitions, int holes, int wellSums) {
+			try {
+				return (double) this.score.invokeExact(heightTerm, lines, combo, rowTransitions, columnTransitions, holes, wellSums);
+			} catch (Throwable e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,60 @@
+// Copyright 2015 theaigames.com (developers@theaigames.com)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//	
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package field;
+
+/**
+ * ScoreFunction class
+ * 
+ * Combines the features of a board into its score. DEFAULT is
+ * Features.score with the built in weights; ScoreCompiler turns any other
+ * weight vector into a function of its own.
+ */
+
+public abstract class ScoreFunction {
+
+	public static final ScoreFunction DEFAULT = new ScoreFunction(Weights.DEFAULT) {
+		@Override
+		public double score(int heightTerm, int lines, int combo, int rowTransitions,
+				int columnTransitions, int holes, int wellSums) {
+			return Features.score(heightTerm, lines, combo, rowTransitions, columnTransitions, holes, wellSums);
+		}
+	};
+
+	private final Weights weights;
+
+	ScoreFunction(Weights weights) {
+		this.weights = weights;
+	}
+
+	/**
+	 * @return : weighted score of the features, see Features.score
+	 */
+	public abstract double score(int heightTerm, int lines, int combo, int rowTransitions,
+			int columnTransitions, int holes, int wellSums);
+
+	public Weights getWeights() {
+		return this.weights;
+	}
+
+	/**
+	 * @return : false when the feature has no weight and does not have to be computed
+	 */
+	public boolean uses(int feature) {
+		return this.weights.uses(feature);
+	}
+}
@@ -17,8 +17,6 @@
 
 package field;
 
-import java.awt.*;
-
 /**
  * Shape class
  * 
@@ -35,14 +33,16 @@ public class Shape {
 	private Cell[][] shape; // 2-dimensional bounding box: a matrix that contains the block-cells of the shape
 	private Cell[] blocks; // array that contains only the block-cells of the shape
 	private int size;
-	private Point location;
+	private int x;
+	private int y;
 	private Field field;
 	
-	public Shape(ShapeType type, Field field, Point location) {
+	public Shape(ShapeType type, Field field, int x, int y) {
 		this.type = type;
 		this.field = field;
 		this.blocks = new Cell[4];
-		this.location = location;
+		this.x = x;
+		this.y = y;
 		
 		setShape();
 		setBlockLocations();
@@ -80,19 +80,19 @@ public class Shape {
 	
 	public void oneDown() {
 		
-		this.location.y++;
+		this.y++;
 		this.setBlockLocations();
 	}
 	
 	public void oneRight() {
 		
-		this.location.x++;
+		this.x++;
 		this.setBlockLocations();
 	}
 	
 	public void oneLeft() {
 		
-		this.location.x--;
+		this.x--;
 		this.setBlockLocations();
 	}
 	
@@ -119,7 +119,7 @@ public class Shape {
 		for(int y=0; y < size; y++) {
 			for(int x=0; x < size; x++) {
 				if(shape[x][y].isShape()) {
-					shape[x][y].setLocation(location.x + x, location.y + y);
+					shape[x][y].setLocation(this.x + x, this.y + y);
 				}
 			}
 		}
@@ -212,7 +212,7 @@ public class Shape {
 
 	public Shape clone() {
 
-		Shape newShape = new Shape(this.type, this.field, new Point(this.location.x, this.location.y));
+		Shape newShape = new Shape(this.type, this.field, this.x, this.y);
 		int counter = 0;
 
 		// in case the cloned shape was rotated, copy the cells to clone this change
@@ -241,7 +241,8 @@ public class Shape {
 	
 	
 	public void setLocation(int x, int y) {
-		this.location = new Point(x, y);
+		this.x = x;
+		this.y = y;
 	}
 
 	public int getSize(){return size;}
@@ -250,8 +251,12 @@ public class Shape {
 		return this.blocks;
 	}
 	
-	public Point getLocation() {
-		return this.location;
+	public int getX() {
+		return this.x;
+	}
+
+	public int getY() {
+		return this.y;
 	}
 	
 	public ShapeType getType() {
@@ -0,0 +1,111 @@
+// Copyright 2015 theaigames.com (developers@theaigames.com)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//	
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package field;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * StagedEvaluator class
+ * 
+ * Two stage evaluation of a batch. Stage one scores every candidate on the
+ * cheap features only, plus lower bounds of the expensive ones taken from
+ * the base field, which gives an upper bound of its score. Stage two
+ * computes the expensive features for the candidates that can still win.
+ * 
+ * The caller decides who survives stage one with getCutoff() and its own
+ * best score so far. With the default infinite margin only candidates that
+ * provably cannot win are dropped; a finite margin also drops candidates
+ * whose bound is that far below the best bound, which is faster but can
+ * change the result.
+ * Counts how many candidates pass each stage, so the margin can be tuned.
+ */
+
+public class StagedEvaluator {
+
+	private final BatchEvaluator evaluator;
+	private final double margin;
+	private final LongAdder stageOne;
+	private final LongAdder stageTwo;
+
+	public StagedEvaluator() {
+		this(BatchEvaluator.getInstance(), Double.parseDouble(System.getProperty("bot.stageMargin", "Infinity")));
+	}
+
+	/**
+	 * @param evaluator : evaluator for both stages
+	 * @param margin    : how far below the best bound a candidate is dropped
+	 */
+	public StagedEvaluator(BatchEvaluator evaluator, double margin) {
+		this.evaluator = evaluator;
+		this.margin = margin;
+		this.stageOne = new LongAdder();
+		this.stageTwo = new LongAdder();
+	}
+
+	/**
+	 * Stage one for every candidate of the batch
+	 */
+	public void evaluateCheap(CandidateBatch batch) {
+		batch.prepareBounds();
+		this.evaluator.evaluateCheap(batch);
+		this.stageOne.add(batch.size());
+	}
+
+	/**
+	 * Stage two for one candidate
+	 * @return : the full score of the candidate
+	 */
+	public double complete(CandidateBatch batch, int i) {
+		this.evaluator.complete(batch, i);
+		this.stageTwo.increment();
+		return batch.getScore(i);
+	}
+
+	/**
+	 * @param bestBound : highest stage one bound in the batch
+	 * @param bestScore : full score of the candidate with that bound
+	 * @return : candidates with a lower bound than this can be dropped
+	 */
+	public double getCutoff(double bestBound, double bestScore) {
+		// A bound below a real non-positive score is never the best, nor exactly 0.0
+		double exact = bestScore <= 0 ? bestScore : Double.NEGATIVE_INFINITY;
+		return Math.max(exact, bestBound - this.margin);
+	}
+
+	public long getStageOneCount() {
+		return this.stageOne.sum();
+	}
+
+	public long getStageTwoCount() {
+		return this.stageTwo.sum();
+	}
+
+	/**
+	 * @return : share of the stage one candidates that went on to stage two
+	 */
+	public double getPassRate() {
+		long one = this.stageOne.sum();
+		return one == 0 ? 0 : (double) this.stageTwo.sum() / one;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("stage one %d, stage two %d (%.1f%% pass)",
+				getStageOneCount(), getStageTwoCount(), 100 * getPassRate());
+	}
+}
@@ -0,0 +1,95 @@
+// Copyright 2015 theaigames.com (developers@theaigames.com)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//	
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package field;
+
+import java.util.Arrays;
+
+/**
+ * Weights class
+ * 
+ * Weight vector of the evaluation, one weight per feature in the order
+ * of the CandidateBatch feature indices. The lines weight is multiplied
+ * with the combo value as well. A weight of 0 means the feature is not
+ * used, and evaluators may skip computing it.
+ */
+
+public final class Weights {
+
+	public static final Weights DEFAULT = new Weights(Features.HEIGHT_WEIGHT, Features.LINES_WEIGHT,
+			Features.ROW_TRANSITIONS_WEIGHT, Features.COLUMN_TRANSITIONS_WEIGHT, Features.HOLES_WEIGHT,
+			Features.WELL_SUMS_WEIGHT);
+
+	private final double[] weights;
+
+	/**
+	 * @param weights : one weight for every feature, CandidateBatch.FEATURES in total
+	 */
+	public Weights(double... weights) {
+		if (weights.length != CandidateBatch.FEATURES)
+			throw new IllegalArgumentException("Expected " + CandidateBatch.FEATURES + " weights, got " + weights.length);
+		this.weights = weights.clone();
+	}
+
+	/**
+	 * @param value : comma separated weights, like the output of toString()
+	 */
+	public static Weights parse(String value) {
+		String[] parts = value.split(",");
+		double[] weights = new double[parts.length];
+		for (int i = 0; i < parts.length; i++)
+			weights[i] = Double.parseDouble(parts[i].trim());
+		return new Weights(weights);
+	}
+
+	public double get(int feature) {
+		return this.weights[feature];
+	}
+
+	public boolean uses(int feature) {
+		return this.weights[feature] != 0;
+	}
+
+	/**
+	 * @return : true when the stage one bounds hold, which needs the
+	 *           expensive features to have no positive weight
+	 */
+	public boolean hasBounds() {
+		return this.weights[CandidateBatch.COLUMN_TRANSITIONS] <= 0 && this.weights[CandidateBatch.WELL_SUMS] <= 0;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof Weights && Arrays.equals(this.weights, ((Weights) other).weights);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(this.weights);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < this.weights.length; i++) {
+			if (i > 0)
+				builder.append(',');
+			builder.append(this.weights[i]);
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,541 @@
+// Copyright 2015 theaigames.com (developers@theaigames.com)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package oracle;
+
+import bot.BotStarter;
+import bot.BotState;
+import bot.SearchMode;
+import bot.SearchScheduler;
+import field.BatchEvaluator;
+import field.CandidateBatch;
+import field.CellType;
+import field.Field;
+import field.Orientation;
+import field.PackedField;
+import field.ScoreCompiler;
+import field.ScoreFunction;
+import field.Shape;
+import field.ShapeType;
+import field.StagedEvaluator;
+import field.Weights;
+import moves.MoveType;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * DifferentialOracle class
+ *
+ * Plays random boards through the frozen Reference* copy of the original
+ * engine and through the optimized code, and stops at the first difference.
+ * Per board it compares, bit for bit, the evaluate score of every placement
+ * (Field, PackedField, the batch evaluators, the staged path and the
+ * score function ScoreCompiler builds from the default weights), the
+ * landing row, the lines and the field left by removeLines, and on every
+ * searchEvery-th board the moves chosen by BotStarter. A failing board is
+ * shrunk to the smallest field that still fails before it is printed.
+ *
+ * Board i is generated from seed and i alone, so a reported board can be
+ * replayed with the same seed on any number of threads.
+ *
+ * Usage: DifferentialOracle [boards] [threads] [seed] [searchEvery] [width] [height]
+ */
+
+public class DifferentialOracle {
+
+	private static final ShapeType[] PIECES = {ShapeType.I, ShapeType.J, ShapeType.L, ShapeType.O, ShapeType.S, ShapeType.T, ShapeType.Z};
+
+	private final long seed;
+	private final long boards;
+	private final int searchEvery;
+	private final int width;
+	private final int height;
+	private final SearchScheduler scheduler;
+
+	private final AtomicLong next = new AtomicLong();
+	private final AtomicLong placements = new AtomicLong();
+	private final AtomicLong searches = new AtomicLong();
+	private volatile long failed = -1;
+	private String failure;
+	private Case shrunk;
+
+	public DifferentialOracle(long boards, int threads, long seed, int searchEvery, int width, int height) {
+		this.boards = boards;
+		this.seed = seed;
+		this.searchEvery = searchEvery;
+		this.width = width;
+		this.height = height;
+		this.scheduler = new SearchScheduler(threads);
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		long boards = args.length > 0 ? Long.parseLong(args[0]) : 1000000;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : System.nanoTime();
+		int searchEvery = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+		int width = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+		int height = args.length > 5 ? Integer.parseInt(args[5]) : 20;
+
+		// The survival search deliberately plays differently from the original on high stacks
+		System.setProperty("bot.survival", "false");
+
+		System.err.printf("Checking %d boards of %dx%d on %d threads, seed %d, evaluator %s\n",
+				boards, width, height, threads, seed, BatchEvaluator.getInstance().getName());
+
+		DifferentialOracle oracle = new DifferentialOracle(boards, threads, seed, searchEvery, width, height);
+		long start = System.nanoTime();
+		boolean ok = oracle.run(threads);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		oracle.scheduler.shutdown();
+
+		long checked = Math.min(oracle.next.get(), boards);
+		System.err.printf("%d boards, %d placements, %d searches in %.1fs (%.0f boards/s)\n",
+				checked, oracle.placements.get(), oracle.searches.get(), seconds, checked / seconds);
+		if (!ok) {
+			System.out.printf("Mismatch on board %d (seed %d): %s\n", oracle.failed, seed, oracle.failure);
+			System.out.println(oracle.shrunk);
+			System.exit(1);
+		}
+		System.out.println("No mismatches");
+	}
+
+	/**
+	 * Checks boards on the given number of threads until all are done or one fails
+	 * @return : true when no mismatch was found
+	 */
+	public boolean run(int threads) throws InterruptedException {
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			workers[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					work(new Checker(scheduler, width, height));
+				}
+			}, "oracle-" + t);
+			workers[t].start();
+		}
+		for (Thread worker : workers)
+			worker.join();
+		return this.failed < 0;
+	}
+
+	private void work(Checker checker) {
+		long i;
+		while (this.failed < 0 && (i = this.next.getAndIncrement()) < this.boards) {
+			Case c = generate(new SplittableRandom(this.seed + i * 0x9E3779B97F4A7C15L), this.width, this.height);
+			boolean search = i % this.searchEvery == 0;
+			String mismatch = checker.check(c, search);
+			this.placements.addAndGet(checker.placements);
+			if (search)
+				this.searches.incrementAndGet();
+			if (mismatch != null) {
+				report(i, mismatch, shrink(checker, c));
+				return;
+			}
+		}
+	}
+
+	private synchronized void report(long board, String mismatch, Case c) {
+		if (this.failed >= 0 && this.failed < board)
+			return;
+		this.failed = board;
+		this.failure = mismatch;
+		this.shrunk = c;
+	}
+
+	/**
+	 * Random field in the shapes the engine produces: solid rows at the
+	 * bottom, a rough stack with holes, some (nearly) full rows and the
+	 * falling piece drawn as shape cells
+	 */
+	static Case generate(SplittableRandom random, int width, int height) {
+		int[][] cells = new int[height][width];
+		int solid = random.nextInt(4) == 0 ? random.nextInt(1, 5) : 0;
+		for (int y = height - solid; y < height; y++)
+			for (int x = 0; x < width; x++)
+				cells[y][x] = CellType.SOLID.getCode();
+
+		int floor = height - solid;
+		int stack = random.nextInt(floor - 1);
+		int holeRate = random.nextInt(4, 16);
+		for (int x = 0; x < width; x++) {
+			int column = Math.max(0, Math.min(floor - 1, stack + random.nextInt(-3, 4)));
+			for (int y = floor - column; y < floor; y++)
+				if (random.nextInt(holeRate) != 0)
+					cells[y][x] = CellType.BLOCK.getCode();
+		}
+		for (int y = floor - stack; y < floor; y++) {
+			if (random.nextInt(4) != 0)
+				continue;
+			int gap = random.nextInt(8) == 0 ? -1 : random.nextInt(width);
+			for (int x = 0; x < width; x++)
+				cells[y][x] = x == gap ? CellType.EMPTY.getCode() : CellType.BLOCK.getCode();
+		}
+
+		ShapeType piece = PIECES[random.nextInt(PIECES.length)];
+		ShapeType nextPiece = PIECES[random.nextInt(PIECES.length)];
+		if (random.nextBoolean()) {
+			Point spawn = spawn(piece);
+			Orientation o = Orientation.get(piece, 0);
+			for (int i = 0; i < o.getCells(); i++) {
+				int x = spawn.x + o.getDx(i);
+				int y = spawn.y + o.getDy(i);
+				if (y >= 0 && cells[y][x] == CellType.EMPTY.getCode())
+					cells[y][x] = CellType.SHAPE.getCode();
+			}
+		}
+		return new Case(cells, piece, nextPiece, random.nextInt(4));
+	}
+
+	static Point spawn(ShapeType type) {
+		return (type == ShapeType.O) ? new Point(4, -1) : new Point(3, -1);
+	}
+
+	/**
+	 * Empties rows, then single cells, then drops the combo, for as long as the board keeps failing
+	 */
+	static Case shrink(Checker checker, Case c) {
+		boolean progress = true;
+		while (progress) {
+			progress = false;
+			for (int y = 0; y < c.height; y++) {
+				Case t = c.withoutRow(y);
+				if (t != null && checker.check(t, true) != null) {
+					c = t;
+					progress = true;
+				}
+			}
+			for (int y = 0; y < c.height; y++) {
+				for (int x = 0; x < c.width; x++) {
+					Case t = c.without(x, y);
+					if (t != null && checker.check(t, true) != null) {
+						c = t;
+						progress = true;
+					}
+				}
+			}
+			if (c.combo != 0) {
+				Case t = new Case(c.cells, c.piece, c.nextPiece, 0);
+				if (checker.check(t, true) != null) {
+					c = t;
+					progress = true;
+				}
+			}
+		}
+		return c;
+	}
+
+	/*
+	 * One board with the pieces and combo to play on it
+	 */
+	static final class Case {
+		final int[][] cells;
+		final ShapeType piece;
+		final ShapeType nextPiece;
+		final int combo;
+		final int width;
+		final int height;
+
+		Case(int[][] cells, ShapeType piece, ShapeType nextPiece, int combo) {
+			this.cells = cells;
+			this.height = cells.length;
+			this.width = cells[0].length;
+			this.piece = piece;
+			this.nextPiece = nextPiece;
+			this.combo = combo;
+		}
+
+		Case without(int x, int y) {
+			if (this.cells[y][x] == CellType.EMPTY.getCode())
+				return null;
+			int[][] copy = copy();
+			copy[y][x] = CellType.EMPTY.getCode();
+			return new Case(copy, this.piece, this.nextPiece, this.combo);
+		}
+
+		Case withoutRow(int y) {
+			int[][] copy = copy();
+			boolean changed = false;
+			for (int x = 0; x < this.width; x++) {
+				changed |= copy[y][x] != CellType.EMPTY.getCode();
+				copy[y][x] = CellType.EMPTY.getCode();
+			}
+			return changed ? new Case(copy, this.piece, this.nextPiece, this.combo) : null;
+		}
+
+		private int[][] copy() {
+			int[][] copy = new int[this.height][];
+			for (int y = 0; y < this.height; y++)
+				copy[y] = this.cells[y].clone();
+			return copy;
+		}
+
+		/**
+		 * @return : the field in the engine's format, rows separated by ';'
+		 */
+		String getFieldString() {
+			StringBuilder builder = new StringBuilder();
+			for (int y = 0; y < this.height; y++) {
+				if (y > 0)
+					builder.append(';');
+				for (int x = 0; x < this.width; x++) {
+					if (x > 0)
+						builder.append(',');
+					builder.append(this.cells[y][x]);
+				}
+			}
+			return builder.toString();
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder();
+			builder.append(String.format("piece %s, next %s, combo %d\n", this.piece, this.nextPiece, this.combo));
+			for (int y = 0; y < this.height; y++) {
+				for (int x = 0; x < this.width; x++)
+					builder.append(".x#S".charAt(this.cells[y][x] == CellType.SHAPE.getCode() ? 1
+							: this.cells[y][x] == CellType.BLOCK.getCode() ? 2
+							: this.cells[y][x] == CellType.SOLID.getCode() ? 3 : 0));
+				builder.append('\n');
+			}
+			builder.append("field ").append(getFieldString());
+			return builder.toString();
+		}
+	}
+
+	/*
+	 * Per thread state to check boards, not thread safe
+	 */
+	static final class Checker {
+		private final ReferenceSearch reference = new ReferenceSearch();
+		private final BotStarter bot;
+		private final BatchEvaluator instance = BatchEvaluator.getInstance();
+		private final BatchEvaluator scalar = BatchEvaluator.getScalar();
+		private final StagedEvaluator staged = new StagedEvaluator(this.instance, Double.POSITIVE_INFINITY);
+		private final ScoreFunction compiled = ScoreCompiler.compile(Weights.DEFAULT);
+		private final CandidateBatch batch;
+		private final double[] expected;
+		private final String[] names;
+		private final int width;
+		private final int height;
+		int placements;
+
+		Checker(SearchScheduler scheduler, int width, int height) {
+			this.bot = new BotStarter(scheduler, SearchMode.LOOKAHEAD);
+			this.batch = new CandidateBatch(width, height, 4 * width);
+			this.expected = new double[4 * width];
+			this.names = new String[4 * width];
+			this.width = width;
+			this.height = height;
+		}
+
+		/**
+		 * @return : a description of the first mismatch, or null when everything agrees
+		 */
+		String check(Case c, boolean search) {
+			try {
+				return compareAll(c, search);
+			} catch (RuntimeException e) {
+				// the reference never throws on a legal field
+				return "exception " + e;
+			}
+		}
+
+		private String compareAll(Case c, boolean search) {
+			String fieldString = c.getFieldString();
+			ReferenceField grid = new ReferenceField(this.width, this.height, fieldString);
+			Field field = new Field(this.width, this.height, fieldString);
+			PackedField packed = new PackedField(field);
+			int combo = c.combo * 2;
+			this.placements = 0;
+			this.batch.reset(packed, combo);
+
+			// Every placement of the original search
+			ReferenceShape piece = new ReferenceShape(c.piece, grid, spawn(c.piece));
+			for (int rotation = 0; rotation < 4; rotation++) {
+				if (rotation != 0)
+					piece.turnRight();
+				ReferenceShape _piece = piece.clone();
+				while (grid.canMoveLeft(_piece))
+					_piece.oneLeft();
+				while (grid.isValid(_piece)) {
+					ReferenceShape _setPiece = _piece.clone();
+					while (grid.canMoveDown(_setPiece))
+						_setPiece.oneDown();
+					if (grid.isValidTop(_setPiece)) {
+						String mismatch = checkPlacement(c.piece, rotation, grid, field, packed, _setPiece, combo);
+						if (mismatch != null)
+							return mismatch;
+					}
+					_piece.oneRight();
+				}
+			}
+
+			String mismatch = checkBatch(this.instance);
+			if (mismatch == null)
+				mismatch = checkBatch(this.scalar);
+			if (mismatch == null)
+				mismatch = checkCompiled();
+			if (mismatch == null)
+				mismatch = checkStaged();
+			if (mismatch == null && search)
+				mismatch = checkSearch(c, grid, fieldString);
+			return mismatch;
+		}
+
+		private String checkPlacement(ShapeType type, int rotation, ReferenceField grid, Field field,
+				PackedField packed, ReferenceShape _setPiece, int combo) {
+			Point at = _setPiece.getLocation();
+			String name = String.format("%s rotation %d at (%d,%d)", type, rotation, at.x, at.y);
+
+			ReferenceField _grid = grid.clone();
+			_grid.addPiece(_setPiece);
+			double expected = _grid.evaluate(_setPiece, combo);
+			int lines = _grid.lines();
+
+			Shape shape = new Shape(type, field, at.x, at.y);
+			for (int r = 0; r < rotation; r++)
+				shape.turnRight();
+
+			Field _field = field.clone();
+			_field.addPiece(shape);
+			String mismatch = compare("Field.evaluate", name, expected, _field.evaluate(shape, combo));
+			if (mismatch != null)
+				return mismatch;
+
+			PackedField _packed = new PackedField(packed);
+			_packed.addPiece(shape);
+			mismatch = compare("PackedField.evaluate", name, expected, _packed.evaluate(shape, combo));
+			if (mismatch != null)
+				return mismatch;
+			if (_packed.lines() != lines)
+				return String.format("PackedField.lines for %s: expected %d, got %d", name, lines, _packed.lines());
+
+			Orientation o = Orientation.get(type, rotation);
+			int landing = packed.drop(o, at.x, spawn(type).y);
+			if (landing != at.y)
+				return String.format("PackedField.drop for %s: landed on row %d", name, landing);
+			PackedField placed = new PackedField(packed);
+			placed.place(o, at.x, at.y);
+			mismatch = compare("PackedField.place", name, expected, placed.evaluate(o, at.y, combo));
+			if (mismatch != null)
+				return mismatch;
+
+			int removed = _grid.removeLines();
+			if (_packed.removeLines() != removed)
+				return String.format("PackedField.removeLines for %s: expected %d lines", name, removed);
+			for (int y = 0; y < this.height; y++) {
+				for (int x = 0; x < this.width; x++) {
+					CellType cell = _grid.getCell(x, y).getState();
+					CellType actual = cellAt(_packed, x, y);
+					if (cell != actual)
+						return String.format("PackedField.removeLines for %s: cell (%d,%d) expected %s, got %s",
+								name, x, y, cell, actual);
+				}
+			}
+
+			int i = this.batch.add(shape);
+			this.expected[i] = expected;
+			this.names[i] = name;
+			this.placements++;
+			return null;
+		}
+
+		private String checkBatch(BatchEvaluator evaluator) {
+			evaluator.evaluate(this.batch);
+			for (int i = 0; i < this.batch.size(); i++) {
+				String mismatch = compare(evaluator.getName(), this.names[i], this.expected[i], this.batch.getScore(i));
+				if (mismatch != null)
+					return mismatch;
+			}
+			return null;
+		}
+
+		/**
+		 * Runs after checkBatch, on the features it left in the batch
+		 */
+		private String checkCompiled() {
+			for (int i = 0; i < this.batch.size(); i++) {
+				double score = this.compiled.score(this.batch.getFeature(CandidateBatch.HEIGHT, i),
+						this.batch.getFeature(CandidateBatch.LINES, i), this.batch.getCombo(),
+						this.batch.getFeature(CandidateBatch.ROW_TRANSITIONS, i),
+						this.batch.getFeature(CandidateBatch.COLUMN_TRANSITIONS, i),
+						this.batch.getFeature(CandidateBatch.HOLES, i), this.batch.getFeature(CandidateBatch.WELL_SUMS, i));
+				String mismatch = compare("ScoreCompiler", this.names[i], this.expected[i], score);
+				if (mismatch != null)
+					return mismatch;
+			}
+			return null;
+		}
+
+		private String checkStaged() {
+			this.staged.evaluateCheap(this.batch);
+			for (int i = 0; i < this.batch.size(); i++) {
+				if (this.batch.getBound(i) < this.expected[i])
+					return String.format("bound for %s: %s below the score %s", this.names[i],
+							this.batch.getBound(i), this.expected[i]);
+				String mismatch = compare("StagedEvaluator", this.names[i], this.expected[i], this.staged.complete(this.batch, i));
+				if (mismatch != null)
+					return mismatch;
+			}
+			return null;
+		}
+
+		private String checkSearch(Case c, ReferenceField grid, String fieldString) {
+			ArrayList<MoveType> expected = this.reference.getMoves(grid, c.piece, spawn(c.piece), c.nextPiece, c.combo);
+
+			Point spawn = spawn(c.piece);
+			BotState state = new BotState();
+			state.updateSettings("player_names", "player1,player2");
+			state.updateSettings("your_bot", "player1");
+			state.updateSettings("timebank", "10000");
+			state.updateSettings("time_per_move", "500");
+			state.updateSettings("field_width", Integer.toString(this.width));
+			state.updateSettings("field_height", Integer.toString(this.height));
+			state.updateState("player1", "combo", Integer.toString(c.combo));
+			state.updateState("player1", "field", fieldString);
+			state.updateState("game", "this_piece_type", c.piece.name());
+			state.updateState("game", "next_piece_type", c.nextPiece.name());
+			state.updateState("game", "this_piece_position", spawn.x + "," + spawn.y);
+			ArrayList<MoveType> actual = this.bot.getMoves(state, 60000);
+
+			if (!expected.equals(actual))
+				return String.format("BotStarter.getMoves: expected %s, got %s", expected, actual);
+			return null;
+		}
+
+		private static String compare(String what, String name, double expected, double actual) {
+			if (Double.doubleToLongBits(expected) == Double.doubleToLongBits(actual))
+				return null;
+			return String.format("%s for %s: expected %s, got %s", what, name, expected, actual);
+		}
+
+		private static CellType cellAt(PackedField field, int x, int y) {
+			int bit = 1 << x;
+			if ((field.getSolidRow(y, x / 32) & bit) != 0)
+				return CellType.SOLID;
+			if ((field.getBlockRow(y, x / 32) & bit) != 0)
+				return CellType.BLOCK;
+			if ((field.getShapeRow(y, x / 32) & bit) != 0)
+				return CellType.SHAPE;
+			return CellType.EMPTY;
+		}
+	}
+}
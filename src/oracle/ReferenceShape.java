@@ -0,0 +1,261 @@
+// Copyright 2015 theaigames.com (developers@theaigames.com)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//	
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package oracle;
+
+import java.awt.*;
+
+import field.ShapeType;
+
+/**
+ * ReferenceShape class
+ * 
+ * Frozen copy of the original field.Shape, used by the DifferentialOracle.
+ * Do not optimize: it is the behaviour the optimized code is checked against.
+ * 
+ * @author Jim van Eeden <jim@starapple.nl>
+ */
+
+public class ReferenceShape {
+
+	public ShapeType type;
+	private ReferenceCell[][] shape; // 2-dimensional bounding box: a matrix that contains the block-cells of the shape
+	private ReferenceCell[] blocks; // array that contains only the block-cells of the shape
+	private int size;
+	private Point location;
+	private ReferenceField field;
+	
+	public ReferenceShape(ShapeType type, ReferenceField field, Point location) {
+		this.type = type;
+		this.field = field;
+		this.blocks = new ReferenceCell[4];
+		this.location = location;
+		
+		setShape();
+		setBlockLocations();
+	}
+	
+	// ACTIONS (no checks for errors are performed in the actions!)
+	
+	/**
+	 * Rotates the shape counter-clockwise
+	 */
+	public void turnLeft() {
+
+		ReferenceCell[][] temp = this.transposeShape();
+		for(int y=0; y < size; y++) {
+			for(int x=0; x < size; x++) {
+				this.shape[x][y] = temp[x][size - y - 1];
+			}
+		}
+		
+		this.setBlockLocations();
+	}
+	
+	/**
+	 * Rotates the shape clockwise
+	 */
+	public void turnRight() {
+
+		ReferenceCell[][] temp = this.transposeShape();
+		for(int x=0; x < size; x++) {
+			this.shape[x] = temp[size - x - 1];
+		}
+		
+		this.setBlockLocations();
+	}
+	
+	public void oneDown() {
+		
+		this.location.y++;
+		this.setBlockLocations();
+	}
+	
+	public void oneRight() {
+		
+		this.location.x++;
+		this.setBlockLocations();
+	}
+	
+	public void oneLeft() {
+		
+		this.location.x--;
+		this.setBlockLocations();
+	}
+	
+	/**
+	 * Used for rotations
+	 * @return transposed matrix of current shape box
+	 */
+	private ReferenceCell[][] transposeShape() {
+		ReferenceCell[][] temp = new ReferenceCell[size][size];
+		for(int y=0; y < size; y++) {
+			for(int x=0; x < size; x++) {
+				temp[y][x] = shape[x][y];
+			}
+		}
+		return temp;
+	}
+	
+	/**
+	 * Uses the shape's current orientation and position to
+	 * set the actual location of the block-type cells on the field
+	 */
+	private void setBlockLocations() {
+
+		for(int y=0; y < size; y++) {
+			for(int x=0; x < size; x++) {
+				if(shape[x][y].isShape()) {
+					shape[x][y].setLocation(location.x + x, location.y + y);
+				}
+			}
+		}
+	}
+	
+	/** 
+	 * Set shape in square box.
+	 * Creates new Cells that can be checked against the actual
+     * playing field.
+     * */
+	private void setShape() {
+		switch(this.type) {
+			case I:
+				this.size = 4;
+				this.shape = initializeShape();
+				this.blocks[0] = this.shape[0][1];
+				this.blocks[1] = this.shape[1][1];
+				this.blocks[2] = this.shape[2][1];
+				this.blocks[3] = this.shape[3][1];
+				break;
+			case J:
+				this.size = 3;
+				this.shape = initializeShape();
+				this.blocks[0] = this.shape[0][0];
+				this.blocks[1] = this.shape[0][1];
+				this.blocks[2] = this.shape[1][1];
+				this.blocks[3] = this.shape[2][1];
+				break;
+			case L:
+				this.size = 3;
+				this.shape = initializeShape();
+				this.blocks[0] = this.shape[2][0];
+				this.blocks[1] = this.shape[0][1];
+				this.blocks[2] = this.shape[1][1];
+				this.blocks[3] = this.shape[2][1];
+				break;
+			case O:
+				this.size = 2;
+				this.shape = initializeShape();
+				this.blocks[0] = this.shape[0][0];
+				this.blocks[1] = this.shape[1][0];
+				this.blocks[2] = this.shape[0][1];
+				this.blocks[3] = this.shape[1][1];
+				break;
+			case S:
+				this.size = 3;
+				this.shape = initializeShape();
+				this.blocks[0] = this.shape[1][0];
+				this.blocks[1] = this.shape[2][0];
+				this.blocks[2] = this.shape[0][1];
+				this.blocks[3] = this.shape[1][1];
+				break;
+			case T:
+				this.size = 3;
+				this.shape = initializeShape();
+				this.blocks[0] = this.shape[1][0];
+				this.blocks[1] = this.shape[0][1];
+				this.blocks[2] = this.shape[1][1];
+				this.blocks[3] = this.shape[2][1];
+				break;
+			case Z:
+				this.size = 3;
+				this.shape = initializeShape();
+				this.blocks[0] = this.shape[0][0];
+				this.blocks[1] = this.shape[1][0];
+				this.blocks[2] = this.shape[1][1];
+				this.blocks[3] = this.shape[2][1];
+				break;
+		}
+		
+		// set type to SHAPE
+		for(int i=0; i < blocks.length; i++) {
+			this.blocks[i].setShape();
+		}
+	}
+	
+	/**
+	 * Creates the matrix for the shape
+	 * @return
+	 */
+	private ReferenceCell[][] initializeShape() {
+		ReferenceCell[][] newShape = new ReferenceCell[size][size];
+		for(int y=0; y < this.size; y++) {
+			for(int x=0; x < this.size; x++) {
+				newShape[x][y] = new ReferenceCell();
+			}
+		}
+		return newShape;
+	}
+
+	public ReferenceShape clone() {
+
+		ReferenceShape newShape = new ReferenceShape(this.type, this.field, new Point(this.location.x, this.location.y));
+		int counter = 0;
+
+		// in case the cloned shape was rotated, copy the cells to clone this change
+		for (int y = 0; y < size; y++)
+			for (int x = 0; x < size; x++) {
+				switch (this.shape[x][y].getState()) {
+					case EMPTY:
+						newShape.shape[x][y].setEmpty();
+						break;
+					case SHAPE:
+						newShape.shape[x][y].setShape();
+						newShape.blocks[counter++] = newShape.shape[x][y];
+						break;
+					case BLOCK:
+						newShape.shape[x][y].setBlock();
+						break;
+					case SOLID:
+						newShape.shape[x][y].setSolid();
+						break;
+				}
+			}
+
+		newShape.setBlockLocations();
+		return newShape;
+	}
+	
+	
+	public void setLocation(int x, int y) {
+		this.location = new Point(x, y);
+	}
+
+	public int getSize(){return size;}
+
+	public ReferenceCell[] getBlocks() {
+		return this.blocks;
+	}
+	
+	public Point getLocation() {
+		return this.location;
+	}
+	
+	public ShapeType getType() {
+		return this.type;
+	}
+}
@@ -18,6 +18,7 @@
 package player;
 
 import field.Field;
+import field.PackedField;
 
 /**
  * Player class
@@ -25,12 +26,20 @@ import field.Field;
  * Represents one of the players. Stores some
  * data about them.
  * 
+ * The field is only decoded when it is asked for, and after the first
+ * round only the rows that changed are decoded again, into the same
+ * Field and PackedField.
+ * 
  * @author Jim van Eeden <jim@starapple.nl>
  */
 
 public class Player {
 
 	private Field field;
+	private PackedField packedField;
+	private String fieldString; // not decoded yet
+	private int fieldWidth;
+	private int fieldHeight;
 	private String name;
 	private int points;
 	private int combo;
@@ -41,12 +50,55 @@ public class Player {
 	
 	public void setField(Field field) {
 		this.field = field;
+		this.packedField = null;
+		this.fieldString = null;
+	}
+	
+	/**
+	 * Stores the field of a new round, decoded on the next getField
+	 * @param width       : field width
+	 * @param height      : field height
+	 * @param fieldString : field as sent by the engine
+	 */
+	public void updateField(int width, int height, String fieldString) {
+		this.fieldWidth = width;
+		this.fieldHeight = height;
+		this.fieldString = fieldString;
 	}
 	
 	public Field getField() {
+		if(this.fieldString != null)
+			decode();
 		return this.field;
 	}
 	
+	/**
+	 * @return : bitmask copy of getField, kept up to date with it. Do not modify.
+	 */
+	public PackedField getPackedField() {
+		Field field = getField();
+		if(this.packedField == null && field != null)
+			this.packedField = new PackedField(field);
+		return this.packedField;
+	}
+	
+	private void decode() {
+		String fieldString = this.fieldString;
+		this.fieldString = null;
+		if(this.field == null || this.field.getWidth() != this.fieldWidth || this.field.getHeight() != this.fieldHeight) {
+			this.field = new Field(this.fieldWidth, this.fieldHeight, fieldString);
+			this.packedField = null;
+			return;
+		}
+		
+		int changed = this.field.update(fieldString);
+		if(this.packedField != null) {
+			this.packedField.rotateUp(this.field.getShift());
+			for(int i = 0; i < changed; i++)
+				this.packedField.updateRow(this.field, this.field.getChangedRow(i));
+		}
+	}
+	
 	public String getName() {
 		return this.name;
 	}